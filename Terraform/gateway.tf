@@ -43,6 +43,13 @@ resource "aws_apigatewayv2_route" "song" {
   target    = "integrations/${aws_apigatewayv2_integration.ikovsky.id}"
 }
 
+resource "aws_apigatewayv2_route" "batch" {
+  api_id = aws_apigatewayv2_api.lambda.id
+
+  route_key = "POST /batch"
+  target    = "integrations/${aws_apigatewayv2_integration.ikovsky.id}"
+}
+
 resource "aws_cloudwatch_log_group" "api_gw" {
   name = "/aws/api_gw/${aws_apigatewayv2_api.lambda.name}"
 
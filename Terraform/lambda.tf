@@ -56,3 +56,58 @@ resource "aws_lambda_function" "java_ikovsky" {
   runtime = "java17"
 }
 
+
+# Streaming endpoint, created when the Lambda Web Adapter layer is given
+# The managed java17 runtime buffers a handler's whole response, so ikovsky.StreamingHandler can't stream on it.
+# Instead this function runs the standalone SongServer behind the Lambda Web Adapter, which forwards each invocation
+# to the server and streams its response through a function URL. Clients POST the song parameters to <stream_url>stream
+variable "lambda_web_adapter_layer_arn" {
+  description = "ARN of the Lambda Web Adapter layer (x86_64) in the provider's region, leave empty to skip the streaming function"
+  type        = string
+  default     = ""
+}
+
+resource "aws_lambda_function" "java_ikovsky_stream" {
+  count = var.lambda_web_adapter_layer_arn == "" ? 0 : 1
+
+  filename      = "${path.module}/../build/distributions/iKovsky.zip"
+  function_name = "java_ikovsky_stream"
+  role          = aws_iam_role.iam_for_lambda.arn
+  handler       = "run.sh"
+  # Long-form songs (up to LONG_FORM_MAX_MINUTES of music, a few MB of midi) take seconds to compose on a fraction of
+  # a vCPU, and the invocation lasts until a slow client has read the whole stream
+  timeout       = 120
+  layers        = [var.lambda_web_adapter_layer_arn]
+
+  source_code_hash = filebase64sha256("${path.module}/../build/distributions/iKovsky.zip")
+
+  runtime = "java17"
+
+  environment {
+    variables = {
+      AWS_LAMBDA_EXEC_WRAPPER      = "/opt/bootstrap"
+      AWS_LWA_INVOKE_MODE          = "response_stream"
+      AWS_LWA_PORT                 = "8080"
+      AWS_LWA_READINESS_CHECK_PATH = "/health"
+    }
+  }
+}
+
+resource "aws_lambda_function_url" "stream" {
+  count = var.lambda_web_adapter_layer_arn == "" ? 0 : 1
+
+  function_name      = aws_lambda_function.java_ikovsky_stream[0].function_name
+  authorization_type = "NONE"
+  invoke_mode        = "RESPONSE_STREAM"
+}
+
+# Function URLs with NONE auth still need a resource policy letting anyone invoke them through the URL
+resource "aws_lambda_permission" "stream_url" {
+  count = var.lambda_web_adapter_layer_arn == "" ? 0 : 1
+
+  statement_id           = "AllowPublicFunctionUrlInvoke"
+  action                 = "lambda:InvokeFunctionUrl"
+  function_name          = aws_lambda_function.java_ikovsky_stream[0].function_name
+  principal              = "*"
+  function_url_auth_type = "NONE"
+}
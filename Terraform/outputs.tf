@@ -2,4 +2,9 @@ output "base_url" {
   description = "Base URL for API Gateway stage."
 
   value = aws_apigatewayv2_stage.lambda.invoke_url
-}
\ No newline at end of file
+}
+output "stream_url" {
+  description = "Function URL of the streaming endpoint, if it was created."
+
+  value = one(aws_lambda_function_url.stream[*].function_url)
+}
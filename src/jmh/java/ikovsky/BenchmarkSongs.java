@@ -0,0 +1,62 @@
+package ikovsky;
+
+import java.util.SplittableRandom;
+
+/**
+ * The songs the benchmarks compose: one request, written the way SongGenerator writes it, from a fixed seed.
+ * Every benchmark builds its inputs from here so a seed means the same song in all of them.
+ */
+final class BenchmarkSongs {
+    static final String KEY = "A";
+    static final String TEMPO = "120";
+    static final String TIME_SIG = "4/4";
+    static final String OCTAVE_LOW = "3";
+    static final String OCTAVE_HIGH = "7";
+    static final String DYNAMICS_LOW = "50";
+    static final String DYNAMICS_HIGH = "100";
+    static final String NOTE_DENSITY = "90";
+    static final String INSTRUMENT = "1";
+    static final String[] WEIGHTS = {"0.3", "0.1", "0", "0.3", "0.3", "0", "0"};
+
+    private BenchmarkSongs() {
+    }
+
+    /**
+     * Function to validate the benchmark request into a SongStructure
+     * @param random The song's RandomSource
+     * @return The song's structure
+     */
+    static SongStructure newStructure(RandomSource random) {
+        return new SongStructure(KEY, TEMPO, TIME_SIG, OCTAVE_LOW, OCTAVE_HIGH, DYNAMICS_LOW, DYNAMICS_HIGH,
+                NOTE_DENSITY, INSTRUMENT, WEIGHTS[0], WEIGHTS[1], WEIGHTS[2], WEIGHTS[3], WEIGHTS[4], WEIGHTS[5],
+                WEIGHTS[6], random);
+    }
+
+    /**
+     * Function to create a composer with all the parts of the song, as SongGenerator does
+     * @param structure The song's structure
+     * @param random The song's RandomSource
+     * @return The composer, ready to write the song
+     */
+    static Composer newComposer(SongStructure structure, RandomSource random) {
+        SplittableRandom rand = random.stream("generator");
+        Composer composer = new Composer(structure, random);
+        for (int i = 0; i < structure.numParts; i++) {
+            int octave = structure.maxOctave == structure.minOctave ? structure.maxOctave
+                    : rand.nextInt(structure.maxOctave - structure.minOctave) + structure.minOctave + 1;
+            boolean isRhythm = rand.nextDouble() < structure.rhythmChance;
+            composer.addPart(isRhythm, structure.instrument, octave, structure.minDynamic, structure.maxDynamic);
+        }
+        return composer;
+    }
+
+    /**
+     * Function to compose the song of a seed
+     * @param seed The song's seed
+     * @return The composed song
+     */
+    static ComposedSong compose(long seed) {
+        RandomSource random = new RandomSource(seed);
+        return newComposer(newStructure(random), random).compose();
+    }
+}
@@ -0,0 +1,88 @@
+package ikovsky;
+
+import java.util.concurrent.TimeUnit;
+
+import jm.music.data.Score;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of composing: picking notes and chords, writing a bar, and writing a whole song.
+ * The pickers are reset to their seed at the start of every iteration, so each iteration draws the same sequence.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompositionBenchmark {
+    @Param({"42"})
+    long seed;
+
+    private NotePicker notePicker;
+    private ChordPicker chordPicker;
+    private PartCreator partCreator;
+    private int[] barChord;
+    private ChordStructs barStruct;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        RandomSource random = new RandomSource(seed);
+        SongStructure structure = BenchmarkSongs.newStructure(random);
+
+        chordPicker = new ChordPicker(structure.key, structure.isMinorKey, random.stream("chords"));
+        chordPicker.setProbabilities(structure.chordWeightings);
+
+        notePicker = new NotePicker(random.stream("notes", 0));
+        notePicker.setScaleBaseline(Scales.MAJOR, Scales.MAJOR_PENTATONIC, 0, structure.key, structure.minOctave);
+        notePicker.setChord(chordPicker.chords[0]);
+
+        partCreator = new PartCreator(false, structure, structure.instrument, structure.minOctave,
+                structure.minDynamic, structure.maxDynamic, random, 0);
+        barChord = ChordTable.voicing(structure.isMinorKey, 0, false, structure.key);
+        barStruct = chordPicker.chords[0];
+    }
+
+    @Benchmark
+    public int notePickerGetNewNote() {
+        return notePicker.getNewNote();
+    }
+
+    @Benchmark
+    public int[] chordPickerGetNewChord() {
+        return chordPicker.getNewChord();
+    }
+
+    @Benchmark
+    public int partCreatorWriteBar() {
+        partCreator.events.clear();
+        partCreator.writeBar(barChord, barStruct);
+        return partCreator.events.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ComposedSong composerCompose() {
+        return BenchmarkSongs.compose(seed);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Score composerWriteSong() {
+        RandomSource random = new RandomSource(seed);
+        Score score = new Score();
+        BenchmarkSongs.newComposer(BenchmarkSongs.newStructure(random), random).writeSong(score);
+        return score;
+    }
+}
@@ -0,0 +1,80 @@
+package ikovsky;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import jm.music.data.Score;
+import jm.util.Write;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of turning a composed song into the response: midi encoding, with jMusic and with MidiEncoder,
+ * and the Base64 of the file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+    @Param({"42"})
+    long seed;
+
+    private ComposedSong song;
+    private Score score;
+    private byte[] midi;
+    private PrintStream stdout;
+
+    @Setup
+    public void setUp() {
+        //Write.midi prints its progress through every phrase, which would swamp the benchmark output
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        song = BenchmarkSongs.compose(seed);
+        score = song.toScore("Benchmark");
+        midi = MidiEncoder.encode(song, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public byte[] jMusicWriteMidi() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Write.midi(score, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] midiEncoderScore() {
+        return MidiEncoder.encode(score);
+    }
+
+    @Benchmark
+    public byte[] midiEncoderComposedSong() {
+        return MidiEncoder.encode(song, null);
+    }
+
+    @Benchmark
+    public String base64() {
+        return Base64.getEncoder().encodeToString(midi);
+    }
+}
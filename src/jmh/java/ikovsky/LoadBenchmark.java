@@ -0,0 +1,581 @@
+package ikovsky;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test of the generate endpoint: drives Handler.handleRequest with API Gateway v2 events from a
+ * number of client threads, against an in-memory stand-in for the ikovsky-songs table.
+ * Each mix of request parameters is run at every concurrency from 1 up to the number of cores, and each run reports
+ * throughput, latency percentiles, bytes allocated per song and the GC pauses during the run.
+ * Allocation is summed over every thread, not just the client threads: a song with enough bars has its parts composed
+ * on the handler's part executor (the common pool) and songs are written by the persistence queue's thread, as when
+ * deployed. A pool thread that exits part way through a run takes its count with it, the common pool keeps idle
+ * threads for a minute so between back to back runs this is rare. The client threads' own share is reported as well.
+ * The report is written as JSON, to compare builds.
+ *
+ * Options, as --name=value:
+ * - duration: seconds measured per run (10)
+ * - warmup: seconds run before measuring, for each mix (5)
+ * - maxConcurrency: the highest number of client threads (the number of cores)
+ * - mixes: comma separated mixes to run (typical,fourPart,dense)
+ * - out: the report file (build/reports/load/results.json)
+ *
+ * The service is set up through the same settings as a deployment, as system properties: songs are stored in
+ * memory, and the result cache and metrics are off, so every request composes a song and the output is the report.
+ * Settings given in the environment are left as they are.
+ */
+public final class LoadBenchmark {
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final String[] KEYS = {"A", "C", "DM", "FS", "GSM", "E", "ASM", "G"};
+    private static final String[] TIME_SIGS = {"4/4", "3/4", "6/8", "5/4", "7/8"};
+    private static final int FOUR_PART_SEEDS = 4096;
+    private static final int MAX_LATENCIES = 1 << 22; //Per run, more requests than this are timed but not kept
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final AtomicLong nextSeed = new AtomicLong();
+
+    private LoadBenchmark() {
+    }
+
+    /**
+     * A mix of request parameters
+     */
+    private enum Mix {
+        //Keys, tempos and time signatures across their range, with moderate note densities
+        TYPICAL("typical") {
+            @Override
+            String body(SplittableRandom rand) {
+                return requestBody(rand, 30 + rand.nextInt(60), nextSeed.getAndIncrement());
+            }
+        },
+        //Only seeds that give songs of four parts, the most parts a song can have
+        FOUR_PART("fourPart") {
+            @Override
+            String body(SplittableRandom rand) {
+                return requestBody(rand, 30 + rand.nextInt(60), fourPartSeeds[rand.nextInt(fourPartSeeds.length)]);
+            }
+        },
+        //Every beat has a note or chord
+        DENSE("dense") {
+            @Override
+            String body(SplittableRandom rand) {
+                return requestBody(rand, 100, nextSeed.getAndIncrement());
+            }
+        };
+
+        private final String name;
+
+        Mix(String name) {
+            this.name = name;
+        }
+
+        abstract String body(SplittableRandom rand);
+
+        static Mix named(String name) {
+            for (Mix mix : values()) {
+                if (mix.name.equalsIgnoreCase(name)) {
+                    return mix;
+                }
+            }
+            throw new IllegalArgumentException("Unknown mix: " + name);
+        }
+    }
+
+    private static long[] fourPartSeeds;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxConcurrency = Integer.parseInt(options.getOrDefault("maxConcurrency", Integer.toString(cores)));
+        File out = new File(options.getOrDefault("out", "build/reports/load/results.json"));
+        List<Mix> mixes = new ArrayList<>();
+        for (String name : options.getOrDefault("mixes", "typical,fourPart,dense").split(",")) {
+            mixes.add(Mix.named(name.trim()));
+        }
+
+        setDefault("IKOVSKY_SONG_STORE", "memory");
+        setDefault("IKOVSKY_RESULT_CACHE_HEAP_MB", "0");
+        setDefault("IKOVSKY_RESULT_CACHE_DISK_MB", "0");
+        setDefault("IKOVSKY_METRICS", "false");
+        fourPartSeeds = findFourPartSeeds();
+
+        Handler handler = new Handler();
+        GcPauses gcPauses = new GcPauses();
+        List<Map<String, Object>> results = new ArrayList<>();
+        System.out.printf("%-10s %5s %8s %10s %9s %9s %9s %9s %12s %8s%n",
+                "mix", "conc", "songs", "songs/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "alloc/song", "gc ms");
+        for (Mix mix : mixes) {
+            run(handler, mix, maxConcurrency, warmup, null);
+            for (int concurrency : concurrencies(maxConcurrency)) {
+                clearStore();
+                Map<String, Object> result = run(handler, mix, concurrency, duration, gcPauses);
+                results.add(result);
+                print(result);
+            }
+        }
+        gcPauses.close();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("javaVersion", System.getProperty("java.version"));
+        environment.put("vm", System.getProperty("java.vm.name"));
+        environment.put("cores", cores);
+        environment.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        environment.put("gc", gcPauses.collectors);
+        report.put("environment", environment);
+        report.put("durationSeconds", duration);
+        report.put("warmupSeconds", warmup);
+        report.put("allocatedBytes", "allocatedBytesPerSong counts every thread (client, part executor, song writer), "
+                + "clientAllocatedBytesPerSong only the client threads calling the handler");
+        report.put("results", results);
+
+        File dir = out.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        mapper.writeValue(out, report);
+        System.out.println("Report written to " + out);
+        System.exit(0);
+    }
+
+    /**
+     * Function to run one mix at one concurrency for a number of seconds
+     * @param gcPauses The GC pause recorder, or null for a warm up run that is not reported
+     * @return The run's results
+     */
+    private static Map<String, Object> run(Handler handler, Mix mix, int concurrency, int seconds, GcPauses gcPauses)
+            throws InterruptedException {
+        Client[] clients = new Client[concurrency];
+        Thread[] threads = new Thread[concurrency];
+        Set<Long> clientThreads = new HashSet<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < concurrency; i++) {
+            clients[i] = new Client(handler, mix, start, i);
+            threads[i] = new Thread(clients[i], "load-client-" + i);
+            threads[i].start();
+            clientThreads.add(threads[i].getId());
+        }
+        Map<Long, Long> allocatedBefore = threadAllocations();
+
+        if (gcPauses != null) {
+            gcPauses.reset();
+        }
+        long begin = System.nanoTime();
+        long end = begin + seconds * 1_000_000_000L;
+        for (Client client : clients) {
+            client.end = end;
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (gcPauses == null) {
+            return null;
+        }
+
+        //The client threads have finished, so they count their own and the rest are read from the threads still live
+        long otherAllocated = 0;
+        for (Map.Entry<Long, Long> thread : threadAllocations().entrySet()) {
+            if (!clientThreads.contains(thread.getKey())) {
+                otherAllocated += thread.getValue() - allocatedBefore.getOrDefault(thread.getKey(), 0L);
+            }
+        }
+        int songs = 0;
+        int errors = 0;
+        long clientAllocated = 0;
+        for (Client client : clients) {
+            songs += client.songs;
+            errors += client.errors;
+            clientAllocated += client.allocated;
+        }
+        long[] latencies = new long[Math.min(songs, MAX_LATENCIES)];
+        int filled = 0;
+        for (Client client : clients) {
+            int count = Math.min(client.numLatencies, latencies.length - filled);
+            System.arraycopy(client.latencies, 0, latencies, filled, count);
+            filled += count;
+        }
+        Arrays.sort(latencies, 0, filled);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", percentile(latencies, filled, 0.50));
+        latency.put("p90", percentile(latencies, filled, 0.90));
+        latency.put("p99", percentile(latencies, filled, 0.99));
+        latency.put("p999", percentile(latencies, filled, 0.999));
+        latency.put("max", filled == 0 ? 0.0 : latencies[filled - 1] / 1e6);
+        long total = 0;
+        for (int i = 0; i < filled; i++) {
+            total += latencies[i];
+        }
+        latency.put("mean", filled == 0 ? 0.0 : total / (double) filled / 1e6);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mix", mix.name);
+        result.put("concurrency", concurrency);
+        result.put("songs", songs);
+        result.put("errors", errors);
+        result.put("seconds", elapsed / 1e9);
+        result.put("songsPerSecond", songs / (elapsed / 1e9));
+        result.put("latencyMs", latency);
+        result.put("allocatedBytesPerSong", songs == 0 ? 0 : (clientAllocated + otherAllocated) / songs);
+        result.put("clientAllocatedBytesPerSong", songs == 0 ? 0 : clientAllocated / songs);
+        result.put("gc", gcPauses.summary());
+        return result;
+    }
+
+    /**
+     * A client thread, sending requests one after another until the run ends
+     */
+    private static final class Client implements Runnable {
+        private final Handler handler;
+        private final Mix mix;
+        private final CountDownLatch start;
+        private final SplittableRandom rand;
+        private final LoadContext context = new LoadContext();
+        private volatile long end;
+
+        private long[] latencies = new long[1024];
+        private int numLatencies;
+        private int songs;
+        private int errors;
+        private long allocated;
+
+        private Client(Handler handler, Mix mix, CountDownLatch start, int index) {
+            this.handler = handler;
+            this.mix = mix;
+            this.start = start;
+            this.rand = new SplittableRandom(index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+            while (System.nanoTime() < end) {
+                Map<String, Object> event = apiGatewayEvent(mix.body(rand));
+                long sent = System.nanoTime();
+                APIGatewayV2HTTPResponse response = handler.handleRequest(event, context);
+                long latency = System.nanoTime() - sent;
+
+                if (response.getStatusCode() != 200) {
+                    errors++;
+                    continue;
+                }
+                songs++;
+                if (numLatencies < MAX_LATENCIES) {
+                    if (numLatencies == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, numLatencies * 2);
+                    }
+                    latencies[numLatencies++] = latency;
+                }
+            }
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        }
+    }
+
+    /**
+     * Function to build the event API Gateway's HTTP API sends for a POST of a request body
+     */
+    private static Map<String, Object> apiGatewayEvent(String body) {
+        Map<String, Object> http = new LinkedHashMap<>();
+        http.put("method", "POST");
+        http.put("path", "/generate");
+        http.put("protocol", "HTTP/1.1");
+        http.put("sourceIp", "127.0.0.1");
+        http.put("userAgent", "ikovsky-load");
+
+        Map<String, Object> requestContext = new LinkedHashMap<>();
+        requestContext.put("accountId", "000000000000");
+        requestContext.put("apiId", "load");
+        requestContext.put("domainName", "localhost");
+        requestContext.put("http", http);
+        requestContext.put("requestId", UUID.randomUUID().toString());
+        requestContext.put("routeKey", "POST /generate");
+        requestContext.put("stage", "$default");
+        requestContext.put("timeEpoch", System.currentTimeMillis());
+
+        Map<String, Object> headers = new LinkedHashMap<>();
+        headers.put("content-type", "application/json");
+        headers.put("content-length", Integer.toString(body.getBytes(StandardCharsets.UTF_8).length));
+        headers.put("host", "localhost");
+
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("version", "2.0");
+        event.put("routeKey", "POST /generate");
+        event.put("rawPath", "/generate");
+        event.put("rawQueryString", "");
+        event.put("headers", headers);
+        event.put("requestContext", requestContext);
+        event.put("body", body);
+        event.put("isBase64Encoded", false);
+        return event;
+    }
+
+    private static String requestBody(SplittableRandom rand, int noteDensity, long seed) {
+        int octaveLow = 2 + rand.nextInt(3);
+        int dynamicsLow = 20 + rand.nextInt(50);
+        return "{\"key\":\"" + KEYS[rand.nextInt(KEYS.length)] + "\""
+                + ",\"tempo\":" + (60 + rand.nextInt(120))
+                + ",\"timeSig\":\"" + TIME_SIGS[rand.nextInt(TIME_SIGS.length)] + "\""
+                + ",\"octaveLow\":" + octaveLow
+                + ",\"octaveHigh\":" + (octaveLow + 2 + rand.nextInt(3))
+                + ",\"dynamicsLow\":" + dynamicsLow
+                + ",\"dynamicsHigh\":" + (dynamicsLow + rand.nextInt(100 - dynamicsLow))
+                + ",\"noteDensity\":" + noteDensity
+                + ",\"instrument\":" + rand.nextInt(128)
+                + ",\"weightA\":0.3,\"weightB\":0.1,\"weightC\":0.1,\"weightD\":0.2,\"weightE\":0.3,\"weightF\":0.1,\"weightG\":0"
+                + ",\"seed\":" + seed + "}";
+    }
+
+    /**
+     * Function to find seeds whose songs have four parts, the number of parts is drawn from the seed
+     */
+    private static long[] findFourPartSeeds() {
+        long[] seeds = new long[FOUR_PART_SEEDS];
+        int found = 0;
+        for (long seed = 0; found < seeds.length; seed++) {
+            if (BenchmarkSongs.newStructure(new RandomSource(seed)).numParts == 4) {
+                seeds[found++] = seed;
+            }
+        }
+        return seeds;
+    }
+
+    /**
+     * Function to read the bytes allocated so far by every live thread
+     * @return The count of each thread, by thread id
+     */
+    private static Map<Long, Long> threadAllocations() {
+        long[] ids = THREADS.getAllThreadIds();
+        long[] allocated = THREADS.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocations = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            //-1 for a thread that exited after the ids were read
+            if (allocated[i] >= 0) {
+                allocations.put(ids[i], allocated[i]);
+            }
+        }
+        return allocations;
+    }
+
+    private static List<Integer> concurrencies(int maxConcurrency) {
+        List<Integer> concurrencies = new ArrayList<>();
+        for (int concurrency = 1; concurrency < maxConcurrency; concurrency *= 2) {
+            concurrencies.add(concurrency);
+        }
+        concurrencies.add(maxConcurrency);
+        return concurrencies;
+    }
+
+    private static double percentile(long[] sorted, int count, double fraction) {
+        if (count == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1e6;
+    }
+
+    /**
+     * Function to empty the song table between runs, once the write-behind queue has written everything
+     */
+    private static void clearStore() throws InterruptedException {
+        SongPersistenceQueue store = SongStores.getDefault();
+        store.flush(60000);
+        if (store.getBackingStore() instanceof InMemorySongTable) {
+            ((InMemorySongTable) store.getBackingStore()).clear();
+        }
+    }
+
+    private static void setDefault(String name, String value) {
+        if (EnvironmentConfig.getString(name, null) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options are --name=value, not " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+
+    private static void print(Map<String, Object> result) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> latency = (Map<String, Object>) result.get("latencyMs");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> gc = (Map<String, Object>) result.get("gc");
+        System.out.printf("%-10s %5d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %12d %8.1f%n",
+                result.get("mix"), result.get("concurrency"), result.get("songs"), result.get("songsPerSecond"),
+                latency.get("p50"), latency.get("p90"), latency.get("p99"), latency.get("max"),
+                result.get("allocatedBytesPerSong"), gc.get("pauseMs"));
+    }
+
+    /**
+     * Records the GC pauses of the JVM through the collectors' notifications
+     * Concurrent cycles run alongside the requests, so only the stop-the-world collections are counted
+     */
+    private static final class GcPauses implements NotificationListener {
+        private final List<String> collectors = new ArrayList<>();
+        private final List<NotificationEmitter> emitters = new ArrayList<>();
+        private long pauses;
+        private long pauseMicros;
+        private long maxPauseMicros;
+
+        private GcPauses() {
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                collectors.add(bean.getName());
+                if (bean instanceof NotificationEmitter) {
+                    ((NotificationEmitter) bean).addNotificationListener(this, null, null);
+                    emitters.add((NotificationEmitter) bean);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void handleNotification(javax.management.Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            if (info.getGcName().contains("Concurrent") || info.getGcName().contains("Cycles")) {
+                return;
+            }
+            //Durations are reported in milliseconds, a pause of under a millisecond is reported as 0
+            long micros = info.getGcInfo().getDuration() * 1000;
+            pauses++;
+            pauseMicros += micros;
+            maxPauseMicros = Math.max(maxPauseMicros, micros);
+        }
+
+        private synchronized void reset() {
+            pauses = 0;
+            pauseMicros = 0;
+            maxPauseMicros = 0;
+        }
+
+        private synchronized Map<String, Object> summary() {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("pauses", pauses);
+            summary.put("pauseMs", pauseMicros / 1000.0);
+            summary.put("maxPauseMs", maxPauseMicros / 1000.0);
+            return summary;
+        }
+
+        private void close() throws Exception {
+            for (NotificationEmitter emitter : emitters) {
+                emitter.removeNotificationListener(this);
+            }
+        }
+    }
+
+    /**
+     * The Lambda context handed to the handler, for a function with the deployment's memory size
+     */
+    private static final class LoadContext implements Context {
+        private static final LambdaLogger LOGGER = new LambdaLogger() {
+            @Override
+            public void log(String message) {
+                System.err.print(message);
+            }
+
+            @Override
+            public void log(byte[] message) {
+                System.err.print(new String(message, StandardCharsets.UTF_8));
+            }
+        };
+
+        @Override
+        public String getAwsRequestId() {
+            return UUID.randomUUID().toString();
+        }
+
+        @Override
+        public String getLogGroupName() {
+            return "/aws/lambda/ikovsky-load";
+        }
+
+        @Override
+        public String getLogStreamName() {
+            return "load";
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "ikovsky-load";
+        }
+
+        @Override
+        public String getFunctionVersion() {
+            return "$LATEST";
+        }
+
+        @Override
+        public String getInvokedFunctionArn() {
+            return "arn:aws:lambda:local:000000000000:function:ikovsky-load";
+        }
+
+        @Override
+        public CognitoIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public ClientContext getClientContext() {
+            return null;
+        }
+
+        @Override
+        public int getRemainingTimeInMillis() {
+            return 30000;
+        }
+
+        @Override
+        public int getMemoryLimitInMB() {
+            return (int) (Runtime.getRuntime().maxMemory() >> 20);
+        }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return LOGGER;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ikovsky;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import ikovsky.NameGenerator.NameGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the per-request work around composing: validating the parameters into a SongStructure
+ * and naming the song.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBenchmark {
+    @Param({"42"})
+    long seed;
+
+    private NameGenerator nameGenerator;
+    private SplittableRandom nameRandom;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        nameGenerator = new NameGenerator();
+        nameRandom = new RandomSource(seed).stream("name");
+    }
+
+    @Benchmark
+    public SongStructure songStructure() {
+        return BenchmarkSongs.newStructure(new RandomSource(seed));
+    }
+
+    @Benchmark
+    public String nameGeneratorGenerateName() {
+        return nameGenerator.generateName(nameRandom);
+    }
+}
@@ -0,0 +1,3 @@
+#!/bin/sh
+# Starts the standalone server for the streaming function, the Lambda Web Adapter layer forwards each invocation to it
+exec java -cp "$LAMBDA_TASK_ROOT:$LAMBDA_TASK_ROOT/lib/*" ikovsky.SongServer
@@ -0,0 +1,103 @@
+package ikovsky;
+
+import java.util.SplittableRandom;
+
+/**
+ * Immutable sampler for a fixed discrete distribution using Vose's alias method.
+ * Building the table is O(n), after which every draw is O(1) and allocation free: one uniform double picks
+ * a column and decides between the column's own outcome and its alias.
+ * Tables are safe to share between threads.
+ */
+public final class AliasTable {
+    private final double[] probability; //Chance of keeping the column's own outcome
+    private final int[] alias;          //Outcome used for the rest of the column
+
+    /**
+     * Constructor for AliasTable
+     * @param weights Non-negative weights for each outcome, normalised by their sum
+     * @throws IllegalArgumentException if there are no weights, or they are negative or sum to 0
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("No outcomes to sample");
+        }
+        double total = 0;
+        for (double w : weights) {
+            if (w < 0 || Double.isNaN(w)) {
+                throw new IllegalArgumentException("Negative weight " + w);
+            }
+            total += w;
+        }
+        if (!(total > 0) || Double.isInfinite(total)) {
+            throw new IllegalArgumentException("Weights must have a positive, finite sum");
+        }
+
+        probability = new double[n];
+        alias = new int[n];
+
+        //Scale so the average column is 1, then pair each under-full column with an over-full one
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1.0) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+
+        while (numSmall > 0 && numLarge > 0) {
+            int less = small[--numSmall];
+            int more = large[--numLarge];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[numSmall++] = more;
+            } else {
+                large[numLarge++] = more;
+            }
+        }
+
+        //Whatever is left is full up to rounding error
+        while (numLarge > 0) {
+            int i = large[--numLarge];
+            probability[i] = 1.0;
+            alias[i] = i;
+        }
+        while (numSmall > 0) {
+            int i = small[--numSmall];
+            probability[i] = 1.0;
+            alias[i] = i;
+        }
+    }
+
+    /**
+     * Function to draw an outcome
+     * @param rand The random stream, one double is consumed
+     * @return The index of the outcome
+     */
+    public int sample(SplittableRandom rand) {
+        return sample(rand.nextDouble());
+    }
+
+    /**
+     * Function to map a uniform double to an outcome
+     * @param u A uniform double in [0, 1)
+     * @return The index of the outcome
+     */
+    public int sample(double u) {
+        double column = u * probability.length;
+        int i = (int) column;
+        return column - i < probability[i] ? i : alias[i];
+    }
+
+    public int size() {
+        return probability.length;
+    }
+}
@@ -0,0 +1,264 @@
+package ikovsky;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Generates the songs of a BatchRequest as a pipeline of three stages:
+ * - compose: songs are composed on a bounded pool, one thread per core by default
+ * - encode: midi encoding, Base64 and naming run on a smaller pool, overlapping with the songs still being composed
+ * - persist: encoded songs are grouped into batch writes of up to the store's maxBatchSize by a single writer thread
+ * A write-behind store (SongPersistenceQueue) already batches its writes on its own thread, so songs are handed
+ * straight to it after encoding instead of being grouped twice.
+ * Seeded songs found in the result cache skip the pipeline.
+ *
+ * The pools are shared by every batch, so concurrent batches queue for the same cores rather than each starting
+ * their own threads. A server that bounds its own composing can give the stages its executors instead.
+ */
+public final class BatchGenerator {
+    private static volatile BatchGenerator defaultGenerator;
+
+    private final Executor composeExecutor;
+    private final Executor encodeExecutor;
+    private final Executor partExecutor;       //Where each song's parts are written at the same time, see Composer
+    private final ExecutorService persistPool;
+    private final SongStore songStore;
+    private final ResultCache resultCache;
+
+    /**
+     * Constructor for BatchGenerator, starts the stage pools
+     * @param composeThreads The number of songs composed at once
+     * @param encodeThreads The number of songs encoded at once
+     * @param songStore The store to persist songs to
+     * @param resultCache The cache of seeded songs, or null to generate every song
+     */
+    public BatchGenerator(int composeThreads, int encodeThreads, SongStore songStore, ResultCache resultCache) {
+        this(Executors.newFixedThreadPool(composeThreads, daemonThreads("ikovsky-batch-compose")),
+                Executors.newFixedThreadPool(encodeThreads, daemonThreads("ikovsky-batch-encode")),
+                ForkJoinPool.commonPool(), songStore, resultCache);
+    }
+
+    /**
+     * Constructor for BatchGenerator, running the compose and encode stages on the given executors
+     * Only the persist thread, which waits on the song store, is started
+     * @param composeExecutor Where songs are composed, e.g. Runnable::run to compose on the thread generating the batch
+     * @param encodeExecutor Where songs are encoded
+     * @param partExecutor Where each song's parts are written at the same time, or null for the thread composing it
+     * @param songStore The store to persist songs to
+     * @param resultCache The cache of seeded songs, or null to generate every song
+     */
+    public BatchGenerator(Executor composeExecutor, Executor encodeExecutor, Executor partExecutor, SongStore songStore,
+                          ResultCache resultCache) {
+        this.composeExecutor = composeExecutor;
+        this.encodeExecutor = encodeExecutor;
+        this.partExecutor = partExecutor;
+        this.persistPool = Executors.newSingleThreadExecutor(daemonThreads("ikovsky-batch-persist"));
+        this.songStore = songStore;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Function to get the shared batch generator, creating it on first use
+     * The pool sizes are set with IKOVSKY_BATCH_COMPOSE_THREADS and IKOVSKY_BATCH_ENCODE_THREADS
+     * @return The process-wide BatchGenerator, persisting to the default song store
+     */
+    public static BatchGenerator getDefault() {
+        BatchGenerator generator = defaultGenerator;
+        if (generator == null) {
+            synchronized (BatchGenerator.class) {
+                generator = defaultGenerator;
+                if (generator == null) {
+                    int cores = Runtime.getRuntime().availableProcessors();
+                    generator = new BatchGenerator(
+                            EnvironmentConfig.getInt("IKOVSKY_BATCH_COMPOSE_THREADS", cores),
+                            EnvironmentConfig.getInt("IKOVSKY_BATCH_ENCODE_THREADS", Math.max(1, cores / IKConstants.BATCH_ENCODE_THREADS_DIVISOR)),
+                            SongStores.getDefault(), ResultCache.getDefault());
+                    defaultGenerator = generator;
+                }
+            }
+        }
+        return generator;
+    }
+
+    /**
+     * Function to generate every song of a batch
+     * @param batch The songs to generate
+     * @return The songs, in the order they were requested
+     * @throws InvalidRequestException if any song's parameters are invalid, before any song is generated
+     */
+    public List<SongResponse> generate(BatchRequest batch) {
+        return generate(batch, (index, song) -> { });
+    }
+
+    /**
+     * Function to generate every song of a batch, passing each song on as soon as it is finished
+     * @param batch The songs to generate
+     * @param listener Called with the index and response of each song as it finishes, from the pipeline's threads
+     * @return The songs, in the order they were requested
+     * @throws InvalidRequestException if any song's parameters are invalid, before any song is generated
+     */
+    public List<SongResponse> generate(BatchRequest batch, BiConsumer<Integer, SongResponse> listener) {
+        //Validate every song first, so a bad request fails before any work is done
+        List<GenerationRequest> requests = batch.getSongs();
+        List<SongGenerator> generators = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                SongGenerator generator = new SongGenerator(false, null, requests.get(i), songStore, new RequestMetrics(), resultCache);
+                generator.setPartExecutor(partExecutor);
+                generators.add(generator);
+            } catch (InvalidRequestException e) {
+                throw new InvalidRequestException("Song " + i + ": " + e.getMessage(), e);
+            }
+        }
+
+        List<CompletableFuture<SongResponse>> songs = new ArrayList<>(generators.size());
+        List<SongGenerator> toGenerate = new ArrayList<>(generators.size());
+        List<Integer> toGenerateIndexes = new ArrayList<>(generators.size());
+        for (int i = 0; i < generators.size(); i++) {
+            SongResponse cached = generators.get(i).findCached();
+            songs.add(cached != null ? CompletableFuture.completedFuture(cached) : null);
+            if (cached != null) {
+                listener.accept(i, cached);
+                PipelineMetrics.record(generators.get(i).getMetrics());
+            } else {
+                toGenerate.add(generators.get(i));
+                toGenerateIndexes.add(i);
+            }
+        }
+
+        boolean writeBehind = songStore instanceof SongPersistenceQueue;
+        PersistStage persist = writeBehind ? null : new PersistStage(toGenerate.size());
+        for (int i = 0; i < toGenerate.size(); i++) {
+            SongGenerator generator = toGenerate.get(i);
+            int index = toGenerateIndexes.get(i);
+            CompletableFuture<Void> encoded = CompletableFuture
+                    .runAsync(generator::compose, composeExecutor)
+                    .thenRunAsync(generator::encode, encodeExecutor);
+            CompletableFuture<Void> persisted;
+            if (writeBehind) {
+                //Queued on the encode thread, persist() records the hand-off and caches the song
+                persisted = encoded.thenRun(generator::persist);
+            } else {
+                persisted = encoded
+                        .handle((done, failure) -> failure == null ? persist.add(generator) : persist.failed(failure))
+                        .thenCompose(written -> written)
+                        .thenRun(generator::cacheResult);
+            }
+            songs.set(index, persisted
+                    .thenApply(stored -> {
+                        PipelineMetrics.record(generator.getMetrics());
+                        SongResponse response = generator.toResponse();
+                        listener.accept(index, response);
+                        return response;
+                    }));
+        }
+
+        List<SongResponse> responses = new ArrayList<>(songs.size());
+        try {
+            for (CompletableFuture<SongResponse> song : songs) {
+                responses.add(song.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return responses;
+    }
+
+    /**
+     * The persist stage of one batch: encoded songs are collected until there are enough for a batch write,
+     * or every song of the batch has arrived, and then written together on the persist thread
+     * Each song's PERSIST stage is the batch write it went out in
+     */
+    private final class PersistStage {
+        private final int expected;         //Songs of the batch that will be persisted
+        private int arrived;
+        private List<SongGenerator> pending = new ArrayList<>();
+        private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+
+        private PersistStage(int expected) {
+            this.expected = expected;
+        }
+
+        /**
+         * Function to add an encoded song to the next batch write
+         * @param song The encoded song
+         * @return A future completed once the song has been written
+         */
+        private synchronized CompletableFuture<Void> add(SongGenerator song) {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            pending.add(song);
+            waiting.add(written);
+            arrived++;
+
+            if (pending.size() >= songStore.maxBatchSize() || arrived == expected) {
+                flush();
+            }
+            return written;
+        }
+
+        /**
+         * Function to count a song that failed before it could be persisted, so the last batch write is not held up
+         * @param failure Why the song failed
+         * @return A future that has failed with the same exception
+         */
+        private synchronized CompletableFuture<Void> failed(Throwable failure) {
+            arrived++;
+            if (arrived == expected && !pending.isEmpty()) {
+                flush();
+            }
+            return CompletableFuture.failedFuture(failure);
+        }
+
+        private void flush() {
+            List<SongGenerator> batch = pending;
+            List<CompletableFuture<Void>> futures = waiting;
+            pending = new ArrayList<>();
+            waiting = new ArrayList<>();
+            persistPool.execute(() -> write(batch, futures));
+        }
+
+        private void write(List<SongGenerator> batch, List<CompletableFuture<Void>> futures) {
+            List<SongRecord> records = new ArrayList<>(batch.size());
+            for (SongGenerator song : batch) {
+                song.getMetrics().begin(RequestMetrics.Stage.PERSIST);
+                records.add(song.getRecord());
+            }
+            try {
+                //Songs the store could not take in the batch are retried one at a time
+                for (SongRecord record : songStore.writeBatch(records)) {
+                    songStore.put(record);
+                }
+                futures.forEach(written -> written.complete(null));
+            } catch (RuntimeException e) {
+                futures.forEach(written -> written.completeExceptionally(e));
+            } finally {
+                for (SongGenerator song : batch) {
+                    song.getMetrics().end();
+                }
+                //Long-form songs held on disk are done with once written, as with SongStore.putFile()
+                records.forEach(SongRecord::deleteMidiFile);
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package ikovsky;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A request for several songs at once, e.g. to seed a playlist or an A/B test.
+ * The body lists the songs' parameters, seeds for copies of one set of parameters, or both:
+ * {"songs": [{...}, {...}], "template": {...}, "seeds": [1, 2, 3]}
+ * Each element of songs and the template take the fields of a single GenerationRequest.
+ * The songs are generated in the order listed, then one per seed.
+ */
+public final class BatchRequest {
+    private final List<GenerationRequest> songs;
+
+    /**
+     * Constructor for BatchRequest
+     * @param songs The parameters of each song
+     * @throws InvalidRequestException if there are no songs, more than the batch limit, or a long-form song
+     */
+    public BatchRequest(List<GenerationRequest> songs) {
+        if (songs.isEmpty()) {
+            throw new InvalidRequestException("A batch needs at least one song");
+        }
+        if (songs.size() > IKConstants.BATCH_MAX_SONGS) {
+            throw new InvalidRequestException("A batch can have at most " + IKConstants.BATCH_MAX_SONGS + " songs");
+        }
+        //The whole batch is returned in one response, which long-form songs would not fit in
+        for (GenerationRequest song : songs) {
+            if (song.getDurationMinutes() != null) {
+                throw new InvalidRequestException("Long-form songs can't be generated in a batch");
+            }
+        }
+        this.songs = Collections.unmodifiableList(new ArrayList<>(songs));
+    }
+
+    /**
+     * Function to decode a batch request body in a single pass over the JSON
+     * @param body The JSON body of the request
+     * @return The decoded request
+     * @throws InvalidRequestException if the body is not a valid batch
+     */
+    public static BatchRequest fromJson(String body) {
+        if (body == null || body.isEmpty()) {
+            throw new InvalidRequestException("Request body is empty");
+        }
+
+        List<GenerationRequest> songs = new ArrayList<>();
+        GenerationRequest template = null;
+        List<Long> seeds = null;
+
+        try (JsonReader reader = new JsonReader(new StringReader(body))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "songs":
+                        expectArray(reader, name);
+                        reader.beginArray();
+                        while (reader.hasNext() && songs.size() <= IKConstants.BATCH_MAX_SONGS) {
+                            songs.add(GenerationRequest.read(reader));
+                        }
+                        skipRest(reader);
+                        break;
+                    case "template":
+                        template = GenerationRequest.read(reader);
+                        break;
+                    case "seeds":
+                        expectArray(reader, name);
+                        seeds = new ArrayList<>();
+                        reader.beginArray();
+                        while (reader.hasNext() && seeds.size() <= IKConstants.BATCH_MAX_SONGS) {
+                            seeds.add(GenerationRequest.parseSeed(GenerationRequest.nextValue(reader, name)));
+                        }
+                        skipRest(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new InvalidRequestException("Request body is not a valid JSON object: " + e.getMessage(), e);
+        }
+
+        if (seeds != null) {
+            if (template == null) {
+                throw new InvalidRequestException("Field seeds needs a template");
+            }
+            for (Long seed : seeds) {
+                songs.add(template.withSeed(seed));
+            }
+        }
+        return new BatchRequest(songs);
+    }
+
+    public List<GenerationRequest> getSongs() {
+        return songs;
+    }
+
+    public int size() {
+        return songs.size();
+    }
+
+    private static void expectArray(JsonReader reader, String name) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            throw new InvalidRequestException("Field " + name + " must be an array");
+        }
+    }
+
+    /**
+     * Function to skip what is left of an array once the batch limit has been passed, and close it
+     */
+    private static void skipRest(JsonReader reader) throws IOException {
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+}
@@ -1,6 +1,6 @@
 package ikovsky;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * @author Paul Hudson
@@ -10,30 +10,36 @@ import java.util.Random;
 public class ChordPicker {
 	public ChordStructs[] chords; //Array of available ChordStructs
 	private double[] chordProbabilities; //Array of their corresponding probabolities
+	private ChordTransitions transitions; //Model for choosing each chord from the previous ones
+	private int chordContext; //The previous chords, as the transition model's context
 
 	private int[] currentChord; //Current chord intervals
 	public int currentChordPosition; //Current position in the scale (1 - 7)
 	private int	currentChordRoot; //root note of the current chord
+	private boolean currentChordAlternative; //True if the current chord has its alternative structure
 	
 	private int key;
 	private boolean isMinorKey;
 
-	Random rand;
+	SplittableRandom rand;
 	
 	/**
 	 * ChordPicker constructor
 	 * @param newKey The current key of the song
 	 * @param keyIsMinor The tonality of the current key
+	 * @param rand The random stream for choosing chords
 	 */
-	public ChordPicker(int newKey, boolean keyIsMinor) {
+	public ChordPicker(int newKey, boolean keyIsMinor, SplittableRandom rand) {
 		chords = new ChordStructs[7]; //7 Chords within scale
 		chordProbabilities 	= new double[7]; 
 		currentChordPosition = 1; //Initialise to root/"home" chord
+		transitions = ChordTransitions.independent(chordProbabilities);
+		chordContext = transitions.initialContext();
 		
 		key = newKey;
 		isMinorKey = keyIsMinor;
 		
-		rand = new Random();
+		this.rand = rand;
 		
 		populateArrays();
 	}
@@ -70,11 +76,22 @@ public class ChordPicker {
 	
 
 	/**
-	 * Function for setting new chord weightings
+	 * Function for setting new chord weightings, each chord is then chosen independently of the last
+	 * The weightings are normalised, so they do not need to sum to 1
 	 * @param newProbabilities The double array of new chord weighting values
 	 */
 	public void setProbabilities(double[] newProbabilities) {
 		chordProbabilities = newProbabilities.clone();
+		setTransitions(ChordTransitions.independent(chordProbabilities));
+	}
+	
+	/**
+	 * Function for setting the chord transition model, e.g. a transition matrix
+	 * @param newTransitions The model to choose each chord from the previous chords
+	 */
+	public void setTransitions(ChordTransitions newTransitions) {
+		transitions = newTransitions;
+		chordContext = transitions.initialContext();
 	}
 	/**
 	 * Get method for the current chord weightings
@@ -94,9 +111,9 @@ public class ChordPicker {
 		
 		//Get the chord from Major/Minor progressions
 		if (!isMinorKey) {
-			rootChordStruct = MajorChordProgression.I.getChordStruct().clone();
+			rootChordStruct = MajorChordProgression.I.getChordStruct(rand);
 		} else {
-			rootChordStruct = MajorChordProgression.I.getChordStruct().clone();
+			rootChordStruct = MinorChordProgression.I.getChordStruct(rand);
 		}
 		
 		//Offset the chord intervals by the key
@@ -109,120 +126,40 @@ public class ChordPicker {
 	
 	/**
 	 * Function for deciding which chord index to use next
+	 * The chord is drawn in constant time from the transition model's row for the previous chords
 	 * @return the index of the new chord
 	 */
 	public int getNewChordIndex() {
-		int index = 0;
-		double p = rand.nextDouble(); //Random number generator for choosing chord index
-		double pTotal = 0; //Accumlative total of probabilities
-		
-		//Use roulette selection to find the next chord
-		for (int i = 0 ; i < chordProbabilities.length ; i++) {
-			if (p < (pTotal + chordProbabilities[i])) {
-				index = i;
-				break;
-			} else {
-				pTotal += chordProbabilities[i];
-			}
-		}		
+		int index = transitions.next(chordContext, rand);
+		chordContext = transitions.advance(chordContext, index);
 		
 		return index;
 	}
 	
 	/**
 	 * Function to get the next chord in the progression
-	 * @return int array of chord intervals offset by the current key
+	 * The chord is looked up in the ChordTable, so no arrays are created
+	 * @return int array of chord intervals offset by the current key, shared and not to be modified
 	 */
 	public int[] getNewChord() {
-		int[] newChordArr;
-		int[] newChordStruct;
-		int	newChordRoot = 0;
-
 		int newChordPosition = getNewChordIndex() + 1; //Get the new chord index
-
-		//Get the chord from the progression based on the key's tonality (Major/Minor)
-		switch (newChordPosition) {
-			case 1:
-				if (!isMinorKey) {
-					newChordStruct = MajorChordProgression.I.getChordValue().getChordIntervals();
-					newChordRoot = MajorChordProgression.I.getRoot();
-				} else {
-					newChordStruct = MinorChordProgression.I.getChordValue().getChordIntervals();
-					newChordRoot = MinorChordProgression.I.getRoot();
-				}
-				break;
-			case 2:
-				if (!isMinorKey) {
-					newChordStruct = MajorChordProgression.II.getChordValue().getChordIntervals();
-					newChordRoot = MajorChordProgression.II.getRoot();
-				} else {
-					newChordStruct = MinorChordProgression.II.getChordValue().getChordIntervals();
-					newChordRoot = MinorChordProgression.II.getRoot();
-				}
-				break;
-			case 3:
-				if (!isMinorKey) {
-					newChordStruct = MajorChordProgression.III.getChordValue().getChordIntervals();
-					newChordRoot = MajorChordProgression.III.getRoot();
-				} else {
-					newChordStruct = MinorChordProgression.III.getChordValue().getChordIntervals();
-					newChordRoot = MinorChordProgression.III.getRoot();
-				}
-				break;
-			case 4:
-				if (!isMinorKey) {
-					newChordStruct = MajorChordProgression.IV.getChordValue().getChordIntervals();
-					newChordRoot = MajorChordProgression.IV.getRoot();
-				} else {
-					newChordStruct = MinorChordProgression.IV.getChordValue().getChordIntervals();
-					newChordRoot = MinorChordProgression.IV.getRoot();
-				}
-				break;
-			case 5:
-				if (!isMinorKey) {
-					newChordStruct = MajorChordProgression.V.getChordValue().getChordIntervals();
-					newChordRoot = MajorChordProgression.V.getRoot();
-				} else {
-					newChordStruct = MinorChordProgression.V.getChordValue().getChordIntervals();
-					newChordRoot = MinorChordProgression.V.getRoot();
-				}
-				break;
-			case 6:
-				if (!isMinorKey) {
-					newChordStruct = MajorChordProgression.VI.getChordValue().getChordIntervals();
-					newChordRoot = MajorChordProgression.VI.getRoot();
-				} else {
-					newChordStruct = MinorChordProgression.VI.getChordValue().getChordIntervals();
-					newChordRoot = MinorChordProgression.VI.getRoot();
-				}
-				break;
-			case 7:
-				if (!isMinorKey) {
-					newChordStruct = MajorChordProgression.VII.getChordValue().getChordIntervals();
-					newChordRoot = MajorChordProgression.VII.getRoot();
-				} else {
-					newChordStruct = MinorChordProgression.VII.getChordValue().getChordIntervals();
-					newChordRoot = MinorChordProgression.VII.getRoot();
-				}
-				break;
-			default:
-				newChordStruct = ChordStructs.FIFTH.getChordIntervals(); //Default to a Fifth chord (Neither Major or Minor)
-				break;
-		}
+		boolean alternative = ChordTable.rollAlternative(rand); //Decide the chord's structure
 		
 		//Update current chord attributes
-		currentChordRoot = newChordRoot;
-		currentChord = newChordStruct;
+		currentChordRoot = ChordTable.root(isMinorKey, newChordPosition - 1);
+		currentChord = ChordTable.voicing(isMinorKey, newChordPosition - 1, alternative, key);
 		currentChordPosition = newChordPosition;
-
-		newChordArr = currentChord; //Set the array
+		currentChordAlternative = alternative;
 		
-		//Offset the intervals by the current key
-		for (int i = 0 ; i < newChordArr.length; i++) {
-			newChordArr[i] += (currentChordRoot + key);
-		}
-
-		return newChordArr;
+		return currentChord;
+	}
+	
+	/**
+	 * Get method for the structure of the current chord
+	 * @return True if the current chord has its alternative structure
+	 */
+	public boolean isCurrentChordAlternative() {
+		return currentChordAlternative;
 	}
 	
 	/**
@@ -233,7 +170,7 @@ public class ChordPicker {
 		//IF MAJOR_KEY -> Add Major chord progression chords
 		if (!isMinorKey) {
 			for (MajorChordProgression c : MajorChordProgression.values()) {
-				chords[itr] = c.getChordValue();
+				chords[itr] = c.getChordValue(rand);
 				chordProbabilities[itr] = 0;
 				
 				itr++;
@@ -242,7 +179,7 @@ public class ChordPicker {
 		//ELSE -> Add Minor chord progression chords
 		else {
 			for (MinorChordProgression c : MinorChordProgression.values()) {
-				chords[itr] = c.getChordValue();
+				chords[itr] = c.getChordValue(rand);
 				chordProbabilities[itr] = 0;
 				
 				itr++;
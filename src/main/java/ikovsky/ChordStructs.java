@@ -13,7 +13,8 @@ public enum ChordStructs {
 	MINOR_SEVENTH(new int[]{0,3,7,9}),	//First, Flat Third, Fifth and Seventh
 	DIMINISHED(new int[]{0,3,6}); //First, Flat Third, Flat Seventh
 	
-	private int[] chordIntervals; //Array of intervals
+	private final int[] chordIntervals; //Array of intervals
+	private final int pitchClassMask; //The intervals as a PitchClasses mask
 	
 	/**
 	 * Constructor for a ChordStructs enum
@@ -21,19 +22,22 @@ public enum ChordStructs {
 	 */
 	ChordStructs(int[] chordIntervals) {
 		this.chordIntervals = chordIntervals;
+		this.pitchClassMask = PitchClasses.mask(chordIntervals);
+	}
+	
+	/**
+	 * Function to get the chord's pitch classes, relative to the chord root
+	 * @return The PitchClasses mask of the intervals
+	 */
+	public int getPitchClassMask() {
+		return pitchClassMask;
 	}
 	
 	/**
 	 * Function to get the chord intervals
-	 * @return integer array chord of the intervals
+	 * @return The shared integer array of the intervals, which must not be modified
 	 */
 	public int[] getChordIntervals() {
-		int[] newChordIntervals = new int[this.chordIntervals.length];
-		
-		for (int i = 0 ; i < newChordIntervals.length; i++) {
-			newChordIntervals[i] = this.chordIntervals[i];
-		}
-		
-		return newChordIntervals;
-	}	
+		return chordIntervals;
+	}
 }
@@ -0,0 +1,125 @@
+package ikovsky;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Every chord the chord progressions can produce, and the data MajorChordProgression and MinorChordProgression read.
+ * For each tonality and scale degree the table defines the chord's root, structure and alternative structure. For
+ * each structure (normal or alternative) and key it holds the chord's notes (intervals offset by the chord root and
+ * the key) and their pitch class mask, so choosing a chord is an array lookup. Equal voicings share one interned array.
+ *
+ * The note arrays are shared by every song and must not be modified.
+ */
+public final class ChordTable {
+    private static final int MAJOR = 0;
+    private static final int MINOR = 1;
+    private static final int NORMAL = 0;
+    private static final int ALTERNATIVE = 1;
+
+    private static final ChordStructs[][][] STRUCTS = new ChordStructs[2][IKConstants.NUM_SCALE_CHORDS][2]; //[tonality][degree][structure]
+    private static final int[][] ROOTS = new int[2][IKConstants.NUM_SCALE_CHORDS];                          //[tonality][degree]
+    private static final int[][][][][] VOICINGS = new int[2][IKConstants.NUM_SCALE_CHORDS][2][IKConstants.NUM_CHROMATIC_NOTES][]; //[tonality][degree][structure][key]
+    private static final int[][][][] MASKS = new int[2][IKConstants.NUM_SCALE_CHORDS][2][IKConstants.NUM_CHROMATIC_NOTES]; //[tonality][degree][structure][key]
+
+    static {
+        //Major chord progression (I, ii, iii, IV, V, vi, vii(dim)): degree, root within the key, structure, alternative structure
+        define(MAJOR, 0, 0,  ChordStructs.MAJOR_TRIAD, ChordStructs.FIFTH);
+        define(MAJOR, 1, 2,  ChordStructs.MINOR_TRIAD, ChordStructs.MINOR_SEVENTH);
+        define(MAJOR, 2, 4,  ChordStructs.MINOR_TRIAD, ChordStructs.MINOR_SEVENTH);
+        define(MAJOR, 3, 5,  ChordStructs.MAJOR_TRIAD, ChordStructs.MAJOR_SEVENTH);
+        define(MAJOR, 4, 7,  ChordStructs.MAJOR_TRIAD, ChordStructs.MAJOR_SEVENTH);
+        define(MAJOR, 5, 9,  ChordStructs.MINOR_TRIAD, ChordStructs.MINOR_SEVENTH);
+        define(MAJOR, 6, 11, ChordStructs.FIFTH,       ChordStructs.DIMINISHED);
+
+        //Minor chord progression (i, ii(dim), III, iv, v, VI, VII)
+        define(MINOR, 0, 0,  ChordStructs.MINOR_TRIAD, ChordStructs.FIFTH);
+        define(MINOR, 1, 2,  ChordStructs.FIFTH,       ChordStructs.DIMINISHED);
+        define(MINOR, 2, 3,  ChordStructs.MAJOR_TRIAD, ChordStructs.MAJOR_SEVENTH);
+        define(MINOR, 3, 5,  ChordStructs.MINOR_TRIAD, ChordStructs.MINOR_SEVENTH);
+        define(MINOR, 4, 7,  ChordStructs.MINOR_TRIAD, ChordStructs.MINOR_SEVENTH);
+        define(MINOR, 5, 8,  ChordStructs.MAJOR_TRIAD, ChordStructs.MAJOR_SEVENTH);
+        define(MINOR, 6, 10, ChordStructs.MAJOR_TRIAD, ChordStructs.MAJOR_SEVENTH);
+
+        Map<String, int[]> interned = new HashMap<>();
+        for (int t = 0; t < 2; t++) {
+            for (int degree = 0; degree < IKConstants.NUM_SCALE_CHORDS; degree++) {
+                for (int s = 0; s < 2; s++) {
+                    int[] intervals = STRUCTS[t][degree][s].getChordIntervals();
+                    for (int key = 0; key < IKConstants.NUM_CHROMATIC_NOTES; key++) {
+                        int[] notes = new int[intervals.length];
+                        for (int i = 0; i < intervals.length; i++) {
+                            notes[i] = intervals[i] + ROOTS[t][degree] + key;
+                        }
+                        VOICINGS[t][degree][s][key] = interned.computeIfAbsent(Arrays.toString(notes), k -> notes);
+                        MASKS[t][degree][s][key] = PitchClasses.mask(notes);
+                    }
+                }
+            }
+        }
+    }
+
+    private ChordTable() {
+    }
+
+    /**
+     * Function to decide whether a chord is played with its alternative structure
+     * @param rand The random stream, one double is consumed
+     * @return True for the alternative structure
+     */
+    public static boolean rollAlternative(SplittableRandom rand) {
+        return rand.nextDouble() < IKConstants.CHORDPICKER_ALT_STRUCT_CHANCE;
+    }
+
+    /**
+     * Function to get the notes of a chord
+     * @param isMinorKey The tonality of the key
+     * @param degree The chord's position in the scale, 0 (I) - 6 (vii)
+     * @param alternative True for the alternative structure of the chord
+     * @param key The int value of the key, 0 - 11
+     * @return The shared, unmodifiable array of the chord's notes
+     */
+    public static int[] voicing(boolean isMinorKey, int degree, boolean alternative, int key) {
+        return VOICINGS[tonality(isMinorKey)][degree][structure(alternative)][key];
+    }
+
+    /**
+     * Function to get the pitch class mask of a chord
+     * @return The mask of the notes returned by voicing() for the same arguments
+     */
+    public static int mask(boolean isMinorKey, int degree, boolean alternative, int key) {
+        return MASKS[tonality(isMinorKey)][degree][structure(alternative)][key];
+    }
+
+    /**
+     * Function to get the structure of a chord
+     * @return The chord's ChordStructs
+     */
+    public static ChordStructs struct(boolean isMinorKey, int degree, boolean alternative) {
+        return STRUCTS[tonality(isMinorKey)][degree][structure(alternative)];
+    }
+
+    /**
+     * Function to get the root of a chord within the key
+     * @return The interval from the key to the chord's root
+     */
+    public static int root(boolean isMinorKey, int degree) {
+        return ROOTS[tonality(isMinorKey)][degree];
+    }
+
+    private static void define(int tonality, int degree, int root, ChordStructs struct, ChordStructs altStruct) {
+        ROOTS[tonality][degree] = root;
+        STRUCTS[tonality][degree][NORMAL] = struct;
+        STRUCTS[tonality][degree][ALTERNATIVE] = altStruct;
+    }
+
+    private static int tonality(boolean isMinorKey) {
+        return isMinorKey ? MINOR : MAJOR;
+    }
+
+    private static int structure(boolean alternative) {
+        return alternative ? ALTERNATIVE : NORMAL;
+    }
+}
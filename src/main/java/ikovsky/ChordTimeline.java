@@ -0,0 +1,118 @@
+package ikovsky;
+
+import java.util.Arrays;
+
+/**
+ * The harmonic plan of a whole song, chosen before any part is written: the chord of every bar of every verse,
+ * and how many times each verse's measure is played.
+ * Each bar is one int, the chord's scale degree (0 = I to 6 = vii) with a flag for its alternative structure,
+ * and the chord's notes come from the ChordTable. Once planned the timeline is only read, so every part can be
+ * written from it at the same time.
+ */
+public final class ChordTimeline {
+    private static final int DEGREE_MASK = 0x7;
+    private static final int ALTERNATIVE = 0x8;
+
+    private final int key;
+    private final boolean isMinorKey;
+    private final ChordStructs[] structs;  //The ChordStructs the parts write each scale degree's notes around
+
+    private int[] bars = new int[64];
+    private int numBars;
+
+    private int[] verseEnds = new int[8];       //Index after each verse's last bar
+    private int[] verseIterations = new int[8];
+    private int numVerses;
+
+    /**
+     * Constructor for ChordTimeline
+     * @param key The int value of the key the chords are in
+     * @param isMinorKey The tonality of the key
+     * @param structs The ChordStructs of each scale degree, given to the parts with each chord
+     */
+    public ChordTimeline(int key, boolean isMinorKey, ChordStructs[] structs) {
+        this.key = key;
+        this.isMinorKey = isMinorKey;
+        this.structs = structs.clone();
+    }
+
+    /**
+     * Function to add a bar to the verse being planned
+     * @param degree The chord's position in the scale, 0 (I) - 6 (vii)
+     * @param alternative True for the alternative structure of the chord
+     */
+    public void addBar(int degree, boolean alternative) {
+        if (numBars == bars.length) {
+            bars = Arrays.copyOf(bars, numBars * 2);
+        }
+        bars[numBars++] = degree | (alternative ? ALTERNATIVE : 0);
+    }
+
+    /**
+     * Function to finish the verse being planned, its bars are those added since the last verse
+     * @param iterations The number of times the verse's measure is played
+     */
+    public void endVerse(int iterations) {
+        if (numVerses == verseEnds.length) {
+            verseEnds = Arrays.copyOf(verseEnds, numVerses * 2);
+            verseIterations = Arrays.copyOf(verseIterations, numVerses * 2);
+        }
+        verseEnds[numVerses] = numBars;
+        verseIterations[numVerses] = iterations;
+        numVerses++;
+    }
+
+    /**
+     * Function to remove every bar and verse, keeping the arrays for the next plan
+     */
+    public void clear() {
+        numBars = 0;
+        numVerses = 0;
+    }
+
+    public int getNumVerses() {
+        return numVerses;
+    }
+
+    public int getNumBars() {
+        return numBars;
+    }
+
+    public int getFirstBar(int verse) {
+        return verse == 0 ? 0 : verseEnds[verse - 1];
+    }
+
+    public int getEndBar(int verse) {
+        return verseEnds[verse];
+    }
+
+    public int getIterations(int verse) {
+        return verseIterations[verse];
+    }
+
+    public int getDegree(int bar) {
+        return bars[bar] & DEGREE_MASK;
+    }
+
+    public boolean isAlternative(int bar) {
+        return (bars[bar] & ALTERNATIVE) != 0;
+    }
+
+    /**
+     * Function to get the notes of a bar's chord
+     * @param bar The index of the bar within the song
+     * @return The shared, unmodifiable array of the chord's notes
+     */
+    public int[] getVoicing(int bar) {
+        return ChordTable.voicing(isMinorKey, getDegree(bar), isAlternative(bar), key);
+    }
+
+    /**
+     * Function to get the ChordStructs the parts write a bar's notes around
+     * @param bar The index of the bar within the song
+     * @return The ChordStructs of the chord's scale degree
+     */
+    public ChordStructs getStruct(int bar) {
+        return structs[getDegree(bar)];
+    }
+}
@@ -0,0 +1,131 @@
+package ikovsky;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Markov model of chord progressions over the 7 chords of the scale (I to vii).
+ * The next chord is drawn from a row of weightings chosen by the previous {@code order} chords:
+ * order 0 is a single row (every chord independent, the original chord weightings), order 1 is a 7x7
+ * transition matrix, and higher orders are n-gram tables of 7^order rows.
+ * Rows are normalised once and compiled into alias tables, so every draw is O(1) whatever the order.
+ * Instances are immutable and can be shared.
+ */
+public final class ChordTransitions {
+    private static final int NUM_CHORDS = IKConstants.NUM_SCALE_CHORDS;
+
+    private final int order;
+    private final int numContexts;  //7^order
+    private final AliasTable[] rows;
+    private final String description;   //The order and weightings the model was built from
+
+    /**
+     * Constructor for ChordTransitions
+     * Negative weightings count as 0, and a row with no positive weighting always moves to chord I
+     * @param order The number of previous chords that choose the row
+     * @param weightings One row of 7 weightings per context, the context of chords c1..cn (oldest first)
+     *                   being the base 7 number c1...cn with chord I as 0
+     * @throws IllegalArgumentException if the table is not 7^order rows of 7 weightings
+     */
+    public ChordTransitions(int order, double[][] weightings) {
+        if (order < 0) {
+            throw new IllegalArgumentException("Order must not be negative");
+        }
+        int contexts = 1;
+        for (int i = 0; i < order; i++) {
+            contexts = Math.multiplyExact(contexts, NUM_CHORDS);
+        }
+        if (weightings.length != contexts) {
+            throw new IllegalArgumentException("Order " + order + " needs " + contexts + " rows, got " + weightings.length);
+        }
+
+        this.order = order;
+        this.numContexts = contexts;
+        this.description = "order" + order + Arrays.deepToString(weightings);
+        this.rows = new AliasTable[contexts];
+        for (int i = 0; i < contexts; i++) {
+            rows[i] = compileRow(weightings[i]);
+        }
+    }
+
+    /**
+     * Function to create the degenerate model where each chord is drawn independently from one set of weightings
+     * @param weightings The 7 chord weightings (I, ii, ..., vii(o))
+     * @return An order 0 model
+     */
+    public static ChordTransitions independent(double[] weightings) {
+        return new ChordTransitions(0, new double[][] {weightings});
+    }
+
+    /**
+     * Function to create a first order model from a transition matrix
+     * @param matrix 7 rows of 7 weightings, row = current chord, column = next chord
+     * @return An order 1 model
+     */
+    public static ChordTransitions fromMatrix(double[][] matrix) {
+        return new ChordTransitions(1, matrix);
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Function to get the context of a song before any chord is chosen, as if it had only played chord I
+     * @return The initial context
+     */
+    public int initialContext() {
+        return 0;
+    }
+
+    /**
+     * Function to draw the next chord
+     * @param context The context of the previous chords
+     * @param rand The random stream, one double is consumed
+     * @return The index of the next chord (0 = I, 6 = vii)
+     */
+    public int next(int context, SplittableRandom rand) {
+        return rows[context].sample(rand);
+    }
+
+    /**
+     * Function to add a chord to a context
+     * @param context The context of the previous chords
+     * @param chord The chord just chosen
+     * @return The context for choosing the chord after it
+     */
+    public int advance(int context, int chord) {
+        return numContexts == 1 ? 0 : (context * NUM_CHORDS + chord) % numContexts;
+    }
+
+    /**
+     * Function to describe the model, models with the same description choose chords identically
+     * @return The order and the weightings
+     */
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    /**
+     * Function to normalise a row and build its sampler
+     */
+    private static AliasTable compileRow(double[] row) {
+        if (row.length != NUM_CHORDS) {
+            throw new IllegalArgumentException("A row needs " + NUM_CHORDS + " weightings, got " + row.length);
+        }
+        double[] weights = new double[NUM_CHORDS];
+        double total = 0;
+        for (int i = 0; i < NUM_CHORDS; i++) {
+            if (!Double.isFinite(row[i])) {
+                throw new IllegalArgumentException("Weighting " + row[i] + " is not a number");
+            }
+            weights[i] = Math.max(row[i], 0.0);
+            total += weights[i];
+        }
+        if (total == 0) {
+            weights[0] = 1.0; //Nowhere to go, return home
+        }
+        return new AliasTable(weights);
+    }
+}
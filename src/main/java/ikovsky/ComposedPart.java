@@ -0,0 +1,191 @@
+package ikovsky;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jm.music.data.CPhrase;
+import jm.music.data.Part;
+
+/**
+ * One track of a composed song: the part's events, the order its measures are played in, and the instrument and tempo
+ * its jMusic Part would be given.
+ *
+ * The track is what writing each placement of each measure to a jMusic Part with CPhrase.addChord would build, without
+ * building it. phrases() lays out the phrases that Part would hold, with start times worked out in the same order of
+ * double arithmetic, so MidiEncoder can write the track straight from the events. toPart() builds the Part itself,
+ * for saving and showing the song with jMusic.
+ */
+public final class ComposedPart {
+    public static final int DEFAULT_INSTRUMENT = 0;     //A new jMusic Part's instrument
+    public static final double NO_TEMPO = -1.0;         //Play at the score's tempo
+
+    private final PartEvents events;
+    private final List<Measure> placements = new ArrayList<>(); //Measures in playing order, a measure once per repeat
+    private int instrument = DEFAULT_INSTRUMENT;
+    private double tempo = NO_TEMPO;
+
+    /**
+     * Constructor for ComposedPart
+     * @param events The events the part's measures are written to
+     */
+    public ComposedPart(PartEvents events) {
+        this.events = events;
+    }
+
+    public PartEvents getEvents() {
+        return events;
+    }
+
+    public int getInstrument() {
+        return instrument;
+    }
+
+    public void setInstrument(int instrument) {
+        this.instrument = instrument;
+    }
+
+    public double getTempo() {
+        return tempo;
+    }
+
+    public void setTempo(double tempo) {
+        this.tempo = tempo;
+    }
+
+    /**
+     * Function to play a measure after those already placed
+     * @param measure The measure, which may be placed any number of times
+     */
+    public void addPlacement(Measure measure) {
+        placements.add(measure);
+    }
+
+    /**
+     * Function to remove every placement, so the part's events can be placed again from the start
+     */
+    public void clearPlacements() {
+        placements.clear();
+    }
+
+    /**
+     * Function to lay the track out as the phrases of its jMusic Part
+     * Each placement of a measure gives one phrase per voice, voice v playing the v-th note of each chord
+     * from the first chord with more than v notes (and resting through shorter chords), as CPhrase.addChord does.
+     * A placement starts at the end of the part so far, which is the latest end of any phrase already placed.
+     * @return The phrases in the order the Part would hold them
+     */
+    public Phrases phrases() {
+        return phrases(0.0);
+    }
+
+    /**
+     * Function to lay the track out as phrases that follow on from earlier music, as for one section of a long song
+     * @param partStart The end of the music before the track, in beats
+     * @return The phrases in the order the Part would hold them, ending at Phrases.end
+     */
+    public Phrases phrases(double partStart) {
+        int count = 0;
+        for (Measure measure : placements) {
+            count += numVoices(measure);
+        }
+
+        Phrases phrases = new Phrases(count);
+        double partEnd = partStart;
+        for (Measure measure : placements) {
+            double placementEnd = partEnd;
+            for (int voice = 0, numVoices = numVoices(measure); voice < numVoices; voice++) {
+                int first = firstEvent(measure, voice);
+                //A voice starts where the measure had got to when the voice was added, moved to the end of the part
+                double start = events.getOnset(first) + partEnd;
+                double end = start;
+                for (int e = first; e < measure.endEvent; e++) {
+                    end += events.getRhythm(e);
+                }
+                placementEnd = Math.max(placementEnd, end);
+
+                int i = phrases.size++;
+                phrases.starts[i] = start;
+                phrases.firstEvents[i] = first;
+                phrases.endEvents[i] = measure.endEvent;
+                phrases.voices[i] = voice;
+            }
+            partEnd = placementEnd;
+        }
+        phrases.end = partEnd;
+        return phrases;
+    }
+
+    /**
+     * Function to build the jMusic Part for the track
+     * @return A Part equal to the one the chords would have been written to with CPhrase.addChord
+     */
+    public Part toPart() {
+        Part part = new Part();
+        part.setInstrument(instrument);
+        if (tempo != NO_TEMPO) {
+            part.setTempo(tempo);
+        }
+
+        Map<Measure, CPhrase> written = new HashMap<>();
+        for (Measure measure : placements) {
+            part.addCPhrase(written.computeIfAbsent(measure, this::toCPhrase).copy());
+        }
+        return part;
+    }
+
+    private CPhrase toCPhrase(Measure measure) {
+        CPhrase phrase = new CPhrase();
+        if (tempo != NO_TEMPO) {
+            phrase.setTempo(tempo);
+        }
+        for (int e = measure.firstEvent; e < measure.endEvent; e++) {
+            phrase.addChord(events.getChord(e), events.getRhythm(e), events.getVelocity(e));
+        }
+        return phrase;
+    }
+
+    private int numVoices(Measure measure) {
+        int voices = 0;
+        for (int e = measure.firstEvent; e < measure.endEvent; e++) {
+            voices = Math.max(voices, events.getChordSize(e));
+        }
+        return voices;
+    }
+
+    private int firstEvent(Measure measure, int voice) {
+        int e = measure.firstEvent;
+        while (events.getChordSize(e) <= voice) {
+            e++;
+        }
+        return e;
+    }
+
+    /**
+     * The phrases of a track: phrase i plays voice voices[i] of events firstEvents[i] to endEvents[i], from starts[i]
+     */
+    public static final class Phrases {
+        final double[] starts;
+        final int[] firstEvents;
+        final int[] endEvents;
+        final int[] voices;
+        int size;
+        double end;     //The latest end of any phrase
+
+        private Phrases(int capacity) {
+            starts = new double[capacity];
+            firstEvents = new int[capacity];
+            endEvents = new int[capacity];
+            voices = new int[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double getEnd() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ikovsky;
+
+import java.util.Collections;
+import java.util.List;
+
+import jm.music.data.Score;
+
+/**
+ * A song written by the Composer, one ComposedPart per track.
+ * The song is encoded straight from its parts' events, toScore() builds the jMusic Score when one is needed.
+ * The tempo, time signature and key signature are those of a new jMusic Score, which is what the songs' scores
+ * have always been left with (the song's own tempo is set on its parts, or applied by RenderSettings).
+ */
+public final class ComposedSong {
+    static final double SCORE_TEMPO = 60.0;
+    static final int SCORE_NUMERATOR = 4;
+    static final int SCORE_DENOMINATOR = 4;
+    static final int SCORE_KEY_SIGNATURE = 0;
+    static final int SCORE_KEY_QUALITY = 0;
+
+    private final List<ComposedPart> parts;
+
+    /**
+     * Constructor for ComposedSong
+     * @param parts The song's tracks, in order
+     */
+    public ComposedSong(List<ComposedPart> parts) {
+        this.parts = Collections.unmodifiableList(parts);
+    }
+
+    public List<ComposedPart> getParts() {
+        return parts;
+    }
+
+    public double getTempo() {
+        return SCORE_TEMPO;
+    }
+
+    public int getNumerator() {
+        return SCORE_NUMERATOR;
+    }
+
+    public int getDenominator() {
+        return SCORE_DENOMINATOR;
+    }
+
+    public int getKeySignature() {
+        return SCORE_KEY_SIGNATURE;
+    }
+
+    public int getKeyQuality() {
+        return SCORE_KEY_QUALITY;
+    }
+
+    /**
+     * Function to add the song's tracks to a jMusic Score
+     * @param score The Score object to be written to
+     */
+    public void addTo(Score score) {
+        for (ComposedPart part : parts) {
+            score.add(part.toPart());
+        }
+    }
+
+    /**
+     * Function to build a jMusic Score of the song
+     * @param title The title of the score
+     * @return The Score
+     */
+    public Score toScore(String title) {
+        Score score = new Score(title);
+        addTo(score);
+        return score;
+    }
+}
@@ -1,9 +1,16 @@
 package ikovsky;
 
-import jm.music.data.*;
+import jm.music.data.Score;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * @author Paul Hudson
@@ -13,32 +20,49 @@ import java.util.Random;
 public class Composer {
 	private SongStructure songStruct; //System wide songstructure
 	private ArrayList<PartCreator> songParts; //The array of different instrument parts (e.g. Piano melody, Piano rhythm, drums)
-	private ArrayList<Part> songTracks; //ArrayList for storing each of the song tracks (e.g. rythm track / treble track)
+	private ArrayList<ComposedPart> songTracks; //ArrayList for storing each of the song tracks (e.g. rythm track / treble track)
 	
 	private ChordPicker	chordPicker; //Class for deciding chords
 	
-	private Random rand;
+	private RandomSource random; //Source of the random streams for every component of the song
+	private SplittableRandom rand;
 	
 	private ArrayList<Measure[]> verses; //ArrayList for all verses
+	
+	private Executor partExecutor = ForkJoinPool.commonPool(); //Where parts are written at the same time, null for the calling thread
 
 	/**
 	 * Default constructor for Composer class
 	 * @param newSongStruct The SongStructure object containing the song's musical properties
+	 * @param random The song's RandomSource
 	 */
-	public Composer(SongStructure newSongStruct) {
+	public Composer(SongStructure newSongStruct, RandomSource random) {
 		songParts = new ArrayList<PartCreator>();
 		songTracks = new ArrayList<>();
 		songStruct = newSongStruct;
 		
-		chordPicker = new ChordPicker(songStruct.key, songStruct.isMinorKey);
+		this.random = random;
+		
+		chordPicker = new ChordPicker(songStruct.getCompositionKey(), songStruct.isMinorKey, random.stream("chords"));
 		chordPicker.setProbabilities(songStruct.chordWeightings);
+		if (songStruct.chordTransitions != null) {
+			chordPicker.setTransitions(songStruct.chordTransitions);
+		}
 		
-		rand = new Random();
+		rand = random.stream("composer");
 		
 		verses = new ArrayList<>();
 	}
 	
 
+	/**
+	 * Function to set where the parts of a long enough song are written at the same time
+	 * @param partExecutor The executor, or null to write every part on the calling thread
+	 */
+	public void setPartExecutor(Executor partExecutor) {
+		this.partExecutor = partExecutor;
+	}
+	
 	/**
 	 * Function for adding part to the composition
 	 * @param isRhythm True if the part is a Rhythm part, this means the part will choose to play chords rather than single notes
@@ -48,12 +72,15 @@ public class Composer {
 	 * @param dMax Maximum dynamic that a note/chord can be played
 	 */
 	public void addPart(boolean isRhythm, int instrument, int octave, int dMin, int dMax) {
-		songParts.add(new PartCreator(isRhythm, songStruct, instrument, octave, dMin, dMax)); //Add new part creator object
+		PartCreator newCreator = new PartCreator(isRhythm, songStruct, instrument, octave, dMin, dMax, random, songParts.size());
+		songParts.add(newCreator); //Add new part creator object
 		
-		//Add the musical part that will be added to the score
-		Part newPart = new Part(); 
-		newPart.setInstrument(instrument);
-		newPart.setTempo(songStruct.tempo);	
+		//Add the track that the part's measures will be placed on
+		ComposedPart newPart = new ComposedPart(newCreator.events); 
+		if (!songStruct.canonical) {
+			newPart.setInstrument(instrument);
+			newPart.setTempo(songStruct.tempo);	
+		}
 		songTracks.add(newPart);
 	}
 	
@@ -62,7 +89,7 @@ public class Composer {
 	 * @param index The integer index of the part within the songTracks array
 	 * @return The part at the index from the songTracks array
 	 */
-	public Part getPart(int index) {
+	public ComposedPart getPart(int index) {
 		return songTracks.get(index);
 	}
 
@@ -73,6 +100,9 @@ public class Composer {
 	public void setSongStruct(SongStructure newStruct) {
 		songStruct = newStruct;
 		chordPicker.setProbabilities(songStruct.chordWeightings); //Set chord weightings
+		if (songStruct.chordTransitions != null) {
+			chordPicker.setTransitions(songStruct.chordTransitions);
+		}
 	}
 	
 	/**
@@ -86,50 +116,169 @@ public class Composer {
 	/**
 	 * Function to write the song
 	 * Writes all different verses first for all individual parts,
-	 * Then stitches them all together as different tracks which are added to the Score
-	 * @param songScore The Score object to be written to
+	 * Then stitches them all together as different tracks
+	 * @return The composed song
 	 */
-	public void writeSong(Score songScore) {
-		writeVerses(); //Verses
-		writeTracks(); //Tracks
+	public ComposedSong compose() {
+		return compose(track -> { });
+	}
+	
+	/**
+	 * Function to write the song, passing on each track as soon as it is finished
+	 * Tracks are passed on in order, so the first can be encoded and sent while later parts are still being written
+	 * @param listener Called on the calling thread with each finished track
+	 * @return The composed song
+	 */
+	public ComposedSong compose(Consumer<ComposedPart> listener) {
+		writeParts(listener);
 		
-		//Write to score
-		for (int i = 0 ; i < songTracks.size(); i++) {
-			songScore.add(songTracks.get(i));
+		return new ComposedSong(songTracks);
+	}
+	
+	/**
+	 * Function to write a long-form song, a section at a time, holding only the verses being played in memory
+	 * The song has numVerses verses in play. Each section plays one of them, chosen at random, and every
+	 * LONG_FORM_SECTIONS_PER_VERSE sections the oldest verse is replaced by a newly written one, so the song keeps
+	 * moving on. Each section is encoded as soon as it is placed, and a replaced verse's events are reused by the
+	 * verse that replaces it, so memory does not grow with the length of the song.
+	 * @param minutes The length of the song, which runs on to the end of its last section
+	 * @param writer The writer each part's sections are encoded to
+	 * @throws IOException if a section could not be written
+	 */
+	public void composeLongForm(double minutes, MidiEncoder.LongFormWriter writer) throws IOException {
+		int numVerses = songStruct.numVerses;
+		int numParts = songParts.size();
+		double songBeats = minutes * songStruct.tempo;
+		
+		//Each verse in play has its own events for every part, placed as a section of the song when it is played
+		ComposedPart[][] playing = new ComposedPart[numVerses][numParts];
+		Measure[][] measures = new Measure[numVerses][numParts];
+		ChordTimeline timeline = new ChordTimeline(chordPicker.getCurrentKey(), chordPicker.getCurrentKeyTonality(), chordPicker.chords);
+		for (int i = 0 ; i < numVerses; i++) {
+			for (int part = 0 ; part < numParts; part++) {
+				playing[i][part] = new ComposedPart(new PartEvents());
+				playing[i][part].setInstrument(songTracks.get(part).getInstrument());
+				playing[i][part].setTempo(songTracks.get(part).getTempo());
+			}
+			writeLongFormVerse(timeline, playing[i], measures[i]);
+		}
+		
+		int oldest = 0;
+		for (int section = 0 ; section == 0 || writer.getEnd() < songBeats; section++) {
+			if (section > 0 && section % IKConstants.LONG_FORM_SECTIONS_PER_VERSE == 0) {
+				writeLongFormVerse(timeline, playing[oldest], measures[oldest]);
+				oldest = (oldest + 1) % numVerses;
+			}
+			
+			int verse = rand.nextInt(numVerses);
+			for (int part = 0 ; part < numParts; part++) {
+				ComposedPart track = playing[verse][part];
+				track.clearPlacements();
+				for (int k = 0 ; k < measures[verse][part].iterations; k++) {
+					track.addPlacement(measures[verse][part]);
+				}
+				writer.writeSection(part, track);
+			}
+			writer.endSection();
+		}
+	}
+	
+	/**
+	 * Function to plan a new verse and write it for every part, over the events of a verse that is no longer played
+	 * @param timeline The timeline to plan the verse in, cleared first
+	 * @param parts Each part's events for the verse
+	 * @param measures Set to each part's measure of the verse
+	 */
+	private void writeLongFormVerse(ChordTimeline timeline, ComposedPart[] parts, Measure[] measures) {
+		timeline.clear();
+		planVerse(timeline);
+		for (int part = 0 ; part < parts.length; part++) {
+			PartEvents events = parts[part].getEvents();
+			events.clear();
+			measures[part] = writeVerse(songParts.get(part), events, timeline, 0);
 		}
 	}
 	
 	/**
-	 * Function to stitch all written verses together in accordance with verse/chorus structure for each song part
+	 * Function to write the song to a jMusic Score
+	 * @param songScore The Score object to be written to
+	 */
+	public void writeSong(Score songScore) {
+		compose().addTo(songScore);
+	}
+	
+	/**
+	 * Function to stitch a part's written verses together in accordance with verse/chorus structure
+	 * Each repeat of a verse places the same measure again, the notes are written once
+	 * @param part The index of the part
 	 */
-	private void writeTracks() {
+	private void placePart(int part) {
 		for (int i = 0 ; i < songStruct.verseStructure.size(); i++) {
-			for (int j = 0 ; j < songTracks.size(); j++) {
-				for (int k = 0 ; k < verses.get(songStruct.verseStructure.get(i))[j].iterations; k++) {
-					songTracks.get(j).addCPhrase(verses.get(songStruct.verseStructure.get(i))[j].phrase.copy());
+			Measure measure = verses.get(songStruct.verseStructure.get(i))[part];
+			for (int k = 0 ; k < measure.iterations; k++) {
+				songTracks.get(part).addPlacement(measure);
+			}
+		}
+	}
+	
+	/**
+	 * Function for writing all verses of every part
+	 * The chords of every verse are planned first, then each part writes all of its verses from the plan.
+	 * Parts only read the plan and draw from their own random streams, so they are written at the same time
+	 * when the song is long enough to be worth it, and the song is the same whichever thread writes each part.
+	 * @param listener Called with each part's track, in order, once the part is written and placed
+	 */
+	private void writeParts(Consumer<ComposedPart> listener) {
+		ChordTimeline timeline = planChords();
+		
+		//Create all verses, each part fills in its own measure
+		for (int i = 0 ; i < timeline.getNumVerses(); i++) {
+			verses.add(new Measure[songParts.size()]);
+		}
+		
+		if (partExecutor != null && songParts.size() > 1 && (long) timeline.getNumBars() * songParts.size() >= IKConstants.COMPOSER_PARALLEL_MIN_BARS) {
+			List<CompletableFuture<Void>> parts = new ArrayList<>(songParts.size());
+			for (int i = 0 ; i < songParts.size(); i++) {
+				int part = i;
+				parts.add(CompletableFuture.runAsync(() -> writePart(part, timeline), partExecutor));
+			}
+			for (int i = 0 ; i < songParts.size(); i++) {
+				try {
+					parts.get(i).join();
+				} catch (CompletionException e) {
+					throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
 				}
+				placePart(i);
+				listener.accept(songTracks.get(i));
+			}
+		} else {
+			for (int i = 0 ; i < songParts.size(); i++) {
+				writePart(i, timeline);
+				placePart(i);
+				listener.accept(songTracks.get(i));
 			}
 		}
 	}
 	
 	/**
-	 * Function for writing all verses
+	 * Function to plan the chords of all verses
+	 * @return The song's chord timeline
 	 */
-	public void writeVerses() {
-		//Write all verses
+	public ChordTimeline planChords() {
+		ChordTimeline timeline = new ChordTimeline(chordPicker.getCurrentKey(), chordPicker.getCurrentKeyTonality(), chordPicker.chords);
 		for (int i = 0 ; i < songStruct.numVerses; i++) {
-			writeVerse();
+			planVerse(timeline);
 		}
+		return timeline;
 	}
 	
 	/**
-	 * Method for writing all different verses (e.g. in ABACA it will write the A, B and C verses)
-	 * For all instruments:
+	 * Method for planning all different verses (e.g. in ABACA it will plan the A, B and C verses)
 	 * 1. choose verse structure (number of iterations of measures)
-	 * 2. choose current chord
-	 * 3. add notes based off chord and key
+	 * 2. choose the chord of each bar
+	 * @param timeline The timeline to add the verse to
 	 */
-	public void writeVerse() {		
+	private void planVerse(ChordTimeline timeline) {		
 		int numBars = 0;		
 		int numMeasures = 0;
 		
@@ -151,26 +300,49 @@ public class Composer {
 			numBars = 8;
 		}
 		
-		Measure[] newVerse = new Measure[songTracks.size()]; //create the new verse
-				
-		for (int i = 0; i < newVerse.length; i++) {
-			newVerse[i] = new Measure();
-			newVerse[i].iterations = numMeasures;
-			newVerse[i].phrase = new CPhrase();
-			newVerse[i].phrase.setTempo(songStruct.tempo);
+		chordPicker.getNewChord(); //Choose new chord
+		
+		//Choose the chord of every bar
+		for (int j = 0 ; j < numBars; j++) {
+			timeline.addBar(chordPicker.currentChordPosition - 1, chordPicker.isCurrentChordAlternative());
+			chordPicker.getNewChord(); //Choose next chord in progression
 		}
+		
+		timeline.endVerse(numMeasures);
+	}
 	
-		int[] newChord = chordPicker.getNewChord(); //Choose new chord
+	/**
+	 * Function for writing every verse of one part
+	 * @param part The index of the part
+	 * @param timeline The chords of every verse
+	 */
+	private void writePart(int part, ChordTimeline timeline) {
+		PartCreator creator = songParts.get(part);
+		for (int i = 0 ; i < timeline.getNumVerses(); i++) {
+			verses.get(i)[part] = writeVerse(creator, creator.events, timeline, i);
+		}
+	}
+	
+	/**
+	 * Function for writing one verse of one part
+	 * @param creator The part
+	 * @param events The events to write the verse's measure to
+	 * @param timeline The chords of the verse
+	 * @param verse The index of the verse within the timeline
+	 * @return The verse's measure
+	 */
+	private Measure writeVerse(PartCreator creator, PartEvents events, ChordTimeline timeline, int verse) {
+		creator.setEvents(events);
+		Measure measure = new Measure();
+		measure.iterations = timeline.getIterations(verse);
+		measure.firstEvent = events.startMeasure();
 		
-		//Write all bars and measures
-		for (int j = 0 ; j < numBars; j++) {
-			ChordStructs newChordStruct = chordPicker.chords[chordPicker.currentChordPosition-1];
-			for (int k = 0; k < newVerse.length; k++) {
-				songParts.get(k).writeBar(newChord, newChordStruct, newVerse[k].phrase);
-			}
-			newChord = chordPicker.getNewChord(); //Choose next chord in progression
+		//Write all bars of the measure
+		for (int j = timeline.getFirstBar(verse) ; j < timeline.getEndBar(verse); j++) {
+			creator.writeBar(timeline.getVoicing(j), timeline.getStruct(j));
 		}
 		
-		verses.add(newVerse); //Add the verse
+		measure.endEvent = events.size();
+		return measure;
 	}
 }
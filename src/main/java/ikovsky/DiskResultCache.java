@@ -0,0 +1,280 @@
+package ikovsky;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped second tier of the ResultCache, kept in a fixed-size file so it outlives the JVM
+ * (e.g. a Lambda runtime restart in a warm container keeps /tmp).
+ *
+ * The file is used as a ring: records are appended at block boundaries and, once the end is reached, writing
+ * wraps to the start and overwrites (evicts) the oldest records. Every record starts with a magic number and a
+ * sequence number and is covered by a crc32, so on open the index is rebuilt by checking each block boundary for a
+ * valid record, keeping the newest record for each key.
+ *
+ * File layout: header block [magic][version][capacity][block size], then records of
+ * [magic][sequence][payload length][payload crc32][payload], where the payload is the length-prefixed
+ * key, song id, song name and MidiCodec-encoded midi.
+ */
+public class DiskResultCache implements Closeable {
+    private static final int MAGIC = 0x494B5243;        //"IKRC"
+    private static final int RECORD_MAGIC = 0x52435244; //"RCRD"
+    private static final int VERSION = 1;
+    private static final int RECORD_HEADER_BYTES = 20;
+
+    private final Path file;
+    private final int blockSize;
+    private final int capacity;
+
+    private final Map<String, Integer> index = new HashMap<>();                 //Key -> record offset
+    private final NavigableMap<Integer, String> recordsByOffset = new TreeMap<>(); //For finding records a write overlaps
+
+    private FileChannel channel;
+    private MappedByteBuffer cache;
+    private int writePosition;
+    private long sequence;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor for DiskResultCache, opens (or creates) the cache file and rebuilds the index
+     * @param path The cache file
+     * @param capacity The size of the file in bytes
+     * @param blockSize Records start on multiples of this size
+     * @throws UncheckedIOException if the file could not be opened
+     */
+    public DiskResultCache(String path, int capacity, int blockSize) {
+        this.file = Paths.get(path);
+        this.blockSize = blockSize;
+        this.capacity = capacity - capacity % blockSize;
+
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open result cache " + path, e);
+        }
+    }
+
+    /**
+     * Function to look up a cached song
+     * @param key The cache key
+     * @return The song, or null if it is not cached
+     */
+    public synchronized SongRecord get(String key) {
+        Integer offset = index.get(key);
+        if (offset == null) {
+            return null;
+        }
+        byte[] payload = readPayload(offset);
+        if (payload == null) {
+            //Damaged on disk, forget it
+            remove(key, offset);
+            return null;
+        }
+
+        ByteBuffer fields = ByteBuffer.wrap(payload);
+        String storedKey = readString(fields);
+        if (!storedKey.equals(key)) {
+            return null;
+        }
+        String id = readString(fields);
+        String name = readString(fields);
+        byte[] midi = new byte[fields.getInt()];
+        fields.get(midi);
+        return new SongRecord(id, name, MidiCodec.decode(midi));
+    }
+
+    /**
+     * Function to add a song, evicting the oldest songs if the ring has wrapped round onto them
+     * Songs larger than a quarter of the cache are not stored
+     * @param key The cache key
+     * @param song The song
+     */
+    public synchronized void put(String key, SongRecord song) {
+        byte[] payload = encode(key, song);
+        int recordSize = RECORD_HEADER_BYTES + payload.length;
+        int recordBlocks = (recordSize + blockSize - 1) / blockSize;
+        if (recordBlocks * blockSize > (capacity - blockSize) / 4) {
+            return;
+        }
+
+        if (writePosition + recordBlocks * blockSize > capacity) {
+            writePosition = blockSize; //Wrap round to the first record block
+        }
+        int end = writePosition + recordBlocks * blockSize;
+        evictOverlapping(writePosition, end);
+
+        Integer previous = index.get(key);
+        if (previous != null) {
+            remove(key, previous);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        cache.putInt(writePosition, 0); //Not a valid record until the magic is written last
+        cache.putLong(writePosition + 4, ++sequence);
+        cache.putInt(writePosition + 12, payload.length);
+        cache.putInt(writePosition + 16, (int) crc.getValue());
+        cache.put(writePosition + RECORD_HEADER_BYTES, payload);
+        cache.putInt(writePosition, RECORD_MAGIC);
+
+        index.put(key, writePosition);
+        recordsByOffset.put(writePosition, key);
+        writePosition = end;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        cache.force();
+        channel.close();
+    }
+
+    /**
+     * Function to map the file, resetting it if it was written with a different layout, and rebuild the index
+     */
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(16);
+        channel.read(header, 0);
+        header.flip();
+        boolean matches = channel.size() == capacity && header.remaining() == 16 && header.getInt() == MAGIC
+                && header.getInt() == VERSION && header.getInt() == capacity && header.getInt() == blockSize;
+        if (!matches) {
+            //New file, or the settings changed; start from an empty (sparse, zero filled) file
+            channel.truncate(0);
+        }
+        cache = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (!matches) {
+            cache.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, capacity).putInt(12, blockSize);
+            writePosition = blockSize;
+            return;
+        }
+
+        Map<String, Long> sequences = new HashMap<>();
+        long newestSequence = 0;
+        int newestEnd = blockSize;
+
+        int position = blockSize;
+        while (position < capacity) {
+            byte[] payload = cache.getInt(position) == RECORD_MAGIC ? readPayload(position) : null;
+            if (payload == null) {
+                position += blockSize;
+                continue;
+            }
+
+            long recordSequence = cache.getLong(position + 4);
+            String key = readString(ByteBuffer.wrap(payload));
+            Long existing = sequences.get(key);
+            if (existing == null || existing < recordSequence) {
+                if (existing != null) {
+                    recordsByOffset.remove(index.get(key));
+                }
+                sequences.put(key, recordSequence);
+                index.put(key, position);
+                recordsByOffset.put(position, key);
+            }
+
+            int recordBlocks = (RECORD_HEADER_BYTES + payload.length + blockSize - 1) / blockSize;
+            if (recordSequence > newestSequence) {
+                newestSequence = recordSequence;
+                newestEnd = position + recordBlocks * blockSize;
+            }
+            position += recordBlocks * blockSize;
+        }
+
+        sequence = newestSequence;
+        writePosition = newestEnd;
+    }
+
+    /**
+     * Function to read and verify a record's payload
+     * @return The payload, or null if there is no intact record at the offset
+     */
+    private byte[] readPayload(int offset) {
+        if (cache.getInt(offset) != RECORD_MAGIC) {
+            return null;
+        }
+        int length = cache.getInt(offset + 12);
+        if (length <= 0 || (long) offset + RECORD_HEADER_BYTES + length > capacity) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        cache.get(offset + RECORD_HEADER_BYTES, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == cache.getInt(offset + 16) ? payload : null;
+    }
+
+    /**
+     * Function to drop every indexed record that overlaps the byte range about to be written
+     */
+    private void evictOverlapping(int start, int end) {
+        Map.Entry<Integer, String> before = recordsByOffset.lowerEntry(start);
+        if (before != null && before.getKey() + recordBytes(before.getKey()) > start) {
+            remove(before.getValue(), before.getKey());
+            evictions.incrementAndGet();
+        }
+        NavigableMap<Integer, String> overlapped = recordsByOffset.subMap(start, true, end, false);
+        while (!overlapped.isEmpty()) {
+            Map.Entry<Integer, String> record = overlapped.pollFirstEntry();
+            index.remove(record.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private int recordBytes(int offset) {
+        return RECORD_HEADER_BYTES + cache.getInt(offset + 12);
+    }
+
+    private void remove(String key, int offset) {
+        index.remove(key);
+        recordsByOffset.remove(offset);
+    }
+
+    private static byte[] encode(String key, SongRecord song) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] id = song.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] name = song.getSongName().getBytes(StandardCharsets.UTF_8);
+        byte[] midi = MidiCodec.encode(song.getMidi());
+
+        ByteBuffer payload = ByteBuffer.allocate(16 + keyBytes.length + id.length + name.length + midi.length);
+        payload.putInt(keyBytes.length).put(keyBytes);
+        payload.putInt(id.length).put(id);
+        payload.putInt(name.length).put(name);
+        payload.putInt(midi.length).put(midi);
+        return payload.array();
+    }
+
+    private static String readString(ByteBuffer fields) {
+        byte[] value = new byte[fields.getInt()];
+        fields.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
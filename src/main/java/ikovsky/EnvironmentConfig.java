@@ -0,0 +1,55 @@
+package ikovsky;
+
+/**
+ * Helper for reading optional deployment settings from environment variables,
+ * falling back to JVM system properties of the same name and then to a default.
+ */
+public final class EnvironmentConfig {
+
+    private EnvironmentConfig() {
+    }
+
+    /**
+     * Function to read a string setting
+     * @param name The environment variable name
+     * @param defaultValue The value used when the setting is absent
+     * @return The configured value or the default
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            value = System.getProperty(name);
+        }
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    /**
+     * Function to read an integer setting
+     * @param name The environment variable name
+     * @param defaultValue The value used when the setting is absent or not an integer
+     * @return The configured value or the default
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            IKLogger.warn("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Function to read a boolean setting
+     * @param name The environment variable name
+     * @param defaultValue The value used when the setting is absent
+     * @return The configured value or the default
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,306 @@
+package ikovsky;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable set of song parameters supplied with a generation request.
+ * Values are kept as the raw strings the user sent, SongStructure is responsible for validating them.
+ */
+public final class GenerationRequest {
+    private final String key;
+    private final String tempo;
+    private final String timeSig;
+    private final String octaveLow;
+    private final String octaveHigh;
+    private final String dynamicsLow;
+    private final String dynamicsHigh;
+    private final String noteDensity;
+    private final String instrument;
+    private final String[] weights; //Chord weightings A - G
+    private final Long seed;        //Optional seed for reproducible output, null for a random song
+    private final double[][] chordTransitions; //Optional 7x7 chord transition weightings, null for independent chords
+    private final String durationMinutes; //Optional length of a long-form song in minutes, null for a normal song
+
+    public GenerationRequest(String key, String tempo, String timeSig, String octaveLow, String octaveHigh,
+                             String dynamicsLow, String dynamicsHigh, String noteDensity, String instrument,
+                             String weightA, String weightB, String weightC, String weightD, String weightE,
+                             String weightF, String weightG) {
+        this(key, tempo, timeSig, octaveLow, octaveHigh, dynamicsLow, dynamicsHigh, noteDensity, instrument,
+                weightA, weightB, weightC, weightD, weightE, weightF, weightG, null);
+    }
+
+    public GenerationRequest(String key, String tempo, String timeSig, String octaveLow, String octaveHigh,
+                             String dynamicsLow, String dynamicsHigh, String noteDensity, String instrument,
+                             String weightA, String weightB, String weightC, String weightD, String weightE,
+                             String weightF, String weightG, Long seed) {
+        this(key, tempo, timeSig, octaveLow, octaveHigh, dynamicsLow, dynamicsHigh, noteDensity, instrument,
+                weightA, weightB, weightC, weightD, weightE, weightF, weightG, seed, null);
+    }
+
+    public GenerationRequest(String key, String tempo, String timeSig, String octaveLow, String octaveHigh,
+                             String dynamicsLow, String dynamicsHigh, String noteDensity, String instrument,
+                             String weightA, String weightB, String weightC, String weightD, String weightE,
+                             String weightF, String weightG, Long seed, double[][] chordTransitions) {
+        this(key, tempo, timeSig, octaveLow, octaveHigh, dynamicsLow, dynamicsHigh, noteDensity, instrument,
+                weightA, weightB, weightC, weightD, weightE, weightF, weightG, seed, chordTransitions, null);
+    }
+
+    public GenerationRequest(String key, String tempo, String timeSig, String octaveLow, String octaveHigh,
+                             String dynamicsLow, String dynamicsHigh, String noteDensity, String instrument,
+                             String weightA, String weightB, String weightC, String weightD, String weightE,
+                             String weightF, String weightG, Long seed, double[][] chordTransitions,
+                             String durationMinutes) {
+        this.key = key;
+        this.tempo = tempo;
+        this.timeSig = timeSig;
+        this.octaveLow = octaveLow;
+        this.octaveHigh = octaveHigh;
+        this.dynamicsLow = dynamicsLow;
+        this.dynamicsHigh = dynamicsHigh;
+        this.noteDensity = noteDensity;
+        this.instrument = instrument;
+        this.weights = new String[]{weightA, weightB, weightC, weightD, weightE, weightF, weightG};
+        this.seed = seed;
+        this.chordTransitions = chordTransitions;
+        this.durationMinutes = durationMinutes;
+    }
+
+    /**
+     * Function to decode a request body in a single pass over the JSON
+     * Every field may be sent as either a JSON string or a JSON number, unknown fields are ignored
+     * @param body The JSON body of the request
+     * @return The decoded request
+     * @throws InvalidRequestException if the body is not a JSON object or a field is missing
+     */
+    public static GenerationRequest fromJson(String body) {
+        if (body == null || body.isEmpty()) {
+            throw new InvalidRequestException("Request body is empty");
+        }
+        return fromJson(new StringReader(body));
+    }
+
+    /**
+     * Function to decode a request body in a single pass over the JSON
+     * @param body Reader over the JSON body of the request
+     * @return The decoded request
+     * @throws InvalidRequestException if the body is not a JSON object or a field is missing
+     */
+    public static GenerationRequest fromJson(Reader body) {
+        try (JsonReader reader = new JsonReader(body)) {
+            return read(reader);
+        } catch (IOException e) {
+            throw new InvalidRequestException("Request body is not a valid JSON object: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Function to decode a request from the next JSON object of a reader, e.g. one element of a batch
+     * @param reader The reader, positioned at the object
+     * @return The decoded request
+     * @throws InvalidRequestException if the value is not a JSON object or a field is missing
+     */
+    static GenerationRequest read(JsonReader reader) {
+        String key = null, tempo = null, timeSig = null, octaveLow = null, octaveHigh = null;
+        String dynamicsLow = null, dynamicsHigh = null, noteDensity = null, instrument = null;
+        String[] weights = new String[IKConstants.NUM_SCALE_CHORDS];
+        Long seed = null;
+        double[][] chordTransitions = null;
+        String durationMinutes = null;
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "key": key = nextValue(reader, name); break;
+                    case "tempo": tempo = nextValue(reader, name); break;
+                    case "timeSig": timeSig = nextValue(reader, name); break;
+                    case "octaveLow": octaveLow = nextValue(reader, name); break;
+                    case "octaveHigh": octaveHigh = nextValue(reader, name); break;
+                    case "dynamicsLow": dynamicsLow = nextValue(reader, name); break;
+                    case "dynamicsHigh": dynamicsHigh = nextValue(reader, name); break;
+                    case "noteDensity": noteDensity = nextValue(reader, name); break;
+                    case "instrument": instrument = nextValue(reader, name); break;
+                    case "weightA": weights[0] = nextValue(reader, name); break;
+                    case "weightB": weights[1] = nextValue(reader, name); break;
+                    case "weightC": weights[2] = nextValue(reader, name); break;
+                    case "weightD": weights[3] = nextValue(reader, name); break;
+                    case "weightE": weights[4] = nextValue(reader, name); break;
+                    case "weightF": weights[5] = nextValue(reader, name); break;
+                    case "weightG": weights[6] = nextValue(reader, name); break;
+                    case "seed": seed = parseSeed(nextValue(reader, name)); break;
+                    case "chordTransitions": chordTransitions = nextMatrix(reader, name); break;
+                    case "durationMinutes": durationMinutes = nextValue(reader, name); break;
+                    default: reader.skipValue(); break;
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new InvalidRequestException("Request body is not a valid JSON object: " + e.getMessage(), e);
+        }
+
+        return new GenerationRequest(
+                require(key, "key"),
+                require(tempo, "tempo"),
+                require(timeSig, "timeSig"),
+                require(octaveLow, "octaveLow"),
+                require(octaveHigh, "octaveHigh"),
+                require(dynamicsLow, "dynamicsLow"),
+                require(dynamicsHigh, "dynamicsHigh"),
+                require(noteDensity, "noteDensity"),
+                require(instrument, "instrument"),
+                require(weights[0], "weightA"),
+                require(weights[1], "weightB"),
+                require(weights[2], "weightC"),
+                require(weights[3], "weightD"),
+                require(weights[4], "weightE"),
+                require(weights[5], "weightF"),
+                require(weights[6], "weightG"),
+                seed,
+                chordTransitions,
+                durationMinutes);
+    }
+
+    /**
+     * Function to copy the request with a different seed
+     * @param newSeed The seed of the copy, or null for a random song
+     * @return The copy
+     */
+    public GenerationRequest withSeed(Long newSeed) {
+        return new GenerationRequest(key, tempo, timeSig, octaveLow, octaveHigh, dynamicsLow, dynamicsHigh, noteDensity,
+                instrument, weights[0], weights[1], weights[2], weights[3], weights[4], weights[5], weights[6], newSeed,
+                chordTransitions, durationMinutes);
+    }
+
+    /**
+     * Function to read a scalar field value as a string
+     */
+    static String nextValue(JsonReader reader, String name) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        throw new InvalidRequestException("Field " + name + " must be a string or a number");
+    }
+
+    /**
+     * Function to read an array of arrays of numbers, e.g. [[0.5, 0.5], [1, 0]]
+     */
+    private static double[][] nextMatrix(JsonReader reader, String name) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            throw new InvalidRequestException("Field " + name + " must be an array of arrays of numbers");
+        }
+        List<double[]> rows = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new InvalidRequestException("Field " + name + " must be an array of arrays of numbers");
+            }
+            List<Double> row = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String value = nextValue(reader, name);
+                try {
+                    row.add(Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    throw new InvalidRequestException("Field " + name + " contains " + value + ", which is not a number", e);
+                }
+            }
+            reader.endArray();
+            rows.add(row.stream().mapToDouble(Double::doubleValue).toArray());
+        }
+        reader.endArray();
+        return rows.toArray(new double[0][]);
+    }
+
+    static Long parseSeed(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Field seed must be a whole number between " + Long.MIN_VALUE + " and " + Long.MAX_VALUE, e);
+        }
+    }
+
+    private static String require(String value, String name) {
+        if (value == null) {
+            throw new InvalidRequestException("Missing required field: " + name);
+        }
+        return value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getTempo() {
+        return tempo;
+    }
+
+    public String getTimeSig() {
+        return timeSig;
+    }
+
+    public String getOctaveLow() {
+        return octaveLow;
+    }
+
+    public String getOctaveHigh() {
+        return octaveHigh;
+    }
+
+    public String getDynamicsLow() {
+        return dynamicsLow;
+    }
+
+    public String getDynamicsHigh() {
+        return dynamicsHigh;
+    }
+
+    public String getNoteDensity() {
+        return noteDensity;
+    }
+
+    public String getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Function to get a single chord weighting
+     * @param index The chord index (0 = weightA, 6 = weightG)
+     * @return The raw chord weighting value
+     */
+    public String getWeight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * Function to get the requested seed
+     * @return The seed, or null if the request did not supply one
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Function to get the requested chord transition weightings
+     * @return Rows of weightings (row = current chord, column = next chord), or null if the request did not supply them
+     */
+    public double[][] getChordTransitions() {
+        return chordTransitions;
+    }
+
+    /**
+     * Function to get the requested length of a long-form song
+     * @return The length in minutes as sent, or null for a song of the normal verse/chorus structure
+     */
+    public String getDurationMinutes() {
+        return durationMinutes;
+    }
+}
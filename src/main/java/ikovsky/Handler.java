@@ -5,82 +5,162 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.*;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class Handler implements RequestHandler<Object, APIGatewayV2HTTPResponse>{
-    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String BATCH_ROUTE = "POST /batch";
+    private static final String BATCH_PATH = "/batch";
+    private static final String DEFAULT_ROUTE = "$default";
+
+    private final BatchGenerator batchGenerator;    //Null for the shared BatchGenerator, created on the first batch
+    private final Executor partExecutor;            //Where a song's parts are written at the same time, see Composer
+
+    public Handler() {
+        this(null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor for Handler, composing on the given executors rather than the shared pools, e.g. for a server
+     * @param batchGenerator The generator for batch requests, or null for the shared one
+     * @param partExecutor Where a song's parts are written at the same time, or null for the thread composing it
+     */
+    public Handler(BatchGenerator batchGenerator, Executor partExecutor) {
+        this.batchGenerator = batchGenerator;
+        this.partExecutor = partExecutor;
+    }
+
     @Override
     public APIGatewayV2HTTPResponse handleRequest(Object event, Context context)
     {
-        if(event instanceof Map)
-        {
-            JsonElement lambdaInputJsonStr = gson.toJsonTree(event);
-            JsonPrimitive bodyPrim = lambdaInputJsonStr.getAsJsonObject().getAsJsonPrimitive("body");
-
-            final Gson prettyGson = new GsonBuilder()
-                    .setPrettyPrinting()
-                    .serializeNulls()
-                    .disableHtmlEscaping()
-                    .create();
-
-            //parse the garbled mess of a JSON string we receive from AWS API Gateway
-            String prettyGsonString = prettyGson.toJson(bodyPrim).replaceAll("\\\\n", "")
-                    .replaceAll("\\\\t", "")
-                    .replaceAll("\\\\b", "")
-                    .replaceAll("\\\\r", "")
-                    .replaceAll("\\\\f", "")
-                    .replaceAll("\\\\'", "\'")
-                    .replaceAll("\\\\\"", "\"");
-
-            JsonObject body = JsonParser.parseString(prettyGsonString.substring(1, prettyGsonString.length() - 1)).getAsJsonObject();
-
-            String key = body.get("key").getAsString();
-            String tempo = body.get("tempo").getAsString();
-            String timeSig = body.get("timeSig").getAsString();
-            String octaveLow = body.get("octaveLow").getAsString();
-            String octaveHigh = body.get("octaveHigh").getAsString();
-            String dynamicsLow = body.get("dynamicsLow").getAsString();
-            String dynamicsHigh = body.get("dynamicsHigh").getAsString();
-            String noteDensity = body.get("noteDensity").getAsString();
-            String instrument = body.get("instrument").getAsString();
-            String weightA = body.get("weightA").getAsString();
-            String weightB = body.get("weightB").getAsString();
-            String weightC = body.get("weightC").getAsString();
-            String weightD = body.get("weightD").getAsString();
-            String weightE = body.get("weightE").getAsString();
-            String weightF = body.get("weightF").getAsString();
-            String weightG = body.get("weightG").getAsString();
-
-            SongGenerator songGenerator = new SongGenerator(false, null, key, tempo, timeSig, octaveLow, octaveHigh,
-                    dynamicsLow, dynamicsHigh, noteDensity, instrument, weightA,weightB, weightC, weightD, weightE, weightF,
-                    weightG);
-
-            SongResponse songResponse = songGenerator.generateSongResponse();
-
-            HashMap<String, String> headers = new HashMap<>();
-            headers.put("Access-Control-Allow-Headers", "Content-Type");
-            headers.put("Access-Control-Allow-Origin", "*");
-            headers.put("Access-Control-Allow-Methods", "OPTIONS,POST,GET");
-
-            ObjectMapper mapper = new ObjectMapper();
+        if (!(event instanceof Map)) {
+            return errorResponse(400, "Unsupported event type");
+        }
+        if (isBatch((Map<?, ?>) event)) {
+            return handleBatch((Map<?, ?>) event);
+        }
+
+        RequestMetrics metrics = new RequestMetrics();
+        SongResponse songResponse;
+        try {
+            metrics.begin(RequestMetrics.Stage.DECODE);
+            GenerationRequest request = GenerationRequest.fromJson(readBody((Map<?, ?>) event));
+            metrics.end();
+
+            SongGenerator songGenerator = new SongGenerator(false, null, request, SongStores.getDefault(), metrics);
+            songGenerator.setPartExecutor(partExecutor);
+            songResponse = songGenerator.generateSongResponse();
+        } catch (InvalidRequestException e) {
+            PipelineMetrics.record(metrics);
+            return errorResponse(400, e.getMessage());
+        }
+        PipelineMetrics.record(metrics);
+
+        try {
+            String json = mapper.writeValueAsString(songResponse);
+            Map<String, String> headers = corsHeaders();
+            headers.put("Server-Timing", metrics.toServerTiming());
+            return APIGatewayV2HTTPResponse.builder()
+                    .withStatusCode(200)
+                    .withHeaders(headers)
+                    .withBody(json)
+                    .build();
+        } catch (JsonProcessingException e) {
+            return errorResponse(500, "Unable to serialise song");
+        }
+    }
+
+    /**
+     * Function to generate every song of a batch request, e.g. POST /batch
+     * @param event The Lambda event map
+     * @return The songs, in the order they were requested: {"songs": [...]}
+     */
+    private APIGatewayV2HTTPResponse handleBatch(Map<?, ?> event) {
+        List<SongResponse> songs;
+        try {
+            BatchRequest batch = BatchRequest.fromJson(readBody(event));
+            songs = (batchGenerator != null ? batchGenerator : BatchGenerator.getDefault()).generate(batch);
+        } catch (InvalidRequestException e) {
+            return errorResponse(400, e.getMessage());
+        }
+
+        try {
+            String json = mapper.writeValueAsString(Map.of("songs", songs));
+            return APIGatewayV2HTTPResponse.builder()
+                    .withStatusCode(200)
+                    .withHeaders(corsHeaders())
+                    .withBody(json)
+                    .build();
+        } catch (JsonProcessingException e) {
+            return errorResponse(500, "Unable to serialise songs");
+        }
+    }
+
+    /**
+     * Function to check whether an API Gateway v2 event is for the batch endpoint
+     * The route is matched exactly. Events for the $default route (and function URLs) match on the path instead,
+     * which has no stage prefix for them
+     */
+    private static boolean isBatch(Map<?, ?> event) {
+        Object routeKey = event.get("routeKey");
+        if (BATCH_ROUTE.equals(routeKey)) {
+            return true;
+        }
+        return DEFAULT_ROUTE.equals(routeKey) && BATCH_PATH.equals(event.get("rawPath"));
+    }
+
+    /**
+     * Function to get the raw JSON body from an API Gateway v2 event
+     * @param event The Lambda event map
+     * @return The request body
+     */
+    static String readBody(Map<?, ?> event) {
+        Object body = event.get("body");
+        if (!(body instanceof String)) {
+            throw new InvalidRequestException("Request body is missing");
+        }
+
+        if (Boolean.TRUE.equals(event.get("isBase64Encoded"))) {
             try {
-                String json = mapper.writeValueAsString(songResponse);
-                return APIGatewayV2HTTPResponse.builder()
-                        .withStatusCode(200)
-                        .withHeaders(headers)
-                        .withBody(json)
-                        .build();
-            } catch (JsonProcessingException e) {
-                return APIGatewayV2HTTPResponse.builder()
-                        .withStatusCode(500)
-                        .build();
+                return new String(Base64.getDecoder().decode((String) body), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidRequestException("Request body is not valid Base64", e);
             }
+        }
+        return (String) body;
+    }
 
+    static Map<String, String> corsHeaders() {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Access-Control-Allow-Headers", "Content-Type");
+        headers.put("Access-Control-Allow-Origin", "*");
+        headers.put("Access-Control-Allow-Methods", "OPTIONS,POST,GET");
+        headers.put("Timing-Allow-Origin", "*"); //Lets browsers read the Server-Timing header cross-origin
+        return headers;
+    }
+
+    private static APIGatewayV2HTTPResponse errorResponse(int statusCode, String message) {
+        Map<String, String> headers = corsHeaders();
+        headers.put("Content-Type", "application/json");
 
+        String json;
+        try {
+            json = mapper.writeValueAsString(Map.of("error", message == null ? "" : message));
+        } catch (JsonProcessingException e) {
+            json = "{}";
         }
-        return null;
+
+        return APIGatewayV2HTTPResponse.builder()
+                .withStatusCode(statusCode)
+                .withHeaders(headers)
+                .withBody(json)
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -41,6 +41,7 @@ public interface IKConstants {
 	public static final double COMPOSER_MEASURES_2_BARS_2_PROBABILITY = 0.3;
 	public static final double COMPOSER_MEASURES_1_BARS_8_PROBABILITY = 0.2;
 	public static final double COMPOSER_MEASURES_2_BARS_1_PROBABILITY = 0.2;
+	public static final int COMPOSER_PARALLEL_MIN_BARS = 256; //Bars across all parts below which the parts are written on one thread
 	
 	//--------- NotePicker Constants ---------
 	public static final double NOTEPICKER_BASE_CHROMATIC_PROBABILITY = 0.005;
@@ -61,6 +62,78 @@ public interface IKConstants {
 	public static final double PARTCREATOR_MELODY_CHORD_PROBABILITY = 0.65;
 	
 	
+	//--------- Repository Constants ----------
+	public static final String	REPOSITORY_TABLE_NAME = "ikovsky-songs";
+	public static final String	REPOSITORY_DEFAULT_REGION = "eu-west-1";
+	public static final int		REPOSITORY_MAX_CONNECTIONS = 50;
+	public static final int		REPOSITORY_CONNECTION_TIMEOUT_MS = 2000;
+	public static final int		REPOSITORY_SOCKET_TIMEOUT_MS = 5000;
+	public static final int		REPOSITORY_REQUEST_TIMEOUT_MS = 8000;
+	public static final long	REPOSITORY_CONNECTION_TTL_MS = 60000;
+	public static final int		REPOSITORY_MAX_BATCH_SIZE = 25; //DynamoDB BatchWriteItem limit
+	public static final int		REPOSITORY_INLINE_MIDI_LIMIT = 300 * 1024; //Larger songs are chunked (item limit is 400KB)
+	public static final int		REPOSITORY_CHUNK_SIZE = 64 * 1024;
+	public static final int		REPOSITORY_CHUNK_THREADS = 8;
+	public static final int		REPOSITORY_KNOWN_CHUNKS = 10000;
+	
+	//--------- Persistence Constants ----------
+	public static final int		PERSISTENCE_QUEUE_CAPACITY = 1000;
+	public static final int		PERSISTENCE_OVERFLOW_CAPACITY = 1000; //Songs waiting for the spooler once the queue is full
+	public static final int		PERSISTENCE_SPOOL_BATCH_SIZE = 256; //Overflow songs appended to the spool with one fsync
+	public static final int		PERSISTENCE_MAX_ATTEMPTS = 5;
+	public static final long	PERSISTENCE_BACKOFF_BASE_MS = 50;
+	public static final long	PERSISTENCE_BACKOFF_MAX_MS = 2000;
+	public static final long	PERSISTENCE_LINGER_MS = 10;
+	public static final long	PERSISTENCE_REPLAY_INTERVAL_MS = 5000;
+	public static final String	PERSISTENCE_SPOOL_PATH = "/tmp/ikovsky-spool.log";
+	
+	//--------- Local Store Constants ----------
+	public static final String	LOCAL_STORE_DIR = "/tmp/ikovsky-store";
+	public static final int		LOCAL_STORE_SEGMENT_BYTES = 64 * 1024 * 1024; //A segment is sealed and a new one started once it is full
+	public static final long	LOCAL_STORE_COMPACTION_MIN_BYTES = 8 * 1024 * 1024;
+	public static final double	LOCAL_STORE_COMPACTION_LIVE_RATIO = 0.5; //Compact a sealed segment once less than half of it is live
+	
+	//--------- Metrics Constants ----------
+	public static final String	METRICS_NAMESPACE = "iKovsky";
+	public static final long	METRICS_FLUSH_INTERVAL_MS = 60000; //Histograms are emitted and reset at most this often
+	public static final String	LOG_LEVEL_DEFAULT = "INFO";
+	
+	//--------- Result Cache Constants ----------
+	public static final int		RESULT_CACHE_VERSION = 3; //Part of every cache key, bump whenever a seed would compose a different song
+	public static final int		RESULT_CACHE_HEAP_MB = 32;
+	public static final int		RESULT_CACHE_DISK_MB = 64;
+	public static final String	RESULT_CACHE_DISK_PATH = "/tmp/ikovsky-cache/results.cache";
+	public static final int		RESULT_CACHE_DISK_BLOCK_SIZE = 512;
+	
+	//--------- Batch Constants ----------
+	public static final int		BATCH_MAX_SONGS = 100;
+	public static final int		BATCH_ENCODE_THREADS_DIVISOR = 4; //Encoding takes a fraction of the time of composing, one encode thread per this many cores
+	
+	//--------- Long-form Constants ----------
+	public static final int		LONG_FORM_MAX_MINUTES = 600;
+	public static final int		LONG_FORM_MAX_BEATS = 60000; //Minutes * tempo, at up to ~100 bytes a beat this keeps the midi file under 6 MB
+	public static final int		LONG_FORM_SECTIONS_PER_VERSE = 4; //Sections played between one verse being replaced by a new one
+	public static final int		LONG_FORM_TRACK_BEATS = 64; //Sections are sent as a track of each part once they cover this many beats
+	
+	//--------- Server Constants ----------
+	public static final int		SERVER_PORT = 8080;
+	public static final int		SERVER_QUEUE_PER_THREAD = 8; //Requests that can wait for each compose thread before more are turned away
+	public static final int		SERVER_STOP_DELAY_SECONDS = 5;
+	public static final int		SERVER_MAX_BODY_BYTES = 256 * 1024; //Larger request bodies are turned away with 413
+	public static final int		SERVER_MAX_REQUEST_SECONDS = 10; //Longest a client can take to send a request before its connection is closed
+	public static final int		SERVER_MAX_CONNECTIONS = 1024;
+	public static final int		SERVER_SPARE_REQUEST_THREADS = 16; //Request threads beyond those of admitted requests, for turning requests away and health checks
+	
+	//--------- Rendering Constants ----------
+	public static final int		CANONICAL_KEY = 0; //Canonical compositions are written in C (major or minor) and transposed when encoded
+	public static final boolean	CANONICAL_COMPOSITION_DEFAULT = false;
+	
+	
+	//--------- Title Constants ----------
+	public static final boolean	UNIQUE_TITLES_DEFAULT = true; //Redraw titles of unseeded songs that were issued recently
+	public static final int		RECENT_TITLE_CAPACITY = 100000; //Titles remembered, about 1.2 bytes each
+	
+	
 	//--------- Default Structure Components ---------
 	public static final int[]		DEFAULT_INSTRUMENTS = {
 		jm.constants.ProgramChanges.GUITAR,
@@ -0,0 +1,67 @@
+package ikovsky;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Minimal level-gated logger writing single lines to standard out (which Lambda forwards to CloudWatch Logs).
+ * The level is read once from IKOVSKY_LOG_LEVEL (ERROR, WARN, INFO or DEBUG, default INFO).
+ * Messages that are expensive to build should be passed as a Supplier so nothing is built when the level is off.
+ */
+public final class IKLogger {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static final Level LEVEL = parseLevel(EnvironmentConfig.getString("IKOVSKY_LOG_LEVEL", IKConstants.LOG_LEVEL_DEFAULT));
+
+    private IKLogger() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() <= LEVEL.ordinal();
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, message.get());
+        }
+    }
+
+    private static void log(Level level, String message) {
+        if (isEnabled(level)) {
+            System.out.println(level + " " + message);
+        }
+    }
+
+    /**
+     * Function to parse a level name, unknown names fall back to INFO
+     * Does not use EnvironmentConfig's int/boolean helpers, which log through this class
+     */
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("WARN Ignoring invalid log level: " + name);
+            return Level.INFO;
+        }
+    }
+}
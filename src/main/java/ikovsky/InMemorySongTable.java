@@ -0,0 +1,91 @@
+package ikovsky;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-memory stand-in for the ikovsky-songs table, for running and load-testing generation without AWS.
+ * Throttling and outages can be simulated so the persistence pipeline can be exercised offline.
+ */
+public class InMemorySongTable implements SongStore {
+    private final Map<String, SongRecord> songs = new ConcurrentHashMap<>();
+
+    private volatile boolean unavailable;        //When true every write fails as if the store was unreachable
+    private volatile double unprocessedChance;   //Chance of each item in a batch being left unprocessed
+
+    @Override
+    public void put(SongRecord song) {
+        if (unavailable) {
+            throw new IllegalStateException("In-memory song table is unavailable");
+        }
+        songs.put(song.getId(), song);
+    }
+
+    @Override
+    public List<SongRecord> writeBatch(List<SongRecord> batch) {
+        if (unavailable) {
+            throw new IllegalStateException("In-memory song table is unavailable");
+        }
+
+        List<SongRecord> unprocessed = new ArrayList<>();
+        for (SongRecord song : batch) {
+            if (unprocessedChance > 0 && ThreadLocalRandom.current().nextDouble() < unprocessedChance) {
+                unprocessed.add(song);
+            } else {
+                songs.put(song.getId(), song);
+            }
+        }
+        return unprocessed;
+    }
+
+    @Override
+    public SongRecord get(String id) {
+        return songs.get(id);
+    }
+
+    @Override
+    public List<SongRecord> list(int limit) {
+        List<SongRecord> result = new ArrayList<>(Math.min(limit, songs.size()));
+        for (SongRecord song : songs.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(song);
+        }
+        return result;
+    }
+
+    /**
+     * Function to get the number of stored songs
+     * @return The number of songs in the table
+     */
+    public int size() {
+        return songs.size();
+    }
+
+    /**
+     * Function to remove every song, e.g. between the runs of a load test
+     */
+    public void clear() {
+        songs.clear();
+    }
+
+    /**
+     * Function to simulate the store going down or recovering
+     * @param unavailable True to make every write fail
+     */
+    public void setUnavailable(boolean unavailable) {
+        this.unavailable = unavailable;
+    }
+
+    /**
+     * Function to simulate throttling
+     * @param chance Chance between 0 and 1 of each item being returned as unprocessed
+     */
+    public void setUnprocessedChance(double chance) {
+        this.unprocessedChance = chance;
+    }
+}
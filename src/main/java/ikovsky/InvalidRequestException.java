@@ -0,0 +1,26 @@
+package ikovsky;
+
+/**
+ * Exception thrown when the song parameters supplied by the user are missing or invalid.
+ * The message is safe to return to the user.
+ */
+public class InvalidRequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor for InvalidRequestException
+     * @param message Description of the invalid parameter
+     */
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor for InvalidRequestException
+     * @param message Description of the invalid parameter
+     * @param cause The underlying parse error
+     */
+    public InvalidRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
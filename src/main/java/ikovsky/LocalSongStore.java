@@ -0,0 +1,485 @@
+package ikovsky;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local log-structured song store for self-hosted deployments and offline benchmarks.
+ * Songs are appended to a log of numbered, memory-mapped segment files and found through an in-memory
+ * id -> (segment, offset) index. Songs are only appended to the newest segment, which is sealed once it is full and
+ * a new one started, so the store grows a segment at a time with no limit on its total size.
+ * Overwritten songs leave dead records behind. A sealed segment that is mostly dead is compacted: its live records
+ * are copied to a new file without holding the store's lock, so reads and writes carry on, and the copy then
+ * replaces the segment under its number. The index is rebuilt by scanning the segments in order when the store is
+ * opened, a later record of a song replacing an earlier one.
+ *
+ * Segment layout: [magic][version] then records of [payload length][payload crc32][payload],
+ * where the payload is the length-prefixed id, name and midi fields. The midi field is encoded with MidiCodec
+ * (version 2 logs) or is a Base64 string (version 1 logs), both are read transparently. A single-file log from
+ * before segments (songs.log) is taken over as the first segment.
+ */
+public class LocalSongStore implements SongStore, Closeable {
+    private static final int MAGIC = 0x494B4C53; //"IKLS"
+    private static final int VERSION = 2;
+    private static final int MIN_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private static final String LEGACY_LOG = "songs.log";
+    private static final String COMPACT_SUFFIX = ".compact";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("songs-(\\d{8})\\.seg");
+
+    private final Path directory;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock compacting = new ReentrantLock();  //One compaction at a time
+    private final Map<String, Location> index = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();      //Oldest first, the last is the one written to
+
+    /**
+     * Constructor for LocalSongStore, opens (or creates) the log and rebuilds the index
+     * @param directory The directory holding the segment files
+     * @throws UncheckedIOException if the log could not be opened
+     */
+    public LocalSongStore(String directory) {
+        this.directory = Paths.get(directory);
+
+        try {
+            Files.createDirectories(this.directory);
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open local song store in " + directory, e);
+        }
+    }
+
+    @Override
+    public void put(SongRecord song) {
+        byte[] payload = encode(song);
+        boolean sealed;
+
+        lock.writeLock().lock();
+        try {
+            int recordSize = RECORD_HEADER_BYTES + payload.length;
+            Segment active = segments.get(segments.size() - 1);
+            sealed = (long) active.writePosition + recordSize > active.buffer.capacity();
+            if (sealed) {
+                active.buffer.force();
+                active = newSegment(active.number + 1, recordSize);
+            }
+
+            //Write the payload and checksum before the length, so a torn write reads as the end of the log
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            int position = active.writePosition;
+            active.buffer.putInt(position + 4, (int) crc.getValue());
+            active.buffer.put(position + RECORD_HEADER_BYTES, payload);
+            active.buffer.putInt(position, payload.length);
+
+            index(song.getId(), new Location(active, position, recordSize));
+            active.writePosition += recordSize;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write song " + song.getId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (sealed) {
+            compact(false);
+        }
+    }
+
+    @Override
+    public List<SongRecord> writeBatch(List<SongRecord> songs) {
+        List<SongRecord> unprocessed = SongStore.super.writeBatch(songs);
+        flush();
+        return unprocessed;
+    }
+
+    @Override
+    public SongRecord get(String id) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(id);
+            return location == null ? null : read(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SongRecord> list(int limit) {
+        lock.readLock().lock();
+        try {
+            List<SongRecord> songs = new ArrayList<>(Math.min(limit, index.size()));
+            for (Location location : index.values()) {
+                if (songs.size() >= limit) {
+                    break;
+                }
+                songs.add(read(location));
+            }
+            return songs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Function to get the number of songs in the store
+     * @return The number of live songs
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Function to force written songs to disk
+     * Sealed segments were forced when they were sealed, so only the segment being written to is
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            segments.get(segments.size() - 1).buffer.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Function to rewrite every sealed segment that holds overwritten songs, keeping only the latest record for each
+     * song. The segment being written to is compacted once it has been sealed.
+     */
+    public void compact() {
+        compact(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            segments.get(segments.size() - 1).buffer.force();
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Function to compact sealed segments, one at a time
+     * Does nothing if another thread is already compacting, that compaction will find the same segments
+     * @param all True to compact every segment with dead records, false for only the segments that are mostly dead
+     */
+    private void compact(boolean all) {
+        if (!compacting.tryLock()) {
+            return;
+        }
+        try {
+            List<Segment> candidates = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (Segment segment : segments.subList(0, segments.size() - 1)) {
+                    long usedBytes = segment.writePosition - FILE_HEADER_BYTES;
+                    boolean mostlyDead = usedBytes >= IKConstants.LOCAL_STORE_COMPACTION_MIN_BYTES
+                            && segment.liveBytes < usedBytes * IKConstants.LOCAL_STORE_COMPACTION_LIVE_RATIO;
+                    if (segment.liveBytes == 0 || mostlyDead || (all && segment.liveBytes < usedBytes)) {
+                        candidates.add(segment);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            for (Segment segment : candidates) {
+                compactSegment(segment);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to compact local song store", e);
+        } finally {
+            compacting.unlock();
+        }
+    }
+
+    /**
+     * Function to rewrite a sealed segment keeping only its live records
+     * The records are copied without holding the lock, sealed segments are never written to. A song overwritten while
+     * the copy is made keeps its newer record, and its copy is left dead in the new segment.
+     */
+    private void compactSegment(Segment segment) throws IOException {
+        List<String> ids = new ArrayList<>();
+        List<Location> live = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                if (entry.getValue().segment == segment) {
+                    ids.add(entry.getKey());
+                    live.add(entry.getValue());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path compactFile = Paths.get(segment.file + COMPACT_SUFFIX);
+        int[] offsets = new int[live.size()];
+        int position = FILE_HEADER_BYTES;
+        if (!live.isEmpty()) {
+            try (FileChannel out = FileChannel.open(compactFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                out.write(header);
+
+                for (int i = 0; i < live.size(); i++) {
+                    Location location = live.get(i);
+                    ByteBuffer record = segment.buffer.duplicate();
+                    record.position(location.offset).limit(location.offset + location.size);
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                    offsets[i] = position;
+                    position += location.size;
+                }
+                out.force(true);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            int slot = segments.indexOf(segment);
+            segment.channel.close();
+            if (live.isEmpty()) {
+                Files.deleteIfExists(segment.file);
+                segments.remove(slot);
+                return;
+            }
+
+            Files.move(compactFile, segment.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Segment compacted = mapSegment(segment.number, segment.file, position, FileChannel.MapMode.READ_ONLY);
+            compacted.writePosition = position;
+            for (int i = 0; i < live.size(); i++) {
+                if (index.get(ids.get(i)) == live.get(i)) {
+                    index.put(ids.get(i), new Location(compacted, offsets[i], live.get(i).size));
+                    compacted.liveBytes += live.get(i).size;
+                }
+            }
+            segments.set(slot, compacted);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Function to map every segment and rebuild the index by scanning every complete record
+     * The newest segment is written to, the rest are mapped read only
+     */
+    private void open() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.forEach(files::add);
+        }
+
+        Map<Integer, Path> numbered = new HashMap<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Matcher matcher = SEGMENT_NAME.matcher(name);
+            if (name.endsWith(COMPACT_SUFFIX)) {
+                Files.delete(file); //Left over from an interrupted compaction, the segment is still intact
+            } else if (matcher.matches()) {
+                numbered.put(Integer.parseInt(matcher.group(1)), file);
+            }
+        }
+
+        Path legacy = directory.resolve(LEGACY_LOG);
+        if (numbered.isEmpty() && Files.exists(legacy)) {
+            Path first = segmentFile(0);
+            Files.move(legacy, first, StandardCopyOption.ATOMIC_MOVE);
+            numbered.put(0, first);
+        }
+
+        List<Integer> numbers = new ArrayList<>(numbered.keySet());
+        numbers.sort(null);
+        for (int i = 0; i < numbers.size(); i++) {
+            Path file = numbered.get(numbers.get(i));
+            boolean last = i == numbers.size() - 1;
+            long size = Files.size(file);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment is larger than can be mapped: " + file);
+            }
+            Segment segment = last
+                    ? mapSegment(numbers.get(i), file, Math.max(IKConstants.LOCAL_STORE_SEGMENT_BYTES, size), FileChannel.MapMode.READ_WRITE)
+                    : mapSegment(numbers.get(i), file, size, FileChannel.MapMode.READ_ONLY);
+            segments.add(segment);
+            scan(segment, last);
+        }
+
+        if (segments.isEmpty()) {
+            newSegment(0, 0);
+        }
+    }
+
+    /**
+     * Function to index every complete record of a segment
+     * @param last True for the segment written to, which may have been started without its header being written
+     */
+    private void scan(Segment segment, boolean last) throws IOException {
+        MappedByteBuffer log = segment.buffer;
+        if (last && log.getInt(0) == 0) {
+            log.putInt(0, MAGIC);
+            log.putInt(4, VERSION);
+        }
+        if (log.capacity() < FILE_HEADER_BYTES || log.getInt(0) != MAGIC || log.getInt(4) < MIN_VERSION || log.getInt(4) > VERSION) {
+            throw new IOException("Not an iKovsky song log: " + segment.file);
+        }
+
+        int position = FILE_HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= log.capacity()) {
+            int length = log.getInt(position);
+            if (length <= 0 || (long) position + RECORD_HEADER_BYTES + length > log.capacity()) {
+                break; //End of segment
+            }
+
+            byte[] payload = new byte[length];
+            log.get(position + RECORD_HEADER_BYTES, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != log.getInt(position + 4)) {
+                break; //Torn write at the end of the segment
+            }
+
+            index(new String(readField(ByteBuffer.wrap(payload)), StandardCharsets.UTF_8),
+                    new Location(segment, position, RECORD_HEADER_BYTES + length));
+            position += RECORD_HEADER_BYTES + length;
+        }
+        segment.writePosition = position;
+    }
+
+    /**
+     * Function to start a new segment and write to it from now on
+     * @param number The segment's number, after every other segment's
+     * @param recordSize The size of the record it is started for, a segment is made larger than usual to hold it
+     */
+    private Segment newSegment(int number, int recordSize) throws IOException {
+        long capacity = Math.max(IKConstants.LOCAL_STORE_SEGMENT_BYTES, (long) FILE_HEADER_BYTES + recordSize);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Song is larger than a segment can hold");
+        }
+        Segment segment = mapSegment(number, segmentFile(number), capacity, FileChannel.MapMode.READ_WRITE);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.writePosition = FILE_HEADER_BYTES;
+        segments.add(segment);
+        return segment;
+    }
+
+    private Segment mapSegment(int number, Path file, long capacity, FileChannel.MapMode mode) throws IOException {
+        FileChannel channel = mode == FileChannel.MapMode.READ_ONLY
+                ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(number, file, channel, channel.map(mode, 0, capacity));
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("songs-%08d.seg", number));
+    }
+
+    private void index(String id, Location location) {
+        Location previous = index.put(id, location);
+        if (previous != null) {
+            previous.segment.liveBytes -= previous.size;
+        }
+        location.segment.liveBytes += location.size;
+    }
+
+    private static SongRecord read(Location location) {
+        MappedByteBuffer log = location.segment.buffer;
+        byte[] payload = new byte[location.size - RECORD_HEADER_BYTES];
+        log.get(location.offset + RECORD_HEADER_BYTES, payload);
+        return decode(payload);
+    }
+
+    private static byte[] encode(SongRecord song) {
+        byte[] id = song.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] name = song.getSongName().getBytes(StandardCharsets.UTF_8);
+        byte[] midi = MidiCodec.encode(song.getMidi());
+
+        ByteBuffer payload = ByteBuffer.allocate(12 + id.length + name.length + midi.length);
+        payload.putInt(id.length).put(id);
+        payload.putInt(name.length).put(name);
+        payload.putInt(midi.length).put(midi);
+        return payload.array();
+    }
+
+    private static SongRecord decode(byte[] bytes) {
+        ByteBuffer payload = ByteBuffer.wrap(bytes);
+        String id = new String(readField(payload), StandardCharsets.UTF_8);
+        String name = new String(readField(payload), StandardCharsets.UTF_8);
+        byte[] midi = MidiCodec.decode(readField(payload));
+        return new SongRecord(id, name, midi);
+    }
+
+    private static byte[] readField(ByteBuffer payload) {
+        byte[] value = new byte[payload.getInt()];
+        payload.get(value);
+        return value;
+    }
+
+    /**
+     * One segment file of the log
+     */
+    private static final class Segment {
+        private final int number;           //Segments are scanned in number order
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;          //End of the last complete record
+        private long liveBytes;             //Bytes used by records still in the index
+
+        private Segment(int number, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Where a song's latest record is
+     */
+    private static final class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int size;             //Record size, header included
+
+        private Location(Segment segment, int offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
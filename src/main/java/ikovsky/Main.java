@@ -45,20 +45,21 @@ public class Main implements JMC {
             System.out.println("Unable to generate music - not enough parameters");
         } else {
             //Debug output
-            System.out.println("===========================================");
-            System.out.println("Song Args: ");
-            for (int i = 0; i < args.length; i++) {
-                System.out.print(args[i] + " ");
-            }
-            System.out.println("");
-            System.out.println("===========================================");
+            IKLogger.debug("===========================================");
+            IKLogger.debug("Song Args: " + String.join(" ", args));
+            IKLogger.debug("===========================================");
 
             ObjectMapper mapper = new ObjectMapper();
             try {
                 String json = mapper.writeValueAsString(song.generateSongResponse());
                 System.out.println(json);
+
+                //Songs are persisted in the background, wait for the write before exiting
+                SongStores.getDefault().flush(10000);
             } catch (JsonProcessingException e) {
 
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
     }
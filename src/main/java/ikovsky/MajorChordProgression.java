@@ -1,59 +1,52 @@
 package ikovsky;
 
+import java.util.SplittableRandom;
+
 /**
  * @author Paul Hudson
  * MajorChordProgression Enum
  * Holds all the different chords, as well as an alternative structure for chords
  * that follow the Major Chord Progression 
+ * The chords' roots and structures are defined in the ChordTable, the constants are in scale order
  */
 public enum MajorChordProgression {
-	//ScaleChords defaults to a Major chord progression (I, ii, iii, IV, V, vi, vii(dim))
-	I	(ChordStructs.MAJOR_TRIAD,	0, ChordStructs.FIFTH),
-	II	(ChordStructs.MINOR_TRIAD,	2, ChordStructs.MINOR_SEVENTH),
-	III	(ChordStructs.MINOR_TRIAD,	4, ChordStructs.MINOR_SEVENTH),
-	IV	(ChordStructs.MAJOR_TRIAD,	5, ChordStructs.MAJOR_SEVENTH),
-	V	(ChordStructs.MAJOR_TRIAD,	7, ChordStructs.MAJOR_SEVENTH),
-	VI	(ChordStructs.MINOR_TRIAD,	9, ChordStructs.MINOR_SEVENTH),
-	VII	(ChordStructs.FIFTH,		11, ChordStructs.DIMINISHED);
-	
-	private ChordStructs struct;
-	private ChordStructs altStruct;
-	
-	private int root;
-	
-	/**
-	 * Constructor for a MajorChordProgression enum
-	 * @param struct The associated ChordStruct enum
-	 * @param root The integer value of the root of the chord within the current key
-	 * @param altStruct The alternative ChordStruct enum
-	 */
-	private MajorChordProgression (ChordStructs struct, int root, ChordStructs altStruct) {
-		this.struct = struct;
-		this.altStruct = altStruct;
-		
-		this.root = root;
-	}
+	//Major chord progression (I, ii, iii, IV, V, vi, vii(dim))
+	I, II, III, IV, V, VI, VII;
 	
 	/**
 	 * Function to get the chord intervals
-	 * @return The integer array of the chord intervals
+	 * @param rand The random stream deciding whether the alternative structure is used
+	 * @return The shared, unmodifiable integer array of the chord intervals
 	 */
-	public int[] getChordStruct() {
-		if (Math.random() < IKConstants.CHORDPICKER_ALT_STRUCT_CHANCE) {
-			return altStruct.getChordIntervals();
-		}
-		return struct.getChordIntervals();
+	public int[] getChordStruct(SplittableRandom rand) {
+		return getChordValue(rand).getChordIntervals();
 	}
 
 	/**
 	 * Function to get the chord structure
+	 * @param rand The random stream deciding whether the alternative structure is used
 	 * @return The corresponding ChordStruct enum
 	 */
-	public ChordStructs getChordValue() {
-		if (Math.random() < IKConstants.CHORDPICKER_ALT_STRUCT_CHANCE) {
-			return altStruct;
-		}
-		return struct;
+	public ChordStructs getChordValue(SplittableRandom rand) {
+		return ChordTable.struct(false, ordinal(), ChordTable.rollAlternative(rand));
+	}
+	
+	/**
+	 * Function to get the notes of the chord in a key, from the ChordTable
+	 * @param alternative True for the alternative structure
+	 * @param key The int value of the key
+	 * @return The shared, unmodifiable array of the chord's notes
+	 */
+	public int[] getVoicing(boolean alternative, int key) {
+		return ChordTable.voicing(false, ordinal(), alternative, key);
+	}
+	
+	public ChordStructs getStruct() {
+		return ChordTable.struct(false, ordinal(), false);
+	}
+	
+	public ChordStructs getAltStruct() {
+		return ChordTable.struct(false, ordinal(), true);
 	}
 	
 	/**
@@ -61,6 +54,6 @@ public enum MajorChordProgression {
 	 * @return The integer value of the root of the chord
 	 */
 	public int getRoot() {
-		return root;
+		return ChordTable.root(false, ordinal());
 	}
 }
@@ -1,30 +1,32 @@
 package ikovsky;
 
-import jm.music.data.CPhrase;
-
 /**
  * @author Paul Hudson
  * The Measure class is a data structure to hold the note/chord sequence
  * and the number of iterations for a single measure
+ * The chords are held by the part's PartEvents, the measure holds the range of events it covers
  */
 public class Measure {
-	CPhrase phrase;	
+	int		firstEvent;	//Index of the measure's first event
+	int		endEvent;	//Index after the measure's last event
 	int		iterations;
-	
+
 	/**
 	 * Constructor for Measure class
-	 * @param newPhrase The musical phrase that will be repeated
+	 * @param first The index of the first event of the phrase that will be repeated
+	 * @param end The index after the last event of the phrase
 	 * @param iter The integer value representing how many iterations of the corresponding phrase
 	 */
-	public Measure(CPhrase newPhrase, int iter) {
-		phrase = newPhrase;		
+	public Measure(int first, int end, int iter) {
+		firstEvent = first;
+		endEvent = end;
 		iterations = iter;
 	}
-	
+
 	/**
 	 * Blank constructor for Measure class
 	 */
 	public Measure() {
-		
+
 	}
 }
@@ -0,0 +1,112 @@
+package ikovsky;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for content-addressed chunk storage of large midi files.
+ * A midi file is split into fixed-size chunks, each stored under the SHA-256 of its bytes, so identical
+ * chunks in different songs are only stored once. The song itself keeps the ordered list of chunk hashes.
+ */
+public final class MidiChunks {
+
+    private MidiChunks() {
+    }
+
+    /**
+     * Function to split data into fixed-size chunks, the last chunk may be shorter
+     * @param data The data to split
+     * @param chunkSize The chunk size in bytes
+     * @return The chunks in order
+     */
+    public static List<byte[]> split(byte[] data, int chunkSize) {
+        List<byte[]> chunks = new ArrayList<>((data.length + chunkSize - 1) / chunkSize);
+        for (int i = 0; i < data.length; i += chunkSize) {
+            chunks.add(Arrays.copyOfRange(data, i, Math.min(data.length, i + chunkSize)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Function to read the next chunk of a stream, so a file can be split without being read into memory
+     * @param in The stream to read from
+     * @param chunkSize The chunk size in bytes
+     * @return The chunk, shorter than chunkSize only at the end of the stream and empty once it has all been read
+     * @throws IOException if the stream could not be read
+     */
+    public static byte[] read(InputStream in, int chunkSize) throws IOException {
+        return in.readNBytes(chunkSize);
+    }
+
+    /**
+     * Function to join chunks back together
+     * @param chunks The chunks in order
+     * @param totalLength The combined length of the chunks
+     * @return The joined data
+     */
+    public static byte[] join(List<byte[]> chunks, int totalLength) {
+        byte[] data = new byte[totalLength];
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, data, position, chunk.length);
+            position += chunk.length;
+        }
+        if (position != totalLength) {
+            throw new IllegalArgumentException("Chunks hold " + position + " bytes, expected " + totalLength);
+        }
+        return data;
+    }
+
+    /**
+     * Function to get the content address of a chunk
+     * @param chunk The chunk bytes
+     * @return The lower case hex SHA-256 of the chunk
+     */
+    public static String hash(byte[] chunk) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(chunk);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Bounded record of chunk hashes known to be stored already, so repeated chunks skip the write
+     */
+    public static class KnownChunks {
+        private final Map<String, Boolean> hashes;
+
+        /**
+         * Constructor for KnownChunks
+         * @param capacity The number of hashes to remember, the oldest is forgotten first
+         */
+        public KnownChunks(int capacity) {
+            hashes = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        public synchronized boolean contains(String hash) {
+            return hashes.containsKey(hash);
+        }
+
+        public synchronized void add(String hash) {
+            hashes.put(hash, Boolean.TRUE);
+        }
+    }
+}
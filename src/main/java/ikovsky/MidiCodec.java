@@ -0,0 +1,178 @@
+package ikovsky;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage format for midi files.
+ * Stored midi starts with a two byte header [MAGIC][codec] followed by the midi length as a varint and the body.
+ * Data without the header is read as a legacy raw midi file ("MThd...") or legacy Base64 string ("TVRo...").
+ *
+ * Codecs:
+ * RAW - the midi file as is
+ * DEFLATE - raw deflate
+ * DEFLATE_DICT_V1 - raw deflate primed with a preset dictionary of common byte sequences in iKovsky midi output
+ */
+public final class MidiCodec {
+    public static final byte CODEC_RAW = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    public static final byte CODEC_DEFLATE_DICT_V1 = 2;
+
+    private static final byte MAGIC = (byte) 0xEC;
+
+    private static final byte[] DICTIONARY_V1 = loadDictionary("/midi-deflate-v1.dict");
+
+    private static final byte DEFAULT_CODEC = (byte) EnvironmentConfig.getInt("IKOVSKY_MIDI_CODEC", CODEC_DEFLATE_DICT_V1);
+
+    //Deflaters hold native memory, so one is kept per thread rather than created per song
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private MidiCodec() {
+    }
+
+    /**
+     * Function to encode a midi file with the configured default codec
+     * @param midi The midi file
+     * @return The stored form of the midi file
+     */
+    public static byte[] encode(byte[] midi) {
+        return encode(midi, DEFAULT_CODEC);
+    }
+
+    /**
+     * Function to encode a midi file
+     * @param midi The midi file
+     * @param codec One of the CODEC_ constants
+     * @return The stored form of the midi file
+     */
+    public static byte[] encode(byte[] midi, byte codec) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(midi.length / 2 + 16);
+        out.write(MAGIC);
+        out.write(codec);
+        writeVarint(out, midi.length);
+
+        switch (codec) {
+            case CODEC_RAW:
+                out.write(midi, 0, midi.length);
+                break;
+            case CODEC_DEFLATE:
+            case CODEC_DEFLATE_DICT_V1:
+                Deflater deflater = DEFLATERS.get();
+                deflater.reset();
+                if (codec == CODEC_DEFLATE_DICT_V1) {
+                    deflater.setDictionary(DICTIONARY_V1);
+                }
+                deflater.setInput(midi);
+                deflater.finish();
+                byte[] buffer = new byte[Math.max(64, midi.length / 2)];
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown midi codec: " + codec);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Function to decode a stored midi file
+     * @param stored The stored form, in any supported codec or a legacy format
+     * @return The midi file
+     * @throws IllegalArgumentException if the data is corrupt or uses an unknown codec
+     */
+    public static byte[] decode(byte[] stored) {
+        if (stored.length < 2 || stored[0] != MAGIC) {
+            return decodeLegacy(stored);
+        }
+
+        int[] position = {2};
+        int length = readVarint(stored, position);
+
+        switch (stored[1]) {
+            case CODEC_RAW:
+                return Arrays.copyOfRange(stored, position[0], position[0] + length);
+            case CODEC_DEFLATE:
+            case CODEC_DEFLATE_DICT_V1:
+                Inflater inflater = INFLATERS.get();
+                inflater.reset();
+                if (stored[1] == CODEC_DEFLATE_DICT_V1) {
+                    inflater.setDictionary(DICTIONARY_V1);
+                }
+                inflater.setInput(stored, position[0], stored.length - position[0]);
+                byte[] midi = new byte[length];
+                try {
+                    int read = 0;
+                    while (read < length) {
+                        int count = inflater.inflate(midi, read, length - read);
+                        if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                            throw new IllegalArgumentException("Truncated midi data");
+                        }
+                        read += count;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IllegalArgumentException("Corrupt midi data", e);
+                }
+                return midi;
+            default:
+                throw new IllegalArgumentException("Unknown midi codec: " + stored[1]);
+        }
+    }
+
+    /**
+     * Function to decode data written before the codec header existed
+     */
+    private static byte[] decodeLegacy(byte[] stored) {
+        if (stored.length >= 4 && stored[0] == 'M' && stored[1] == 'T' && stored[2] == 'h' && stored[3] == 'd') {
+            return stored;
+        }
+        try {
+            return Base64.getDecoder().decode(stored);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unrecognised midi data", e);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= data.length) {
+                break;
+            }
+            byte b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt midi length");
+    }
+
+    private static byte[] loadDictionary(String resource) {
+        try (InputStream in = MidiCodec.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Midi dictionary not found on classpath: " + resource);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read midi dictionary: " + resource, e);
+        }
+    }
+}
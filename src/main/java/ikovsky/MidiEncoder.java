@@ -0,0 +1,813 @@
+package ikovsky;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * Standard MIDI File writer for iKovsky scores.
+ * Walks the Score directly and writes the file into a single exactly sized byte array, rather than building
+ * jMusic event objects and writing them through streams as jm.util.Write does.
+ * A ComposedSong is written straight from its parts' event arrays, as the Score it would build with toScore(),
+ * and can be streamed: the header and tempo track go out before the song is composed, then each track as soon as
+ * its part is finished. A long-form song is streamed a group of sections at a time, see LongFormWriter.
+ *
+ * The timing follows jMusic's MidiParser.scoreToSMF (tempo scaling, tick rounding, event order), so every note
+ * starts and ends on the same tick as before. The file is smaller because:
+ * - channel messages use running status (the status byte is only written when it changes)
+ * - pan changes that would not change the channel's pan are left out
+ * Note offs stay as note ons with velocity 0, which is what lets running status cover whole tracks.
+ *
+ * RenderSettings, when given, are applied as the file is written: every note is transposed, the tempo track
+ * uses the given tempo and every part is given the same program.
+ *
+ * Unlike scoreToSMF this has no static state, so songs can be encoded concurrently,
+ * and the part tracks of large scores are encoded in parallel.
+ */
+public final class MidiEncoder {
+    private static final int PPQN = 480;
+    private static final double TICK = 1.0 / PPQN;
+    private static final double HALF_TICK = TICK / 2;
+
+    private static final int HEADER_BYTES = 14;         //"MThd", length, format, track count, division
+    private static final int TRACK_HEADER_BYTES = 8;    //"MTrk", length
+    private static final int PARALLEL_MIN_NOTES = 4096; //Below this the fork/join overhead outweighs the gain
+
+    //Event kinds, channel messages use their status nibble
+    private static final int NOTE_ON = 0x90;
+    private static final int CONTROL_CHANGE = 0xB0;
+    private static final int PROGRAM_CHANGE = 0xC0;
+    private static final int TIME_SIGNATURE = 0x58;
+    private static final int KEY_SIGNATURE = 0x59;
+
+    private static final int PAN_CONTROLLER = 10;
+    private static final int NO_INSTRUMENT = -1;
+    private static final double NO_TEMPO = -1.0;
+    private static final double NOTE_PAN = 0.5;         //jMusic's default note pan
+    private static final double NOTE_DURATION = 0.9;    //jMusic's default note length, as a fraction of its rhythm value
+
+    private MidiEncoder() {
+    }
+
+    /**
+     * Function to encode a composed song as a format 1 Standard MIDI File
+     * @param song The song to encode
+     * @param render The transposition, tempo and program to write the song with, or null to write it as it is
+     * @return The midi file, the same as encoding song.toScore()
+     */
+    public static byte[] encode(ComposedSong song, RenderSettings render) {
+        double tempo = render != null ? render.getTempo() : song.getTempo();
+
+        int numNotes = 0;
+        List<TrackEvents> tracks = new ArrayList<>(song.getParts().size());
+        for (ComposedPart part : song.getParts()) {
+            TrackEvents track = new TrackEvents(part, tempo, render);
+            numNotes += track.numNotes;
+            tracks.add(track);
+        }
+
+        byte[] tempoTrack = tempoTrack(tempo, song.getNumerator(), song.getDenominator(), song.getKeySignature(),
+                song.getKeyQuality());
+        return write(tracks, tempoTrack, numNotes);
+    }
+
+    /**
+     * Function to encode a score as a format 1 Standard MIDI File
+     * @param score The score to encode
+     * @return The midi file
+     */
+    public static byte[] encode(Score score) {
+        return encode(score, null);
+    }
+
+    /**
+     * Function to encode a score as a format 1 Standard MIDI File, applying render settings
+     * @param score The score to encode
+     * @param render The transposition, tempo and program to write the score with, or null to write it as it is
+     * @return The midi file
+     */
+    public static byte[] encode(Score score, RenderSettings render) {
+        Part[] parts = score.getPartArray();
+        double tempo = render != null ? render.getTempo() : score.getTempo();
+
+        int numNotes = 0;
+        List<TrackEvents> tracks = new ArrayList<>(parts.length);
+        for (Part part : parts) {
+            TrackEvents track = new TrackEvents(part, tempo, render);
+            numNotes += track.numNotes;
+            tracks.add(track);
+        }
+
+        byte[] tempoTrack = tempoTrack(tempo, score.getNumerator(), score.getDenominator(), score.getKeySignature(),
+                score.getKeyQuality());
+        return write(tracks, tempoTrack, numNotes);
+    }
+
+    /**
+     * Function to collect and order each track's events, size the file and write it
+     */
+    private static byte[] write(List<TrackEvents> tracks, byte[] tempoTrack, int numNotes) {
+        if (numNotes >= PARALLEL_MIN_NOTES) {
+            tracks.parallelStream().forEach(TrackEvents::build);
+        } else {
+            tracks.forEach(TrackEvents::build);
+        }
+
+        int length = HEADER_BYTES + TRACK_HEADER_BYTES + tempoTrack.length;
+        for (TrackEvents track : tracks) {
+            track.offset = length;
+            length += TRACK_HEADER_BYTES + track.length;
+        }
+
+        //Write the header and tempo track, then each part track at its offset
+        byte[] midi = new byte[length];
+        writeHeader(midi, tracks.size(), tempoTrack);
+
+        if (numNotes >= PARALLEL_MIN_NOTES) {
+            tracks.parallelStream().forEach(track -> track.write(midi));
+        } else {
+            tracks.forEach(track -> track.write(midi));
+        }
+        return midi;
+    }
+
+    /**
+     * Function to start streaming a song that has not been composed yet
+     * The file header and tempo track are written straight away, every part's track must then be written in order
+     * with TrackStream.writeTrack(). The bytes written are the same as encoding the finished ComposedSong.
+     * @param out The stream to write to
+     * @param numParts The number of tracks that will follow the tempo track
+     * @param render The transposition, tempo and program to write the song with, or null to write it as it is
+     * @return The stream to write the tracks to
+     * @throws IOException if the header could not be written
+     */
+    public static TrackStream stream(OutputStream out, int numParts, RenderSettings render) throws IOException {
+        double tempo = render != null ? render.getTempo() : ComposedSong.SCORE_TEMPO;
+        byte[] tempoTrack = tempoTrack(tempo, ComposedSong.SCORE_NUMERATOR, ComposedSong.SCORE_DENOMINATOR,
+                ComposedSong.SCORE_KEY_SIGNATURE, ComposedSong.SCORE_KEY_QUALITY);
+
+        byte[] header = new byte[HEADER_BYTES + TRACK_HEADER_BYTES + tempoTrack.length];
+        writeHeader(header, numParts, tempoTrack);
+        out.write(header);
+        return new TrackStream(out, numParts, tempo, render);
+    }
+
+    /**
+     * The part tracks of a streamed song, each encoded into its own chunk and written as soon as it is given
+     */
+    public static final class TrackStream {
+        private final OutputStream out;
+        private final double tempo;
+        private final RenderSettings render;
+        private int remaining; //Tracks promised in the header and not yet written
+
+        private TrackStream(OutputStream out, int numParts, double tempo, RenderSettings render) {
+            this.out = out;
+            this.remaining = numParts;
+            this.tempo = tempo;
+            this.render = render;
+        }
+
+        /**
+         * Function to encode and write the next part's track
+         * @param part The finished part
+         * @throws IOException if the track could not be written
+         * @throws IllegalStateException if every track promised in the header has already been written
+         */
+        public void writeTrack(ComposedPart part) throws IOException {
+            if (remaining == 0) {
+                throw new IllegalStateException("Every track of the song has been written");
+            }
+            TrackEvents track = new TrackEvents(part, tempo, render);
+            track.build();
+            byte[] chunk = new byte[TRACK_HEADER_BYTES + track.length];
+            track.offset = 0;
+            track.write(chunk);
+            out.write(chunk);
+            remaining--;
+        }
+
+        /**
+         * Function to check the song has been written completely
+         * @return True once every track promised in the header has been written
+         */
+        public boolean isComplete() {
+            return remaining == 0;
+        }
+    }
+
+    /**
+     * Function to start streaming a long-form song, too long to be held in memory, a group of sections at a time
+     * The file header and tempo track are written straight away. The header promises the most tracks the song can
+     * need, see LongFormWriter, and finish() pads the file out to that many with empty tracks.
+     * @param out The stream to write to
+     * @param numParts The number of parts in the song
+     * @param songBeats The length the song is composed to, which its last section runs on past
+     * @param render The transposition, tempo and program to write the song with, or null to write it as it is
+     * @return The writer to give the sections of each part to
+     * @throws IOException if the header could not be written
+     */
+    public static LongFormWriter longForm(OutputStream out, int numParts, double songBeats, RenderSettings render) throws IOException {
+        double tempo = render != null ? render.getTempo() : ComposedSong.SCORE_TEMPO;
+        byte[] tempoTrack = tempoTrack(tempo, ComposedSong.SCORE_NUMERATOR, ComposedSong.SCORE_DENOMINATOR,
+                ComposedSong.SCORE_KEY_SIGNATURE, ComposedSong.SCORE_KEY_QUALITY);
+
+        int maxGroups = Math.max(1, (int) Math.ceil(songBeats / IKConstants.LONG_FORM_TRACK_BEATS));
+        int numTracks = numParts * maxGroups;
+        if (numTracks + 1 > 0xFFFF) {
+            throw new IllegalArgumentException("Song is longer than a midi file's tracks can hold");
+        }
+
+        byte[] header = new byte[HEADER_BYTES + TRACK_HEADER_BYTES + tempoTrack.length];
+        writeHeader(header, numTracks, tempoTrack);
+        out.write(header);
+        return new LongFormWriter(out, numParts, numTracks, songBeats, tempo, render);
+    }
+
+    /**
+     * The part tracks of a long-form song, written a group of sections at a time
+     * A track chunk has to be in one piece with its length in front, and every part plays through the whole song, so
+     * a part cannot be one track without holding all of it. Instead each part's sections are encoded into memory
+     * until they cover LONG_FORM_TRACK_BEATS, and each part's group is then written as a track of its own, its first
+     * event timed from the start of the song. The tracks all play at once, so the song sounds the same as one track
+     * per part, and only one group of sections is in memory at a time.
+     * Every group but the last covers at least LONG_FORM_TRACK_BEATS and ends before the song's length, so the song
+     * needs at most ceil(songBeats / LONG_FORM_TRACK_BEATS) groups of tracks, which is what the header promises.
+     */
+    public static final class LongFormWriter {
+        private final OutputStream out;
+        private final double songBeats;
+        private final double tempo;
+        private final RenderSettings render;
+        private final ByteArrayOutputStream[] groups;  //Each part's encoded sections since the last group was written
+        private final TrackState[] states;
+        private final double[] partEnds;               //End of each part so far, in beats
+        private final boolean[] started;
+        private double groupStart;                     //Where the group being encoded starts, in beats
+        private int remaining;                         //Tracks promised in the header and not yet written
+
+        private LongFormWriter(OutputStream out, int numParts, int numTracks, double songBeats, double tempo, RenderSettings render) {
+            this.out = out;
+            this.songBeats = songBeats;
+            this.tempo = tempo;
+            this.render = render;
+            this.groups = new ByteArrayOutputStream[numParts];
+            this.states = new TrackState[numParts];
+            this.partEnds = new double[numParts];
+            this.started = new boolean[numParts];
+            this.remaining = numTracks;
+            for (int i = 0; i < numParts; i++) {
+                groups[i] = new ByteArrayOutputStream();
+                states[i] = new TrackState();
+            }
+        }
+
+        /**
+         * Function to encode the next section of a part, carrying on from where the part's last section ended
+         * @param part The index of the part
+         * @param section The part's events with the measures of the section placed, from the start
+         */
+        public void writeSection(int part, ComposedPart section) {
+            TrackEvents track = new TrackEvents(section, partEnds[part], !started[part], tempo, render);
+            track.gather();
+            byte[] body = new byte[track.encodeEvents(null, 0, states[part].copy())];
+            track.encodeEvents(body, 0, states[part]);
+            groups[part].write(body, 0, body.length);
+
+            partEnds[part] = track.layout.end;
+            started[part] = true;
+        }
+
+        /**
+         * Function to end a section once every part's section has been given
+         * The group is written out once it covers LONG_FORM_TRACK_BEATS, or the song has reached its length
+         * @throws IOException if the tracks could not be written
+         */
+        public void endSection() throws IOException {
+            double end = getEnd();
+            if (end - groupStart >= IKConstants.LONG_FORM_TRACK_BEATS || end >= songBeats) {
+                writeGroup();
+                groupStart = end;
+            }
+        }
+
+        /**
+         * Function to get the length of the song so far
+         * @return The end of the longest part, in beats
+         */
+        public double getEnd() {
+            double end = 0.0;
+            for (double partEnd : partEnds) {
+                end = Math.max(end, partEnd);
+            }
+            return end;
+        }
+
+        /**
+         * Function to write the last group and the empty tracks that complete the file
+         * @throws IOException if the file could not be written
+         */
+        public void finish() throws IOException {
+            if (groups[0].size() > 0) {
+                writeGroup();
+            }
+            byte[] empty = new byte[TRACK_HEADER_BYTES + 4];
+            endOfTrack(empty, writeTrackHeader(empty, 0, 4));
+            for (; remaining > 0; remaining--) {
+                out.write(empty);
+            }
+            out.flush();
+        }
+
+        /**
+         * Function to write each part's encoded sections as a track, and start the next group
+         */
+        private void writeGroup() throws IOException {
+            if (remaining < groups.length) {
+                throw new IllegalStateException("Song has more tracks than its header promised");
+            }
+            for (int part = 0; part < groups.length; part++) {
+                byte[] header = new byte[TRACK_HEADER_BYTES];
+                writeTrackHeader(header, 0, groups[part].size() + 4);
+                out.write(header);
+                groups[part].writeTo(out);
+                byte[] endOfTrack = new byte[4];
+                endOfTrack(endOfTrack, 0);
+                out.write(endOfTrack);
+
+                //The next track starts at the start of the song
+                groups[part].reset();
+                states[part] = new TrackState();
+                remaining--;
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Function to write the file header and the tempo track to the start of an array
+     */
+    private static int writeHeader(byte[] midi, int numParts, byte[] tempoTrack) {
+        int position = writeInt(midi, 0, 0x4D546864); //"MThd"
+        position = writeInt(midi, position, 6);
+        position = writeShort(midi, position, 1);
+        position = writeShort(midi, position, numParts + 1);
+        position = writeShort(midi, position, PPQN);
+        position = writeTrackHeader(midi, position, tempoTrack.length);
+        System.arraycopy(tempoTrack, 0, midi, position, tempoTrack.length);
+        return position + tempoTrack.length;
+    }
+
+    /**
+     * Function to write the first track, holding the score's tempo, time signature and key signature
+     */
+    private static byte[] tempoTrack(double tempo, int numerator, int denominator, int keySignature, int keyQuality) {
+        int microsPerBeat = (int) (60.0f / (float) tempo * 1000000.0f);
+        return new byte[] {
+                0, (byte) 0xFF, 0x51, 3, (byte) (microsPerBeat >> 16), (byte) (microsPerBeat >> 8), (byte) microsPerBeat,
+                0, (byte) 0xFF, TIME_SIGNATURE, 4, (byte) numerator, (byte) log2(denominator), 24, 8,
+                0, (byte) 0xFF, KEY_SIGNATURE, 2, (byte) keySignature, (byte) keyQuality,
+                0, (byte) 0xFF, 0x2F, 0
+        };
+    }
+
+    /**
+     * The events of one part, gathered in jMusic's order and then stable sorted by time
+     */
+    private static class TrackEvents {
+        private final Part part;                    //The part of a Score, or null
+        private final ComposedPart composed;        //The part of a ComposedSong, or null
+        private final ComposedPart.Phrases layout;  //The phrases of the composed part
+        private final double scoreTempo;
+        private final RenderSettings render;
+        private final int channel;
+        private final int numNotes;
+        private final boolean first;                //Whether the events start the track
+
+        private double[] times;
+        private int[] events;   //[kind][data 1][data 2] packed from the high byte down
+        private int numEvents;
+
+        private int[] order;    //Event indexes in time order
+        private int length;     //Encoded size of the track body
+        private int offset;     //Position of the track in the file
+
+        private double tickRemainder;
+
+        private TrackEvents(Part part, double scoreTempo, RenderSettings render) {
+            this.part = part;
+            this.composed = null;
+            this.layout = null;
+            this.first = true;
+            this.scoreTempo = scoreTempo;
+            this.render = render;
+            this.channel = part.getChannel() & 0x0F;
+
+            int notes = 0;
+            for (Phrase phrase : part.getPhraseArray()) {
+                notes += phrase.size();
+            }
+            this.numNotes = notes;
+        }
+
+        private TrackEvents(ComposedPart composed, double scoreTempo, RenderSettings render) {
+            this(composed, 0.0, true, scoreTempo, render);
+        }
+
+        /**
+         * Constructor for the events of a composed part placed after earlier music, e.g. a section of a long-form song
+         * @param partStart The end of the part's earlier music, in beats
+         * @param first True if this is the start of the track, which is given the program change
+         */
+        private TrackEvents(ComposedPart composed, double partStart, boolean first, double scoreTempo, RenderSettings render) {
+            this.part = null;
+            this.composed = composed;
+            this.layout = composed.phrases(partStart);
+            this.first = first;
+            this.scoreTempo = scoreTempo;
+            this.render = render;
+            this.channel = 0; //A new Part's channel
+
+            int notes = 0;
+            for (int i = 0; i < layout.size; i++) {
+                notes += layout.endEvents[i] - layout.firstEvents[i];
+            }
+            this.numNotes = notes;
+        }
+
+        /**
+         * Function to gather, sort and size the track's events
+         */
+        private void build() {
+            gather();
+            length = encode(null, 0);
+        }
+
+        /**
+         * Function to gather the track's events and sort them by time
+         */
+        private void gather() {
+            if (composed != null) {
+                gatherComposed();
+            } else {
+                gatherScore();
+            }
+            order = sortByTime();
+        }
+
+        /**
+         * Function to gather the events of a Score's part, as scoreToSMF does
+         */
+        private void gatherScore() {
+            Phrase[] phrases = sortedPhrases();
+            int capacity = 3;
+            for (Phrase phrase : phrases) {
+                capacity += 1 + 3 * phrase.size();
+            }
+            times = new double[capacity];
+            events = new int[capacity];
+
+            double partRatio = part.getTempo() != NO_TEMPO ? scoreTempo / part.getTempo() : 1.0;
+
+            if (render != null) {
+                add(0.0, PROGRAM_CHANGE, render.getInstrument(), 0);
+            } else if (part.getInstrument() != NO_INSTRUMENT) {
+                add(0.0, PROGRAM_CHANGE, part.getInstrument(), 0);
+            }
+            if (part.getNumerator() != Integer.MIN_VALUE) {
+                add(0.0, TIME_SIGNATURE, part.getNumerator(), part.getDenominator());
+            }
+            if (part.getKeySignature() != Integer.MIN_VALUE) {
+                add(0.0, KEY_SIGNATURE, part.getKeySignature(), part.getKeyQuality());
+            }
+
+            for (Phrase phrase : phrases) {
+                double time = phrase.getStartTime() * partRatio;
+                if (render == null && phrase.getInstrument() != NO_INSTRUMENT) {
+                    add(0.0, PROGRAM_CHANGE, phrase.getInstrument(), 0);
+                }
+                double ratio = phrase.getTempo() != NO_TEMPO ? scoreTempo / phrase.getTempo() : partRatio;
+                double pan = -1.0;
+                tickRemainder = 0.0;
+
+                for (Note note : phrase.getNoteArray()) {
+                    double offset = note.getOffset();
+                    if (note.getPan() != pan) {
+                        pan = note.getPan();
+                        add(time + offset, CONTROL_CHANGE, PAN_CONTROLLER, (int) (pan * 127.0));
+                    }
+
+                    int pitch = note.getPitchType() == Note.FREQUENCY ? Note.freqToMidiPitch(note.getFrequency()) : note.getPitch();
+                    if (pitch != Note.REST) {
+                        if (render != null) {
+                            pitch = render.transpose(pitch);
+                        }
+                        add(time + offset, NOTE_ON, pitch, note.getDynamic());
+                        add((time + note.getDuration() * ratio) + offset, NOTE_ON, pitch, 0);
+                    }
+                    time += roundToTick(note.getRhythmValue() * ratio);
+                }
+            }
+        }
+
+        /**
+         * Function to gather the events of a composed part, as gatherScore() would for the Part it builds
+         * Every note is a new jMusic Note: centre panned, no offset, and sounding for 90% of its rhythm value.
+         * The phrases have no instrument or tempo of their own.
+         */
+        private void gatherComposed() {
+            PartEvents notes = composed.getEvents();
+            int[] phrases = sortedPhrases(layout);
+            times = new double[3 + layout.size + 3 * numNotes];
+            events = new int[times.length];
+
+            double ratio = composed.getTempo() != NO_TEMPO ? scoreTempo / composed.getTempo() : 1.0;
+
+            //The program is set once, at the start of the track
+            if (first && render != null) {
+                add(0.0, PROGRAM_CHANGE, render.getInstrument(), 0);
+            } else if (first && composed.getInstrument() != NO_INSTRUMENT) {
+                add(0.0, PROGRAM_CHANGE, composed.getInstrument(), 0);
+            }
+
+            for (int phrase : phrases) {
+                double time = layout.starts[phrase] * ratio;
+                int voice = layout.voices[phrase];
+                tickRemainder = 0.0;
+
+                //A voice's first event always has a note in the voice, which sets the pan
+                add(time, CONTROL_CHANGE, PAN_CONTROLLER, (int) (NOTE_PAN * 127.0));
+                for (int e = layout.firstEvents[phrase]; e < layout.endEvents[phrase]; e++) {
+                    double rhythm = notes.getRhythm(e);
+                    if (notes.getChordSize(e) > voice) {
+                        int pitch = notes.getPitch(e, voice);
+                        if (render != null) {
+                            pitch = render.transpose(pitch);
+                        }
+                        add(time, NOTE_ON, pitch, notes.getVelocity(e));
+                        add(time + rhythm * NOTE_DURATION * ratio, NOTE_ON, pitch, 0);
+                    }
+                    time += roundToTick(rhythm * ratio);
+                }
+            }
+        }
+
+        /**
+         * Function to write the track into the file at its offset
+         */
+        private void write(byte[] midi) {
+            int position = writeTrackHeader(midi, offset, length);
+            encode(midi, position);
+        }
+
+        /**
+         * Function to encode the track body
+         * @param out The array to write to, or null to only measure the track
+         * @param start The position to write from
+         * @return The number of bytes in the track body
+         */
+        private int encode(byte[] out, int start) {
+            int position = start + encodeEvents(out, start, new TrackState());
+            return endOfTrack(out, position) - start;
+        }
+
+        /**
+         * Function to encode the track's events, without the end of track
+         * @param out The array to write to, or null to only measure the events
+         * @param start The position to write from
+         * @param state Where the encoding of the track has got to, updated to after the events
+         * @return The number of bytes written
+         */
+        private int encodeEvents(byte[] out, int start, TrackState state) {
+            int position = start;
+            int runningStatus = state.runningStatus;
+            int channelPan = state.channelPan;
+            int skippedTicks = state.skippedTicks;
+            double previousTime = state.previousTime;
+
+            for (int i = 0; i < numEvents; i++) {
+                int event = events[order[i]];
+                int kind = event >>> 24;
+                int data1 = (event >>> 16) & 0xFF;
+                int data2 = (event >>> 8) & 0xFF;
+
+                double time = times[order[i]];
+                int delta = skippedTicks + (int) ((time - previousTime) * PPQN + 0.5);
+                previousTime = time;
+                skippedTicks = 0;
+
+                if (kind == CONTROL_CHANGE && data1 == PAN_CONTROLLER) {
+                    if (data2 == channelPan) {
+                        skippedTicks = delta; //Channel is already panned here
+                        continue;
+                    }
+                    channelPan = data2;
+                }
+
+                position = writeVarLength(out, position, delta);
+                if (kind == TIME_SIGNATURE || kind == KEY_SIGNATURE) {
+                    //Meta events cancel running status
+                    runningStatus = -1;
+                    position = put(out, position, 0xFF);
+                    position = put(out, position, kind);
+                    if (kind == TIME_SIGNATURE) {
+                        position = put(out, position, 4);
+                        position = put(out, position, data1);
+                        position = put(out, position, log2(data2));
+                        position = put(out, position, 24);
+                        position = put(out, position, 8);
+                    } else {
+                        position = put(out, position, 2);
+                        position = put(out, position, data1);
+                        position = put(out, position, data2);
+                    }
+                } else {
+                    int status = kind | channel;
+                    if (status != runningStatus) {
+                        position = put(out, position, status);
+                        runningStatus = status;
+                    }
+                    position = put(out, position, data1 & 0x7F);
+                    if (kind != PROGRAM_CHANGE) {
+                        position = put(out, position, data2 & 0x7F);
+                    }
+                }
+            }
+
+            state.runningStatus = runningStatus;
+            state.channelPan = channelPan;
+            state.skippedTicks = skippedTicks;
+            state.previousTime = previousTime;
+            return position - start;
+        }
+
+        private void add(double time, int kind, int data1, int data2) {
+            times[numEvents] = time;
+            events[numEvents] = kind << 24 | (data1 & 0xFF) << 16 | (data2 & 0xFF) << 8;
+            numEvents++;
+        }
+
+        /**
+         * Function to round a duration to whole ticks, carrying the rounding error over to later notes
+         * Matches jMusic's tick rounding, but with the remainder held per track instead of in a static
+         */
+        private double roundToTick(double beats) {
+            double rounded = (int) (beats * PPQN) * TICK;
+            tickRemainder += beats - rounded;
+            if (tickRemainder > HALF_TICK) {
+                rounded += TICK;
+                tickRemainder -= TICK;
+            }
+            return rounded;
+        }
+
+        /**
+         * Function to order the phrases the way scoreToSMF does (its swap pass, not a full sort)
+         * The order decides which of two events at the same time is written first
+         */
+        private Phrase[] sortedPhrases() {
+            Phrase[] phrases = part.getPhraseArray();
+            for (int i = 0; i < phrases.length; i++) {
+                Phrase current = phrases[i];
+                for (int j = 0; j < phrases.length; j++) {
+                    if (phrases[j].getStartTime() > current.getStartTime()) {
+                        phrases[i] = phrases[j];
+                        phrases[j] = current;
+                        break;
+                    }
+                }
+            }
+            return phrases;
+        }
+
+        /**
+         * Function to order a composed part's phrases by the same swap pass
+         */
+        private static int[] sortedPhrases(ComposedPart.Phrases layout) {
+            int[] phrases = new int[layout.size];
+            for (int i = 0; i < phrases.length; i++) {
+                phrases[i] = i;
+            }
+            for (int i = 0; i < phrases.length; i++) {
+                int current = phrases[i];
+                for (int j = 0; j < phrases.length; j++) {
+                    if (layout.starts[phrases[j]] > layout.starts[current]) {
+                        phrases[i] = phrases[j];
+                        phrases[j] = current;
+                        break;
+                    }
+                }
+            }
+            return phrases;
+        }
+
+        /**
+         * Function to stable sort the event indexes by time (bottom up merge sort)
+         */
+        private int[] sortByTime() {
+            int[] sorted = new int[numEvents];
+            for (int i = 0; i < numEvents; i++) {
+                sorted[i] = i;
+            }
+            int[] buffer = new int[numEvents];
+            for (int width = 1; width < numEvents; width *= 2) {
+                for (int low = 0; low < numEvents; low += 2 * width) {
+                    int middle = Math.min(low + width, numEvents);
+                    int high = Math.min(low + 2 * width, numEvents);
+                    int left = low;
+                    int right = middle;
+                    for (int k = low; k < high; k++) {
+                        if (left < middle && (right >= high || times[sorted[left]] <= times[sorted[right]])) {
+                            buffer[k] = sorted[left++];
+                        } else {
+                            buffer[k] = sorted[right++];
+                        }
+                    }
+                }
+                int[] swap = sorted;
+                sorted = buffer;
+                buffer = swap;
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Where the encoding of a track has got to, so a track can be encoded a section at a time
+     */
+    private static final class TrackState {
+        private int runningStatus = -1;
+        private int channelPan = -1;
+        private int skippedTicks;       //Delta of left out events, added to the next event so later ticks do not move
+        private double previousTime;
+
+        private TrackState copy() {
+            TrackState copy = new TrackState();
+            copy.runningStatus = runningStatus;
+            copy.channelPan = channelPan;
+            copy.skippedTicks = skippedTicks;
+            copy.previousTime = previousTime;
+            return copy;
+        }
+    }
+
+    private static int endOfTrack(byte[] out, int position) {
+        position = put(out, position, 0);
+        position = put(out, position, 0xFF);
+        position = put(out, position, 0x2F);
+        return put(out, position, 0);
+    }
+
+    private static int log2(int value) {
+        int power = 0;
+        while (value != 0 && value % 2 == 0) {
+            value /= 2;
+            power++;
+        }
+        return power;
+    }
+
+    private static int writeTrackHeader(byte[] out, int position, int length) {
+        position = writeInt(out, position, 0x4D54726B); //"MTrk"
+        return writeInt(out, position, length);
+    }
+
+    private static int writeInt(byte[] out, int position, int value) {
+        out[position] = (byte) (value >>> 24);
+        out[position + 1] = (byte) (value >>> 16);
+        out[position + 2] = (byte) (value >>> 8);
+        out[position + 3] = (byte) value;
+        return position + 4;
+    }
+
+    private static int writeShort(byte[] out, int position, int value) {
+        out[position] = (byte) (value >>> 8);
+        out[position + 1] = (byte) value;
+        return position + 2;
+    }
+
+    private static int writeVarLength(byte[] out, int position, int value) {
+        int shift = 21;
+        while (shift > 0 && (value >>> shift) == 0) {
+            shift -= 7;
+        }
+        for (; shift > 0; shift -= 7) {
+            position = put(out, position, ((value >>> shift) & 0x7F) | 0x80);
+        }
+        return put(out, position, value & 0x7F);
+    }
+
+    private static int put(byte[] out, int position, int value) {
+        if (out != null) {
+            out[position] = (byte) value;
+        }
+        return position + 1;
+    }
+}
@@ -1,66 +1,59 @@
 package ikovsky;
 
+import java.util.SplittableRandom;
+
 /**
  * @author Paul Hudson
  * MinorChordProgression Enum
  * Holds all the different chords, as well as an alternative structure for chords
  * that follow the Minor Chord Progression 
+ * The chords' roots and structures are defined in the ChordTable, the constants are in scale order
  */
 public enum MinorChordProgression {
-	//ScaleChords defaults to a Major chord progression
-	I	(ChordStructs.MINOR_TRIAD, 	0, ChordStructs.FIFTH),
-	II	(ChordStructs.FIFTH,		2, ChordStructs.DIMINISHED),
-	III	(ChordStructs.MAJOR_TRIAD,	3, ChordStructs.MAJOR_SEVENTH),
-	IV	(ChordStructs.MINOR_TRIAD,	5, ChordStructs.MINOR_SEVENTH),
-	V	(ChordStructs.MINOR_TRIAD,	7, ChordStructs.MINOR_SEVENTH),
-	VI	(ChordStructs.MAJOR_TRIAD,	8, ChordStructs.MAJOR_SEVENTH),
-	VII	(ChordStructs.MAJOR_TRIAD,	10, ChordStructs.MAJOR_SEVENTH);
-	
-	private ChordStructs struct;
-	private ChordStructs altStruct;
-	
-	private int root;
+	//Minor chord progression (i, ii(dim), III, iv, v, VI, VII)
+	I, II, III, IV, V, VI, VII;
 	
 	/**
-	 * Constructor for a MinorChordProgression enum
-	 * @param struct, The associated ChordStruct enum
-	 * @param root, The integer value of the root of the chord within the current key
-	 * @param altStruct, The alternative ChordStruct enum
+	 * Function to get the chord intervals
+	 * @param rand The random stream deciding whether the alternative structure is used
+	 * @return The shared, unmodifiable integer array of the chord intervals
 	 */
-	private MinorChordProgression (ChordStructs struct, int root, ChordStructs altStruct) {
-		this.struct = struct;
-		this.altStruct = altStruct;
-
-		this.root = root;
+	public int[] getChordStruct(SplittableRandom rand) {
+		return getChordValue(rand).getChordIntervals();
 	}
 
 	/**
-	 * Function to get the chord intervals
-	 * @return the integer array of the chord intervals
+	 * Function to get the chord structure
+	 * @param rand The random stream deciding whether the alternative structure is used
+	 * @return The corresponding ChordStruct enum
 	 */
-	public int[] getChordStruct() {
-		if (Math.random() < IKConstants.CHORDPICKER_ALT_STRUCT_CHANCE) {
-			return altStruct.getChordIntervals();
-		}
-		return struct.getChordIntervals();
+	public ChordStructs getChordValue(SplittableRandom rand) {
+		return ChordTable.struct(true, ordinal(), ChordTable.rollAlternative(rand));
 	}
 	
 	/**
-	 * Function to get the chord structure
-	 * @return the corresponding ChordStruct enum
+	 * Function to get the notes of the chord in a key, from the ChordTable
+	 * @param alternative True for the alternative structure
+	 * @param key The int value of the key
+	 * @return The shared, unmodifiable array of the chord's notes
 	 */
-	public ChordStructs getChordValue() {
-		if (Math.random() < IKConstants.CHORDPICKER_ALT_STRUCT_CHANCE) {
-			return altStruct;
-		}
-		return struct;
+	public int[] getVoicing(boolean alternative, int key) {
+		return ChordTable.voicing(true, ordinal(), alternative, key);
+	}
+	
+	public ChordStructs getStruct() {
+		return ChordTable.struct(true, ordinal(), false);
+	}
+	
+	public ChordStructs getAltStruct() {
+		return ChordTable.struct(true, ordinal(), true);
 	}
 	
 	/**
 	 * Function to get the root note of the chord
-	 * @return the integer value of the root of the chord
+	 * @return The integer value of the root of the chord
 	 */
 	public int getRoot() {
-		return root;
+		return ChordTable.root(true, ordinal());
 	}
-}
\ No newline at end of file
+}
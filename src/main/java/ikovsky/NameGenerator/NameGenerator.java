@@ -1,73 +1,94 @@
 package ikovsky.NameGenerator;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.stream.Stream;
+import java.util.random.RandomGenerator;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class NameGenerator {
 
-    private static final int ADJECTIVES_LENGTH = 28479;
-    private static final int ADVERBS_LENGTH = 6276;
-    private static final int NOUN_LENGTH = 90921;
+    //Maximum title length that can be safely displayed on the interface
+    public static final int MAX_TITLE_LENGTH = 30;
 
-    private int randomBetween(int min, int max) {
-        return min + (int) (Math.random() * ((max - min) + 1));
-    }
+    //Number of redraws allowed when the recent title filter reports a duplicate
+    private static final int MAX_DUPLICATE_REDRAWS = 8;
 
-    private String randomNoun() {
-        int n = randomBetween(0, NOUN_LENGTH);
-        return fetchLineFromFile(n, "src/main/resources/nouns.txt");
-    }
+    //The title shapes, each equally likely before the length budget is applied
+    private static final TitleTemplate[] TEMPLATES = {
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.ADJECTIVES, WordDictionary.ADJECTIVES, WordDictionary.NOUNS),
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.ADJECTIVES, WordDictionary.ADVERBS, WordDictionary.NOUNS),
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.ADVERBS, WordDictionary.ADJECTIVES, WordDictionary.NOUNS),
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.ADJECTIVES, WordDictionary.NOUNS),
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.ADVERBS, WordDictionary.NOUNS),
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.ADVERBS),
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.ADJECTIVES),
+            new TitleTemplate(MAX_TITLE_LENGTH, WordDictionary.NOUNS),
+    };
+
+    //Cumulative template probabilities, weighted by how often each shape used to survive the length check
+    private static final double[] TEMPLATE_ROULETTE = buildTemplateRoulette();
+
+    private final RecentTitleFilter recentTitles;
 
-    private String randomAdverb() {
-        int n = randomBetween(0, ADVERBS_LENGTH);
-        return fetchLineFromFile(n, "src/main/resources/adverbs.txt");
+    /**
+     * Constructor for a NameGenerator without duplicate filtering
+     */
+    public NameGenerator() {
+        this(null);
     }
 
-    private String randomAdjective() {
-        int n = randomBetween(0, ADJECTIVES_LENGTH);
-        return fetchLineFromFile(n, "src/main/resources/adjectives.txt");
+    /**
+     * Constructor for a NameGenerator
+     * @param recentTitles Shared filter of recently issued titles, or null to allow duplicates
+     */
+    public NameGenerator(RecentTitleFilter recentTitles) {
+        this.recentTitles = recentTitles;
     }
 
-    private String fetchLineFromFile(int n, String filename) {
-        try (Stream<String> lines = Files.lines(Paths.get(filename))) {
-            return lines.skip(n).findFirst().get();
-        } catch (IOException e) {
-            System.out.println(e);
-            return "";
+    private static double[] buildTemplateRoulette() {
+        double[] roulette = new double[TEMPLATES.length];
+        double total = 0;
+        for (int i = 0; i < TEMPLATES.length; i++) {
+            total += TEMPLATES[i].fittingFraction();
+            roulette[i] = total;
         }
+        for (int i = 0; i < roulette.length; i++) {
+            roulette[i] /= total;
+        }
+        return roulette;
     }
 
-    private String generateFullName() {
-        var songStructure = randomBetween(1, 8);
-        if (songStructure == 1) {
-            return randomAdjective() + " " + randomAdjective() + " " + randomNoun();
-        } else if (songStructure == 2) {
-            return randomAdjective() + " " + randomAdverb() + " " + randomNoun();
-        } else if (songStructure == 3) {
-            return randomAdverb() + " " + randomAdjective() + " " + randomNoun();
-        } else if (songStructure == 4) {
-            return randomAdjective() + " " + randomNoun();
-        } else if (songStructure == 5) {
-            return randomAdverb() + " " + randomNoun();
-        } else if (songStructure == 6) {
-            return randomAdverb();
-        } else if (songStructure == 7) {
-            return randomAdjective();
-        } else {
-            return randomNoun();
+    private String generateFullName(RandomGenerator rand) {
+        double p = rand.nextDouble();
+        for (int i = 0; i < TEMPLATE_ROULETTE.length - 1; i++) {
+            if (p < TEMPLATE_ROULETTE[i]) {
+                return TEMPLATES[i].draw(rand);
+            }
         }
+        return TEMPLATES[TEMPLATES.length - 1].draw(rand);
     }
 
+    /**
+     * Function to generate a song title of at most MAX_TITLE_LENGTH characters
+     * Every draw fits the length budget, so only duplicates of recently issued titles are redrawn
+     * @return The new song title
+     */
     public String generateName() {
-        while (true) {
-            String songTitle = generateFullName();
+        return generateName(ThreadLocalRandom.current());
+    }
+
+    /**
+     * Function to generate a song title from the given random stream
+     * The same stream gives the same title, unless it was issued recently and had to be redrawn
+     * @param rand The random number generator
+     * @return The new song title
+     */
+    public String generateName(RandomGenerator rand) {
+        String songTitle = generateFullName(rand);
 
-            //Check that the length of the name can be safely displayed on the interface.
-            if (songTitle.length() <= 30) {
-                return songTitle;
-		    }
+        if (recentTitles != null) {
+            for (int i = 0; i < MAX_DUPLICATE_REDRAWS && !recentTitles.tryIssue(songTitle); i++) {
+                songTitle = generateFullName(rand);
+            }
         }
+        return songTitle;
     }
 }
@@ -0,0 +1,89 @@
+package ikovsky.NameGenerator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A compact filter of recently issued song titles.
+ * Titles are kept in two generations of Bloom filter. When the current generation has seen
+ * its share of titles it becomes the previous generation and a fresh one is started, so the
+ * memory stays fixed and the filter always remembers at least the last (capacity / 2) titles.
+ * Like any Bloom filter it may report a title as recent when it is not, but never the reverse.
+ */
+public class RecentTitleFilter {
+    private static final int NUM_HASHES = 4;
+    private static final int BITS_PER_TITLE = 10; //~1% false positive rate with 4 hashes
+
+    private long[] current;
+    private long[] previous;
+    private final int numBits;
+    private final int generationSize;
+    private int currentCount;
+
+    /**
+     * Constructor for a RecentTitleFilter
+     * @param capacity The number of recent titles to remember
+     */
+    public RecentTitleFilter(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Recent title capacity must be at least 2, input = " + capacity);
+        }
+        generationSize = capacity / 2;
+        numBits = Math.max(64, generationSize * BITS_PER_TITLE);
+        current = new long[(numBits + 63) / 64];
+        previous = new long[current.length];
+    }
+
+    /**
+     * Function to check a title against the filter and remember it if it is new
+     * @param title The candidate title
+     * @return True if the title was not recently issued and has now been recorded
+     */
+    public synchronized boolean tryIssue(String title) {
+        long hash = hash(title);
+        if (contains(current, hash) || contains(previous, hash)) {
+            return false;
+        }
+
+        if (currentCount >= generationSize) {
+            long[] cleared = previous;
+            Arrays.fill(cleared, 0L);
+            previous = current;
+            current = cleared;
+            currentCount = 0;
+        }
+
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            current[bit >>> 6] |= 1L << bit;
+        }
+        currentCount++;
+        return true;
+    }
+
+    private boolean contains(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the title bytes
+     */
+    private static long hash(String title) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : title.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,116 @@
+package ikovsky.NameGenerator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A title shape such as "adjective noun", with precomputed counts of every word combination
+ * that fits a character budget. A uniformly random fitting title is drawn with a single random
+ * number, so callers never need to generate and reject titles that are too long.
+ */
+final class TitleTemplate {
+    private final WordDictionary[] words;   //The dictionary for each word position in the title
+
+    //fits[i][b] = number of ways to fill word positions i..end within b characters, including separating spaces
+    private final long[][] fits;
+
+    private final long totalCombinations;  //Number of combinations ignoring the length budget
+
+    private final int maxLength;
+
+    /**
+     * Constructor for a TitleTemplate
+     * @param maxLength The maximum number of characters in a title
+     * @param words The dictionaries for each word in the title, in order
+     */
+    TitleTemplate(int maxLength, WordDictionary... words) {
+        this.words = words;
+        this.maxLength = maxLength;
+
+        fits = new long[words.length + 1][maxLength + 1];
+
+        //An empty remainder fits any budget, the separator before it is charged by the previous word
+        for (int b = 0; b <= maxLength; b++) {
+            fits[words.length][b] = 1;
+        }
+
+        for (int i = words.length - 1; i >= 0; i--) {
+            int separator = i == words.length - 1 ? 0 : 1;
+            for (int b = 0; b <= maxLength; b++) {
+                long count = 0;
+                for (int l = 1; l + separator <= b; l++) {
+                    count += words[i].countOfLength(l) * fits[i + 1][b - l - separator];
+                }
+                fits[i][b] = count;
+            }
+        }
+
+        long total = 1;
+        for (WordDictionary dictionary : words) {
+            total *= dictionary.size();
+        }
+        totalCombinations = total;
+    }
+
+    /**
+     * Function to get the number of titles that fit the length budget
+     * @return The number of fitting word combinations
+     */
+    long fittingCombinations() {
+        return fits[0][maxLength];
+    }
+
+    /**
+     * Function to get the fraction of all word combinations that fit the length budget
+     * @return The fitting fraction between 0 and 1
+     */
+    double fittingFraction() {
+        return (double) fittingCombinations() / totalCombinations;
+    }
+
+    /**
+     * Function to draw a title uniformly from all combinations that fit the length budget
+     * @param rand The random number generator
+     * @return The new title
+     */
+    String draw(RandomGenerator rand) {
+        long r = nextLong(rand, fittingCombinations());
+
+        StringBuilder title = new StringBuilder(maxLength);
+        int budget = maxLength;
+
+        for (int i = 0; i < words.length; i++) {
+            int separator = i == words.length - 1 ? 0 : 1;
+
+            //Walk the length buckets until r falls inside one, then split r into a word and a remainder
+            for (int l = 1; ; l++) {
+                long rest = fits[i + 1][budget - l - separator];
+                long block = words[i].countOfLength(l) * rest;
+                if (r < block) {
+                    if (i > 0) {
+                        title.append(' ');
+                    }
+                    title.append(words[i].wordOfLength(l, (int) (r / rest)));
+                    r %= rest;
+                    budget -= l + separator;
+                    break;
+                }
+                r -= block;
+            }
+        }
+
+        return title.toString();
+    }
+
+    /**
+     * Function to draw a uniform long between 0 (inclusive) and bound (exclusive)
+     */
+    private static long nextLong(RandomGenerator rand, long bound) {
+        long bits;
+        long value;
+        do {
+            bits = rand.nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+}
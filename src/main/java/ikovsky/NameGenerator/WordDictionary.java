@@ -0,0 +1,152 @@
+package ikovsky.NameGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A read-only word list packed into a single byte blob with an offset index.
+ * Word i occupies blob[offsets[i], offsets[i + 1]), so lookups are O(1) and do no I/O.
+ * Words are also bucketed by length so callers can pick only words that fit a length budget.
+ * The word lists are loaded once per JVM from the classpath.
+ */
+public final class WordDictionary {
+
+    public static final WordDictionary ADJECTIVES = load("/adjectives.txt");
+    public static final WordDictionary ADVERBS = load("/adverbs.txt");
+    public static final WordDictionary NOUNS = load("/nouns.txt");
+
+    private final byte[] blob;      //All words back to back, without separators
+    private final int[] offsets;    //Start of each word within the blob, plus a trailing end offset
+
+    private final int[] byLength;       //Word indices sorted by word length
+    private final int[] lengthStart;    //Start of each length bucket within byLength, plus a trailing end
+
+    private WordDictionary(byte[] blob, int[] offsets) {
+        this.blob = blob;
+        this.offsets = offsets;
+
+        //Counting sort of the word indices by length
+        int maxLength = 0;
+        for (int i = 0; i < size(); i++) {
+            maxLength = Math.max(maxLength, wordLength(i));
+        }
+
+        lengthStart = new int[maxLength + 2];
+        for (int i = 0; i < size(); i++) {
+            lengthStart[wordLength(i) + 1]++;
+        }
+        for (int l = 1; l < lengthStart.length; l++) {
+            lengthStart[l] += lengthStart[l - 1];
+        }
+
+        byLength = new int[size()];
+        int[] next = Arrays.copyOf(lengthStart, lengthStart.length);
+        for (int i = 0; i < size(); i++) {
+            byLength[next[wordLength(i)]++] = i;
+        }
+    }
+
+    /**
+     * Function to get the number of words in the dictionary
+     * @return The number of words
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Function to get a single word
+     * @param index The index of the word, between 0 and size() - 1
+     * @return The word at the index
+     */
+    public String word(int index) {
+        return new String(blob, offsets[index], wordLength(index), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Function to get the length of a word without decoding it
+     * @param index The index of the word, between 0 and size() - 1
+     * @return The number of characters in the word
+     */
+    public int wordLength(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * Function to get the length of the longest word
+     * @return The longest word length
+     */
+    public int maxWordLength() {
+        return lengthStart.length - 2;
+    }
+
+    /**
+     * Function to count the words of an exact length
+     * @param length The word length
+     * @return The number of words with that length
+     */
+    public int countOfLength(int length) {
+        if (length < 0 || length > maxWordLength()) {
+            return 0;
+        }
+        return lengthStart[length + 1] - lengthStart[length];
+    }
+
+    /**
+     * Function to get a word from a length bucket
+     * @param length The word length
+     * @param position The position within the bucket, between 0 and countOfLength(length) - 1
+     * @return The word
+     */
+    public String wordOfLength(int length, int position) {
+        return word(byLength[lengthStart[length] + position]);
+    }
+
+    /**
+     * Function to read a newline separated word list from the classpath and pack it
+     * @param resource The classpath location of the word list
+     * @return The packed dictionary
+     */
+    static WordDictionary load(String resource) {
+        byte[] raw;
+        try (InputStream in = WordDictionary.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Word list not found on classpath: " + resource);
+            }
+            raw = in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read word list: " + resource, e);
+        }
+
+        ByteArrayOutputStream packed = new ByteArrayOutputStream(raw.length);
+        int[] offsets = new int[1024];
+        int count = 0;
+        int start = 0;
+
+        for (int i = 0; i <= raw.length; i++) {
+            if (i == raw.length || raw[i] == '\n') {
+                int end = i;
+                //Strip windows line endings
+                if (end > start && raw[end - 1] == '\r') {
+                    end--;
+                }
+                //Skip blank lines
+                if (end > start) {
+                    if (count + 1 >= offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[count++] = packed.size();
+                    packed.write(raw, start, end - start);
+                }
+                start = i + 1;
+            }
+        }
+        offsets[count] = packed.size();
+
+        return new WordDictionary(packed.toByteArray(), Arrays.copyOf(offsets, count + 1));
+    }
+}
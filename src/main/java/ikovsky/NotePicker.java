@@ -1,6 +1,6 @@
 package ikovsky;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * @author Paul Hudson
@@ -8,6 +8,9 @@ import java.util.Random;
  * based upon the current underlying chord and scale patterns
  */
 public class NotePicker {
+	//Note samplers for every tonality, chord and key, shared by every NotePicker
+	private static final AliasTable[][][] NOTE_TABLES = buildTables();
+	
 	public ScaleNotes[] notes; //The notes within the current scale
 	public double[] noteProbabilities; //Weightings of different notes
 	public double baseNoteProbability; //Initial values set to weightings
@@ -18,57 +21,30 @@ public class NotePicker {
 	public ChordStructs currentChord; //Current underlying chord
 	
 	public int key;
-	Random rand;
+	SplittableRandom rand;
 	
 	/**
 	 * Constructor for NotePicker class
+	 * @param rand The random stream for choosing notes
 	 */
-	public NotePicker() {
+	public NotePicker(SplittableRandom rand) {
 		notes = new ScaleNotes[IKConstants.NUM_CHROMATIC_NOTES];
 		noteProbabilities = new double[IKConstants.NUM_CHROMATIC_NOTES];
 		
 		populateArrays();
 		
-		rand = new Random();
+		this.rand = rand;
 	}
 	
 	/**
 	 * Function to get the next note in the melody
+	 * The note is drawn in constant time from the precomputed table for the current scale, chord and key
 	 * @return the integer value of the note within the scale
 	 */
 	public int getNewNote() {
-		int newNote = currentNote;
-		setProbabilities();
-
-		//Roulette selection of different notes
-		//Construct Roulette
-		double rouletteP[] = new double[IKConstants.NUM_CHROMATIC_NOTES];
-		double currentP = 0.0; //Accumulative total of probabilities
-		
-
-		for (int i = 0 ; i < noteProbabilities.length ; i++) {
-			currentP += noteProbabilities[i];
-			rouletteP[i] = currentP;
-		}
-
-		//Roll the RNG for the next index
-		double newDouble = rand.nextDouble();
-		int newNoteIndex = 0;
+		int newNoteIndex = currentTable().sample(rand);
 		
-		//Find the next note index
-		for (int i = 0 ; i < rouletteP.length ; i++) {
-			if (i > 0) {
-				if (newDouble > rouletteP[i-1] && newDouble < rouletteP[i]) {
-					newNoteIndex = i;
-				}
-			} else {
-				if (newDouble < rouletteP[i]) {
-					newNoteIndex = i;
-				}
-			}
-		}
-	
-		newNote = notes[newNoteIndex].getNoteVal(); //Get the integer value
+		int newNote = notes[newNoteIndex].getNoteVal(); //Get the integer value
 		currentNote = newNote; //Set the current note to the new value
 		
 		return newNote;
@@ -81,48 +57,100 @@ public class NotePicker {
 	 * Furthermore, the current underlying chord of the song's notes are then added to as well
 	 */
 	public void setProbabilities() {
-		resetProbabilities();
-		//Set current scale probabilities (Natural Major / Minor scales)
-		int[] scaleIntervals = currentScale.getScaleValues();
-		
-		for (int i = 0 ; i < scaleIntervals.length ; i++) {
-			int index = key + scaleIntervals[i];
-			
-			//Wrap around for octaves
-			if (index >= IKConstants.NUM_CHROMATIC_NOTES) {
-				index-=IKConstants.NUM_CHROMATIC_NOTES;
-			}
-			
-			noteProbabilities[index] = IKConstants.NOTEPICKER_CURRENT_SCALE_PROBABILITY; //Set to base probability
+		noteProbabilities = noteWeights(currentScale, currentPentatonic, currentChord, key);
+	}
+	
+	/**
+	 * Function to build the layered note weightings for a scale, chord and key
+	 * @param scale The natural scale
+	 * @param pentatonic The pentatonic scale
+	 * @param chord The underlying chord
+	 * @param key The int value of the key
+	 * @return The weighting of each of the 12 chromatic notes
+	 */
+	static double[] noteWeights(Scales scale, Scales pentatonic, ChordStructs chord, int key) {
+		double[] weights = new double[IKConstants.NUM_CHROMATIC_NOTES];
+		for (int i = 0 ; i < weights.length; i++) {
+			weights[i] = IKConstants.NOTEPICKER_BASE_CHROMATIC_PROBABILITY;
 		}
 		
-		//Set Pentatonic probabilities
-		scaleIntervals = currentPentatonic.getScaleValues();
+		int scaleMask = PitchClasses.transpose(scale.getPitchClassMask(), key);
+		int pentatonicMask = PitchClasses.transpose(pentatonic.getPitchClassMask(), key);
+		int chordMask = PitchClasses.transpose(chord.getPitchClassMask(), key);
 		
-		for (int i = 0 ; i < scaleIntervals.length ; i++) {
-			int index = key + scaleIntervals[i];
-			
-			//Wrap around for octaves
-			if (index >= IKConstants.NUM_CHROMATIC_NOTES) {
-				index-=IKConstants.NUM_CHROMATIC_NOTES;
+		for (int note = 0 ; note < weights.length; note++) {
+			//Set current scale probabilities (Natural Major / Minor scales)
+			if (PitchClasses.contains(scaleMask, note)) {
+				weights[note] = IKConstants.NOTEPICKER_CURRENT_SCALE_PROBABILITY; //Set to base probability
+			}
+			//Set Pentatonic probabilities
+			if (PitchClasses.contains(pentatonicMask, note)) {
+				weights[note] += IKConstants.NOTEPICKER_CURRENT_PENTATONIC_SCALE_PROBABILITY; //Add Pentatonic Modifier
+			}
+			//Set Chord probabilities
+			if (PitchClasses.contains(chordMask, note)) {
+				weights[note] += IKConstants.NOTEPICKER_CURRENT_CHORD_PROBABILITY; //Add chord modifier
 			}
-			
-			noteProbabilities[index] += IKConstants.NOTEPICKER_CURRENT_PENTATONIC_SCALE_PROBABILITY; //Add Pentatonic Modifier
 		}
+		return weights;
+	}
+	
+	/**
+	 * Function to find the distribution of a roulette wheel over the weightings, as the notes have always been picked:
+	 * a uniform double is matched against the running total in chromatic order, so weight past a total of 1 is never reached
+	 * and any shortfall below 1 falls to the first note
+	 * @param weights The note weightings
+	 * @return The probability of each note being picked
+	 */
+	static double[] rouletteDistribution(double[] weights) {
+		double[] distribution = new double[weights.length];
+		double previous = 0.0;
+		for (int i = 0 ; i < weights.length; i++) {
+			double total = Math.min(previous + weights[i], 1.0);
+			distribution[i] = total - previous;
+			previous = total;
+		}
+		distribution[0] += 1.0 - previous;
+		return distribution;
+	}
+	
+	/**
+	 * Function to get the sampler for the current scale, chord and key
+	 */
+	private AliasTable currentTable() {
+		int tonality;
+		if (currentScale == Scales.MAJOR && currentPentatonic == Scales.MAJOR_PENTATONIC) {
+			tonality = 0;
+		} else if (currentScale == Scales.MINOR && currentPentatonic == Scales.MINOR_PENTATONIC) {
+			tonality = 1;
+		} else {
+			//Not a pairing the tables cover, build it now
+			return new AliasTable(rouletteDistribution(noteWeights(currentScale, currentPentatonic, currentChord, key)));
+		}
+		return NOTE_TABLES[tonality][currentChord.ordinal()][key];
+	}
+	
+	/**
+	 * Function to build the samplers for every tonality, chord and key
+	 * @return Tables indexed by [major 0 / minor 1][ChordStructs ordinal][key]
+	 */
+	private static AliasTable[][][] buildTables() {
+		Scales[][] tonalities = {
+			{Scales.MAJOR, Scales.MAJOR_PENTATONIC},
+			{Scales.MINOR, Scales.MINOR_PENTATONIC}
+		};
+		ChordStructs[] chords = ChordStructs.values();
 		
-		//Set Chord probabilities		
-		scaleIntervals = currentChord.getChordIntervals();
-		
-		for (int i = 0 ; i < scaleIntervals.length ; i++) {
-			int index = key + scaleIntervals[i];
-			
-			//Wrap around for octaves
-			if (index >= IKConstants.NUM_CHROMATIC_NOTES) {
-				index-=IKConstants.NUM_CHROMATIC_NOTES;
+		AliasTable[][][] tables = new AliasTable[tonalities.length][chords.length][IKConstants.NUM_CHROMATIC_NOTES];
+		for (int t = 0 ; t < tonalities.length; t++) {
+			for (ChordStructs chord : chords) {
+				for (int k = 0 ; k < IKConstants.NUM_CHROMATIC_NOTES; k++) {
+					double[] weights = noteWeights(tonalities[t][0], tonalities[t][1], chord, k);
+					tables[t][chord.ordinal()][k] = new AliasTable(rouletteDistribution(weights));
+				}
 			}
-			
-			noteProbabilities[index] += IKConstants.NOTEPICKER_CURRENT_CHORD_PROBABILITY; //Add chord modifier
 		}
+		return tables;
 	}
 	
 	/**
@@ -150,15 +178,6 @@ public class NotePicker {
 		currentChord = c;
 	}
 	
-	/**
-	 * Function to reset all note probabilities to the minimum base probability for the chromatic scale
-	 */
-	private void resetProbabilities() {
-		for (int i = 0 ; i < noteProbabilities.length; i++) {
-			noteProbabilities[i] = IKConstants.NOTEPICKER_BASE_CHROMATIC_PROBABILITY;
-		}
-	}
-	
 	/**
 	 * Function to populate the Scale array
 	 */
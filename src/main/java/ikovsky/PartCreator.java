@@ -1,8 +1,6 @@
 package ikovsky;
 
-import java.util.Random;
-
-import jm.music.data.CPhrase;
+import java.util.SplittableRandom;
 
 /**
  * @author Paul Hudson
@@ -17,7 +15,9 @@ public class PartCreator {
 	
 	int octave; //Octave offset for the new note(s)
 	
-	Random rand;	
+	SplittableRandom rand;
+	
+	PartEvents events; //The chords written by the part
 	
 	/**
 	 * Constructor for the PartCreator class
@@ -27,32 +27,44 @@ public class PartCreator {
 	 * @param rootOctave The initial octave the part should add notes from
 	 * @param dynMin The minimum dynamic that notes/chords can be played at
 	 * @param dynMax The maximum dynamic that notes/chords can be played at
+	 * @param random The song's RandomSource
+	 * @param partIndex The index of the part within the song, which selects its random streams
 	 */
-	public PartCreator(boolean rhythm, SongStructure newStruct, int instrument, int rootOctave, int dynMin, int dynMax) {
+	public PartCreator(boolean rhythm, SongStructure newStruct, int instrument, int rootOctave, int dynMin, int dynMax,
+			RandomSource random, int partIndex) {
 		isRhythmPart = rhythm;
 		
 		octave = rootOctave;
 		
 		songStruct = newStruct;
 		
-		notePicker = new NotePicker();
+		notePicker = new NotePicker(random.stream("notes", partIndex));
+		
+		rand = random.stream("part", partIndex);
 		
-		rand = new Random();
+		events = new PartEvents();
+	}
+	
+	/**
+	 * Function to set the events the part's bars are written to
+	 * @param newEvents The PartEvents to append the part's chords to
+	 */
+	public void setEvents(PartEvents newEvents) {
+		events = newEvents;
 	}
 	
 	/**
 	 * Function for writing a single bar of music
+	 * The bar's chords are appended to the part's events, nothing is allocated per note
 	 * @param barChord The current chord in the chord progression
 	 * @param chordType The ChordStruct enum of the chord
-	 * @param newBar The CPhrase object that the music shall be written to
 	 */
-	public void writeBar(int[] barChord, ChordStructs chordType, CPhrase newBar) {
+	public void writeBar(int[] barChord, ChordStructs chordType) {
 		boolean isRest = false;
 		double beatCount = 0;
 		
 		//While the total duration of the bar is less than the number of beats in a bar
 		while (beatCount < songStruct.timeSigBeatsPerBar) {
-			int[] newChord;
 			isRest = false;
 			
 			//Check to add rest
@@ -61,38 +73,35 @@ public class PartCreator {
 				if (isRhythmPart) {					
 					//Roll to add whole chord
 					if (rand.nextDouble() < IKConstants.PARTCREATOR_CHORD_3_NOTES_PROBABILITY) {
-						newChord = barChord.clone();
+						for (int note : barChord) {
+							events.addPitch(note);
+						}
 					} 					
 					//else -> add 2 notes from the chord
 					else if (rand.nextDouble() < (IKConstants.PARTCREATOR_CHORD_3_NOTES_PROBABILITY + IKConstants.PARTCREATOR_CHORD_2_NOTES_PROBABILITY)) {
-						newChord = new int[2]; //Chord contains only 2 notes				
-						newChord[0] = barChord[rand.nextInt(2)];
-						newChord[1] = barChord[rand.nextInt(2)];
+						events.addPitch(barChord[rand.nextInt(2)]);
+						events.addPitch(barChord[rand.nextInt(2)]);
 					} 
 					//else -> add a single note from the chord
 					else {
-						newChord = new int[1]; //new "Chord" contains only 1 note
-						newChord[0] = barChord[rand.nextInt(2)];
+						events.addPitch(barChord[rand.nextInt(2)]);
 					}
 				}
 				//if melody part -> Add new note notes / chords from current chord
 				else {
 					//Check to add a single note
 					if (rand.nextDouble() < IKConstants.PARTCREATOR_MELODY_CHORD_PROBABILITY) {
-						newChord = new int[1]; //new "Chord" contains only 1 note
-						
 						//Reinitialise NotePicker class to the current chord/key
 						setNotePickerProperties();
-						setCurrentChord(songStruct.key, chordType);
+						setCurrentChord(songStruct.getCompositionKey(), chordType);
 						
-						newChord[0] = notePicker.getNewNote(); //get next note
+						events.addPitch(notePicker.getNewNote()); //get next note
 					} else {
 						//Add a chord of size 0 - 3 from the current chord
 						int numNotes = rand.nextInt(2)+1;
-						newChord = new int[numNotes];
 						
 						for (int i = 0 ; i < numNotes; i++) {
-							newChord[i] = barChord[rand.nextInt(2)];
+							events.addPitch(barChord[rand.nextInt(2)]);
 						}
 					}
 				}
@@ -113,14 +122,11 @@ public class PartCreator {
 				}
 				
 				//Add the octave offset to each note within the chord
-				for (int i = 0 ; i < newChord.length; i++) {
-					newChord[i] = newChord[i] + (octave * IKConstants.NUM_CHROMATIC_NOTES);
-				}
+				events.transposeChord(octave * IKConstants.NUM_CHROMATIC_NOTES);
 			}
 			//else add rest
 			else {
-				newChord = new int[1];
-				newChord[0] = 0;
+				events.addPitch(0);
 				isRest = true;
 			}
 			
@@ -141,11 +147,11 @@ public class PartCreator {
 			//Randomise dynamics
 			int newDynamic = rand.nextInt(songStruct.maxDynamic - songStruct.minDynamic + 1) + songStruct.minDynamic;
 			
-			//Add to CPhrase
+			//Finish the chord
 			if (isRest) {
-				newBar.addChord(newChord, chordDuration, 0); //0 dynamic = silent note
+				events.endChord(chordDuration, 0); //0 dynamic = silent note
 			} else {
-				newBar.addChord(newChord, chordDuration, newDynamic);
+				events.endChord(chordDuration, newDynamic);
 			}
 			
 			beatCount += chordDuration;
@@ -157,9 +163,9 @@ public class PartCreator {
 	 */
 	private void setNotePickerProperties() {
 		if (!songStruct.isMinorKey) {
-			notePicker.setScaleBaseline(Scales.MAJOR, Scales.MAJOR_PENTATONIC, 0, songStruct.key, octave);
+			notePicker.setScaleBaseline(Scales.MAJOR, Scales.MAJOR_PENTATONIC, 0, songStruct.getCompositionKey(), octave);
 		} else {
-			notePicker.setScaleBaseline(Scales.MINOR, Scales.MINOR_PENTATONIC, 0, songStruct.key, octave);
+			notePicker.setScaleBaseline(Scales.MINOR, Scales.MINOR_PENTATONIC, 0, songStruct.getCompositionKey(), octave);
 		}
 	}
 	
@@ -0,0 +1,132 @@
+package ikovsky;
+
+import java.util.Arrays;
+
+/**
+ * The chords a part has written, held in primitive arrays owned by the part.
+ * Each event is a chord of one or more pitches held for a rhythm value (in beats) at one velocity. Single notes are
+ * chords of one pitch, and rests are written as the parts have always written them, the silent chord {0} at velocity 0.
+ * Events are grouped into measures, and each event's onset is the sum of the rhythms before it in its measure,
+ * added up in order so it is the same double jMusic would compute.
+ *
+ * The arrays grow by doubling and are kept by clear(), so once they have grown to the size of a song, writing
+ * more events allocates nothing.
+ */
+public final class PartEvents {
+    private static final int INITIAL_EVENTS = 256;
+    private static final int INITIAL_PITCHES = 512;
+
+    private double[] rhythms = new double[INITIAL_EVENTS];
+    private double[] onsets = new double[INITIAL_EVENTS];
+    private int[] velocities = new int[INITIAL_EVENTS];
+    private int[] firstPitch = new int[INITIAL_EVENTS + 1];     //Event e's pitches are firstPitch[e] to firstPitch[e + 1]
+    private int[] pitches = new int[INITIAL_PITCHES];
+
+    private int size;           //Number of finished events
+    private int numPitches;     //Pitches written, including those of the chord being written
+    private double measureTime; //Beats written in the current measure
+
+    /**
+     * Function to start a new measure, the next event's onset is beat 0
+     * @return The index of the measure's first event
+     */
+    public int startMeasure() {
+        measureTime = 0.0;
+        return size;
+    }
+
+    /**
+     * Function to add a pitch to the chord being written
+     * @param pitch The midi pitch
+     */
+    public void addPitch(int pitch) {
+        if (numPitches == pitches.length) {
+            pitches = Arrays.copyOf(pitches, pitches.length * 2);
+        }
+        pitches[numPitches++] = pitch;
+    }
+
+    /**
+     * Function to transpose every pitch of the chord being written
+     * @param semitones The number of semitones to move the chord up
+     */
+    public void transposeChord(int semitones) {
+        for (int i = firstPitch[size]; i < numPitches; i++) {
+            pitches[i] += semitones;
+        }
+    }
+
+    /**
+     * Function to finish the chord being written, its pitches are those added since the last event
+     * @param rhythm The length of the chord in beats
+     * @param velocity The velocity of every note of the chord
+     */
+    public void endChord(double rhythm, int velocity) {
+        if (size == rhythms.length) {
+            int capacity = size * 2;
+            rhythms = Arrays.copyOf(rhythms, capacity);
+            onsets = Arrays.copyOf(onsets, capacity);
+            velocities = Arrays.copyOf(velocities, capacity);
+            firstPitch = Arrays.copyOf(firstPitch, capacity + 1);
+        }
+        rhythms[size] = rhythm;
+        onsets[size] = measureTime;
+        velocities[size] = velocity;
+        size++;
+        firstPitch[size] = numPitches;
+        measureTime += rhythm;
+    }
+
+    /**
+     * Function to remove every event, keeping the arrays for reuse
+     */
+    public void clear() {
+        size = 0;
+        numPitches = 0;
+        measureTime = 0.0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getRhythm(int event) {
+        return rhythms[event];
+    }
+
+    /**
+     * Function to get when an event starts
+     * @param event The index of the event
+     * @return The beats from the start of the event's measure
+     */
+    public double getOnset(int event) {
+        return onsets[event];
+    }
+
+    public int getVelocity(int event) {
+        return velocities[event];
+    }
+
+    public int getChordSize(int event) {
+        return firstPitch[event + 1] - firstPitch[event];
+    }
+
+    /**
+     * Function to get a pitch of an event
+     * @param event The index of the event
+     * @param note The index of the note within the chord
+     * @return The midi pitch
+     */
+    public int getPitch(int event, int note) {
+        return pitches[firstPitch[event] + note];
+    }
+
+    /**
+     * Function to copy an event's pitches into a new array
+     * @param event The index of the event
+     * @return The chord's pitches
+     */
+    public int[] getChord(int event) {
+        return Arrays.copyOfRange(pitches, firstPitch[event], firstPitch[event + 1]);
+    }
+}
@@ -0,0 +1,152 @@
+package ikovsky;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide histograms of per-stage latency and allocation, fed from each request's RequestMetrics.
+ * The histograms are written out as CloudWatch Embedded Metric Format (EMF) lines on standard out,
+ * one line per stage with the "Stage" dimension, and reset. This happens at most once per flush interval
+ * (checked at the end of each request, as a frozen Lambda cannot run a timer) and at shutdown.
+ * The ResultCache counters, once the cache is in use, are written as one more line under the "cache" stage.
+ * Set IKOVSKY_METRICS=false to turn recording off.
+ */
+public final class PipelineMetrics {
+    private static final boolean ENABLED = EnvironmentConfig.getBoolean("IKOVSKY_METRICS", true);
+
+    private static final RequestMetrics.Stage[] STAGES = RequestMetrics.Stage.values();
+    private static final MetricHistogram[] MICROS = newHistograms();
+    private static final MetricHistogram[] BYTES = newHistograms();
+    private static final AtomicLong lastFlush = new AtomicLong(System.currentTimeMillis());
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(PipelineMetrics::flush));
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Function to add a finished request to the histograms, emitting them if the flush interval has passed
+     * @param metrics The request's stage metrics
+     */
+    public static void record(RequestMetrics metrics) {
+        if (!ENABLED) {
+            return;
+        }
+        metrics.end();
+        for (RequestMetrics.Stage stage : STAGES) {
+            if (metrics.isRecorded(stage)) {
+                MICROS[stage.ordinal()].record(metrics.getNanos(stage) / 1000);
+                long bytes = metrics.getAllocatedBytes(stage);
+                if (bytes >= 0) {
+                    BYTES[stage.ordinal()].record(bytes);
+                }
+            }
+        }
+        IKLogger.debug(metrics::toServerTiming);
+
+        long last = lastFlush.get();
+        long now = System.currentTimeMillis();
+        if (now - last >= IKConstants.METRICS_FLUSH_INTERVAL_MS && lastFlush.compareAndSet(last, now)) {
+            emit(now);
+        }
+    }
+
+    /**
+     * Function to emit and reset the histograms now
+     */
+    public static void flush() {
+        if (ENABLED) {
+            long now = System.currentTimeMillis();
+            lastFlush.set(now);
+            emit(now);
+        }
+    }
+
+    private static void emit(long timestamp) {
+        StringBuilder lines = new StringBuilder();
+        for (RequestMetrics.Stage stage : STAGES) {
+            MetricHistogram.Snapshot micros = MICROS[stage.ordinal()].snapshotAndReset();
+            MetricHistogram.Snapshot bytes = BYTES[stage.ordinal()].snapshotAndReset();
+            if (micros.getCount() == 0) {
+                continue;
+            }
+            lines.append(emfLine(timestamp, stage, micros, bytes)).append(System.lineSeparator());
+        }
+        ResultCache cache = ResultCache.getDefaultIfCreated();
+        if (cache != null) {
+            lines.append(cacheLine(timestamp, cache.snapshotAndResetCounters())).append(System.lineSeparator());
+        }
+        if (lines.length() > 0) {
+            System.out.print(lines);
+        }
+    }
+
+    /**
+     * Function to build one EMF log line for a stage
+     */
+    private static String emfLine(long timestamp, RequestMetrics.Stage stage, MetricHistogram.Snapshot micros, MetricHistogram.Snapshot bytes) {
+        StringBuilder line = new StringBuilder(512);
+        line.append("{\"_aws\":{\"Timestamp\":").append(timestamp)
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":\"").append(IKConstants.METRICS_NAMESPACE)
+                .append("\",\"Dimensions\":[[\"Stage\"]],\"Metrics\":[");
+        String[][] definitions = {
+                {"Requests", "Count"},
+                {"TimeP50", "Microseconds"}, {"TimeP90", "Microseconds"}, {"TimeP99", "Microseconds"}, {"TimeMax", "Microseconds"},
+                {"AllocatedP50", "Bytes"}, {"AllocatedP99", "Bytes"}, {"AllocatedMax", "Bytes"}
+        };
+        for (int i = 0; i < definitions.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append("{\"Name\":\"").append(definitions[i][0]).append("\",\"Unit\":\"").append(definitions[i][1]).append("\"}");
+        }
+        line.append("]}]},\"Stage\":\"").append(stage.getMetricName()).append('"');
+        line.append(",\"Requests\":").append(micros.getCount());
+        line.append(",\"TimeP50\":").append(micros.getPercentile(50));
+        line.append(",\"TimeP90\":").append(micros.getPercentile(90));
+        line.append(",\"TimeP99\":").append(micros.getPercentile(99));
+        line.append(",\"TimeMax\":").append(micros.getMax());
+        line.append(",\"AllocatedP50\":").append(bytes.getPercentile(50));
+        line.append(",\"AllocatedP99\":").append(bytes.getPercentile(99));
+        line.append(",\"AllocatedMax\":").append(bytes.getMax());
+        line.append('}');
+        return line.toString();
+    }
+
+    /**
+     * Function to build the EMF log line for the result cache counters
+     */
+    private static String cacheLine(long timestamp, Map<String, Long> counters) {
+        StringBuilder line = new StringBuilder(512);
+        line.append("{\"_aws\":{\"Timestamp\":").append(timestamp)
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":\"").append(IKConstants.METRICS_NAMESPACE)
+                .append("\",\"Dimensions\":[[\"Stage\"]],\"Metrics\":[");
+        boolean first = true;
+        for (String name : counters.keySet()) {
+            if (!first) {
+                line.append(',');
+            }
+            first = false;
+            line.append("{\"Name\":\"Cache").append(name).append("\",\"Unit\":\"")
+                    .append(name.endsWith("Bytes") ? "Bytes" : "Count").append("\"}");
+        }
+        line.append("]}]},\"Stage\":\"").append(RequestMetrics.Stage.CACHE.getMetricName()).append('"');
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            line.append(",\"Cache").append(counter.getKey()).append("\":").append(counter.getValue());
+        }
+        line.append('}');
+        return line.toString();
+    }
+
+    private static MetricHistogram[] newHistograms() {
+        MetricHistogram[] histograms = new MetricHistogram[RequestMetrics.Stage.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new MetricHistogram();
+        }
+        return histograms;
+    }
+}
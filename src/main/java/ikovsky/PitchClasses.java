@@ -0,0 +1,46 @@
+package ikovsky;
+
+/**
+ * Pitch class sets as 12 bit masks, bit n set meaning the set contains the note n semitones above C.
+ * Scales and chords are stored this way so membership tests and transpositions are single integer operations.
+ */
+public final class PitchClasses {
+    private static final int ALL = (1 << IKConstants.NUM_CHROMATIC_NOTES) - 1;
+
+    private PitchClasses() {
+    }
+
+    /**
+     * Function to build the mask of a set of intervals
+     * @param intervals Intervals in semitones, reduced to pitch classes
+     * @return The pitch class mask
+     */
+    public static int mask(int[] intervals) {
+        int mask = 0;
+        for (int interval : intervals) {
+            mask |= 1 << Math.floorMod(interval, IKConstants.NUM_CHROMATIC_NOTES);
+        }
+        return mask;
+    }
+
+    /**
+     * Function to transpose a pitch class set
+     * @param mask The pitch class mask
+     * @param semitones The number of semitones to move up
+     * @return The transposed mask
+     */
+    public static int transpose(int mask, int semitones) {
+        int shift = Math.floorMod(semitones, IKConstants.NUM_CHROMATIC_NOTES);
+        return ((mask << shift) | (mask >>> (IKConstants.NUM_CHROMATIC_NOTES - shift))) & ALL;
+    }
+
+    /**
+     * Function to test whether a set contains a pitch class
+     * @param mask The pitch class mask
+     * @param pitchClass The pitch class, 0 - 11
+     * @return True if the pitch class is in the set
+     */
+    public static boolean contains(int mask, int pitchClass) {
+        return (mask & (1 << pitchClass)) != 0;
+    }
+}
@@ -0,0 +1,75 @@
+package ikovsky;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Source of all randomness used to compose a single song.
+ * Each component asks for its own named SplittableRandom stream, derived only from the song seed and the stream name,
+ * so a song is reproducible from its seed regardless of the order (or thread) in which components draw numbers,
+ * and no generator is shared between components or requests.
+ */
+public final class RandomSource {
+    /**
+     * Generated seeds are kept within 53 bits so they survive a round trip through a JavaScript number
+     */
+    private static final long GENERATED_SEED_MASK = (1L << 53) - 1;
+
+    private final long seed;
+
+    /**
+     * Constructor for RandomSource
+     * @param seed The song seed
+     */
+    public RandomSource(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Function to create a RandomSource with a fresh seed, for requests that do not supply one
+     * @return The new RandomSource
+     */
+    public static RandomSource withRandomSeed() {
+        return new RandomSource(ThreadLocalRandom.current().nextLong() & GENERATED_SEED_MASK);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Function to get the random stream for a component
+     * @param name The component's stream name, unique within the song
+     * @return A new generator, the same name always gives the same sequence for a seed
+     */
+    public SplittableRandom stream(String name) {
+        return stream(name, 0);
+    }
+
+    /**
+     * Function to get the random stream for one of several instances of a component (e.g. one per part)
+     * @param name The component's stream name
+     * @param index The instance index
+     * @return A new generator, the same name and index always give the same sequence for a seed
+     */
+    public SplittableRandom stream(String name, int index) {
+        long key = seed;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            key = mix(key ^ b);
+        }
+        key = mix(key ^ index);
+
+        //split() also picks a new gamma, so streams for nearby keys do not overlap
+        return new SplittableRandom(key).split();
+    }
+
+    /**
+     * SplitMix64 finaliser
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
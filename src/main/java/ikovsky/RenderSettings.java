@@ -0,0 +1,53 @@
+package ikovsky;
+
+/**
+ * The properties of a song that only change how a composition is written out, not what is composed:
+ * the transposition from the key the song was composed in, the tempo and the midi program (instrument).
+ * Applied by MidiEncoder, so one canonical composition can be rendered in any key, tempo and instrument.
+ */
+public final class RenderSettings {
+    private final int transpose;
+    private final int tempo;
+    private final int instrument;
+
+    /**
+     * Constructor for RenderSettings
+     * @param transpose Semitones added to every note
+     * @param tempo The tempo in beats per minute
+     * @param instrument The midi program for every part
+     */
+    public RenderSettings(int transpose, int tempo, int instrument) {
+        this.transpose = transpose;
+        this.tempo = tempo;
+        this.instrument = instrument;
+    }
+
+    public int getTranspose() {
+        return transpose;
+    }
+
+    public int getTempo() {
+        return tempo;
+    }
+
+    public int getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Function to transpose a pitch, keeping it within the midi note range
+     * @param pitch The composed pitch
+     * @return The pitch to write
+     */
+    public int transpose(int pitch) {
+        int transposed = pitch + transpose;
+        //Shift out of range notes by octaves so they keep their pitch class
+        while (transposed > 127) {
+            transposed -= IKConstants.NUM_CHROMATIC_NOTES;
+        }
+        while (transposed < 0) {
+            transposed += IKConstants.NUM_CHROMATIC_NOTES;
+        }
+        return transposed;
+    }
+}
@@ -0,0 +1,137 @@
+package ikovsky;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Wall time and allocated bytes for each stage of a single generation request.
+ * Allocation is read from the JVM's per-thread allocation counter, so a stage only counts what the
+ * request thread itself allocated (background persistence work is not included).
+ * A RequestMetrics belongs to one request and is not thread safe.
+ */
+public class RequestMetrics {
+
+    /**
+     * The stages of the generation pipeline, in request order
+     */
+    public enum Stage {
+        DECODE("decode"),
+        VALIDATE("validate"),
+        CACHE("cache"),
+        COMPOSE("compose"),
+        ENCODE("encode"),
+        BASE64("base64"),
+        NAME("name"),
+        PERSIST("persist");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = allocationBean();
+
+    private final long[] nanos = new long[Stage.values().length];
+    private final long[] allocatedBytes = new long[Stage.values().length];
+    private final boolean[] recorded = new boolean[Stage.values().length];
+
+    private Stage currentStage;
+    private long stageStartNanos;
+    private long stageStartBytes;
+
+    /**
+     * Function to start timing a stage, ending any stage still running
+     * @param stage The stage being entered
+     */
+    public void begin(Stage stage) {
+        end();
+        currentStage = stage;
+        stageStartBytes = allocatedBytes();
+        stageStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Function to stop timing the current stage, a stage that runs more than once accumulates
+     */
+    public void end() {
+        if (currentStage == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - stageStartNanos;
+        int i = currentStage.ordinal();
+        nanos[i] += elapsed;
+        if (stageStartBytes >= 0) {
+            allocatedBytes[i] += allocatedBytes() - stageStartBytes;
+        }
+        recorded[i] = true;
+        currentStage = null;
+    }
+
+    public boolean isRecorded(Stage stage) {
+        return recorded[stage.ordinal()];
+    }
+
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    /**
+     * Function to get the bytes allocated during a stage
+     * @return The allocated bytes, or -1 if the JVM does not track thread allocation
+     */
+    public long getAllocatedBytes(Stage stage) {
+        return ALLOCATION_BEAN == null ? -1 : allocatedBytes[stage.ordinal()];
+    }
+
+    /**
+     * Function to format the recorded stages as a Server-Timing header value, durations in milliseconds
+     * @return e.g. "decode;dur=0.21, compose;dur=14.02"
+     */
+    public String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (!isRecorded(stage)) {
+                continue;
+            }
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            long hundredthsOfMs = (getNanos(stage) + 5000) / 10000;
+            header.append(stage.getMetricName()).append(";dur=").append(hundredthsOfMs / 100).append('.');
+            long fraction = hundredthsOfMs % 100;
+            if (fraction < 10) {
+                header.append('0');
+            }
+            header.append(fraction);
+        }
+        return header.toString();
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATION_BEAN == null ? -1 : ALLOCATION_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Function to get the HotSpot thread bean if it supports allocation counting
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+        if (!hotspotBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        if (!hotspotBean.isThreadAllocatedMemoryEnabled()) {
+            hotspotBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return hotspotBean;
+    }
+}
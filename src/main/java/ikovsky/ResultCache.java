@@ -0,0 +1,219 @@
+package ikovsky;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of generated songs for seeded requests, whose output is fully determined by the validated
+ * song parameters and the seed.
+ *
+ * Tier 1 is an in-heap LRU of finished responses (id, name and Base64 midi), bounded by bytes.
+ * Tier 2 is an optional DiskResultCache file in /tmp, which keeps songs across JVM restarts within a container.
+ * A tier 2 hit is promoted to tier 1. Hits return the song (and id) that was generated and persisted first,
+ * so repeat requests neither recompose nor store a duplicate.
+ *
+ * Configured with IKOVSKY_RESULT_CACHE_HEAP_MB and IKOVSKY_RESULT_CACHE_DISK_MB, 0 turns a tier off.
+ */
+public class ResultCache {
+    private static volatile ResultCache defaultCache;
+
+    private final long heapCapacity;
+    private final LinkedHashMap<String, Entry> heap = new LinkedHashMap<>(64, 0.75f, true);
+    private long heapBytes;
+    private final DiskResultCache disk;
+
+    private final AtomicLong heapHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong heapEvictions = new AtomicLong();
+    private long reportedDiskEvictions;
+
+    /**
+     * A cached song, ready to be returned
+     */
+    public static final class Entry {
+        private final String id;
+        private final String songName;
+        private final String midiString;
+
+        private Entry(String id, String songName, String midiString) {
+            this.id = id;
+            this.songName = songName;
+            this.midiString = midiString;
+        }
+
+        /**
+         * Function to build the response for a request with this entry's seed
+         * @param seed The request seed
+         * @return A new SongResponse
+         */
+        public SongResponse toResponse(long seed) {
+            return new SongResponse(id, songName, midiString, seed);
+        }
+
+        private long weight(String key) {
+            //Strings of these characters are stored one byte per character, plus a rough object overhead
+            return key.length() + id.length() + songName.length() + midiString.length() + 128;
+        }
+    }
+
+    /**
+     * Constructor for ResultCache
+     * @param heapCapacity The maximum bytes held in the heap tier, 0 for no heap tier
+     * @param disk The disk tier, or null for none
+     */
+    public ResultCache(long heapCapacity, DiskResultCache disk) {
+        this.heapCapacity = heapCapacity;
+        this.disk = disk;
+    }
+
+    /**
+     * Function to get the process wide cache, configured from the environment
+     * If the disk tier cannot be opened the cache runs with the heap tier only
+     * @return The shared ResultCache
+     */
+    public static ResultCache getDefault() {
+        ResultCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (ResultCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    long heapBytes = EnvironmentConfig.getInt("IKOVSKY_RESULT_CACHE_HEAP_MB", IKConstants.RESULT_CACHE_HEAP_MB) * 1024L * 1024L;
+                    int diskMb = EnvironmentConfig.getInt("IKOVSKY_RESULT_CACHE_DISK_MB", IKConstants.RESULT_CACHE_DISK_MB);
+                    DiskResultCache disk = null;
+                    if (diskMb > 0) {
+                        try {
+                            disk = new DiskResultCache(EnvironmentConfig.getString("IKOVSKY_RESULT_CACHE_DISK_PATH", IKConstants.RESULT_CACHE_DISK_PATH),
+                                    (int) Math.min(Integer.MAX_VALUE, diskMb * 1024L * 1024L), IKConstants.RESULT_CACHE_DISK_BLOCK_SIZE);
+                        } catch (RuntimeException e) {
+                            IKLogger.warn("Result cache disk tier disabled: " + e.getMessage());
+                        }
+                    }
+                    cache = new ResultCache(heapBytes, disk);
+                    defaultCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Function to build the cache key for a song
+     * Only validated inputs are used, so requests that differ in formatting (e.g. "120" vs 120) share an entry
+     * @param structure The validated song structure
+     * @param seed The song seed
+     * @return The cache key
+     */
+    public static String keyFor(SongStructure structure, long seed) {
+        return "v" + IKConstants.RESULT_CACHE_VERSION
+                + "|key=" + structure.key + (structure.isMinorKey ? "m" : "M")
+                + "|tempo=" + structure.tempo
+                + "|time=" + structure.timeSigBeatsPerBar + "/" + structure.timeSigNoteValue
+                + "|octaves=" + structure.minOctave + "-" + structure.maxOctave
+                + "|dynamics=" + structure.minDynamic + "-" + structure.maxDynamic
+                + "|density=" + structure.noteDensity
+                + "|instrument=" + structure.instrument
+                + "|weights=" + Arrays.toString(structure.chordWeightings)
+                + (structure.chordTransitions != null ? "|transitions=" + structure.chordTransitions : "")
+                + (structure.canonical ? "|canonical" : "")
+                + "|seed=" + seed;
+    }
+
+    /**
+     * Function to look up a song, checking the heap tier then the disk tier
+     * @param key The cache key
+     * @return The cached song, or null on a miss
+     */
+    public Entry get(String key) {
+        if (heapCapacity > 0) {
+            synchronized (heap) {
+                Entry entry = heap.get(key);
+                if (entry != null) {
+                    heapHits.incrementAndGet();
+                    return entry;
+                }
+            }
+        }
+
+        if (disk != null) {
+            SongRecord song = disk.get(key);
+            if (song != null) {
+                diskHits.incrementAndGet();
+                Entry entry = new Entry(song.getId(), song.getSongName(), Base64.getEncoder().encodeToString(song.getMidi()));
+                putHeap(key, entry);
+                return entry;
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Function to add a newly generated song to every tier
+     * @param key The cache key
+     * @param song The song as persisted
+     * @param midiString The Base64 midi returned to the user
+     */
+    public void put(String key, SongRecord song, String midiString) {
+        putHeap(key, new Entry(song.getId(), song.getSongName(), midiString));
+        if (disk != null) {
+            disk.put(key, song);
+        }
+    }
+
+    /**
+     * Function to get the process wide cache only if it has been used
+     * @return The shared ResultCache, or null
+     */
+    public static ResultCache getDefaultIfCreated() {
+        return defaultCache;
+    }
+
+    /**
+     * Function to get the cache counters and reset them, for periodic metrics
+     * @return Counter name -> count since the last call, followed by the current size of each tier
+     */
+    public synchronized Map<String, Long> snapshotAndResetCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("HeapHits", heapHits.getAndSet(0));
+        counters.put("DiskHits", diskHits.getAndSet(0));
+        counters.put("Misses", misses.getAndSet(0));
+        counters.put("HeapEvictions", heapEvictions.getAndSet(0));
+        long diskEvictions = disk == null ? 0L : disk.getEvictions();
+        counters.put("DiskEvictions", diskEvictions - reportedDiskEvictions);
+        reportedDiskEvictions = diskEvictions;
+        synchronized (heap) {
+            counters.put("HeapBytes", heapBytes);
+            counters.put("HeapEntries", (long) heap.size());
+        }
+        counters.put("DiskEntries", disk == null ? 0L : disk.size());
+        return counters;
+    }
+
+    private void putHeap(String key, Entry entry) {
+        long weight = entry.weight(key);
+        if (weight > heapCapacity) {
+            return;
+        }
+        synchronized (heap) {
+            Entry previous = heap.put(key, entry);
+            if (previous != null) {
+                heapBytes -= previous.weight(key);
+            }
+            heapBytes += weight;
+
+            //Evict least recently used entries until the heap tier fits
+            var eldest = heap.entrySet().iterator();
+            while (heapBytes > heapCapacity && eldest.hasNext()) {
+                Map.Entry<String, Entry> evicted = eldest.next();
+                heapBytes -= evicted.getValue().weight(evicted.getKey());
+                eldest.remove();
+                heapEvictions.incrementAndGet();
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ public enum Scales {
 	MINOR_PENTATONIC(new int[]{0,3,5,7,10}); //Minor Pentatonic
 	
 	private final int[] intervals;
+	private final int pitchClassMask; //The intervals as a PitchClasses mask
 	
 	/**
 	 * Constructor for a Scales enum entry
@@ -20,6 +21,15 @@ public enum Scales {
 	 */
 	Scales(int[] intervals) {
 		this.intervals = intervals;
+		this.pitchClassMask = PitchClasses.mask(intervals);
+	}
+	
+	/**
+	 * Function to get the scale's pitch classes, relative to the key
+	 * @return The PitchClasses mask of the intervals
+	 */
+	public int getPitchClassMask() {
+		return pitchClassMask;
 	}
 	
 	/**
@@ -0,0 +1,24 @@
+package ikovsky;
+
+import java.util.List;
+
+/**
+ * A song store that accepts writes in batches, used by the write-behind SongPersistenceQueue
+ */
+public interface SongBatchWriter {
+
+    /**
+     * Function to get the largest batch the store accepts in one call
+     * @return The maximum number of songs per batch
+     */
+    int maxBatchSize();
+
+    /**
+     * Function to write a batch of songs
+     * A store may accept only part of a batch (e.g. when throttled), the rest is returned to be retried
+     * @param songs The songs to write, at most maxBatchSize()
+     * @return The songs that were not written
+     * @throws RuntimeException if the store could not be reached
+     */
+    List<SongRecord> writeBatch(List<SongRecord> songs);
+}
@@ -5,21 +5,30 @@
 
 package ikovsky;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import ikovsky.NameGenerator.NameGenerator;
+import ikovsky.NameGenerator.RecentTitleFilter;
 import jm.JMC;
 import jm.gui.show.ShowScore;
 import jm.music.data.Score;
 import jm.util.Play;
 import jm.util.Write;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 
 /**
  * @author Paul Hudson
@@ -27,9 +36,24 @@ import org.apache.commons.io.FileUtils;
  * including parsing of the input parameters, and output of the finished .midi file
  */
 public class SongGenerator implements JMC {
+    //Compose every song in the canonical key and apply its key, tempo and instrument when encoding
+    private static final boolean CANONICAL_COMPOSITION =
+            EnvironmentConfig.getBoolean("IKOVSKY_CANONICAL_COMPOSITION", IKConstants.CANONICAL_COMPOSITION_DEFAULT);
+
+    //Titles issued recently by this process, shared by every song so unseeded songs don't repeat them, or null
+    private static final RecentTitleFilter RECENT_TITLES = EnvironmentConfig.getBoolean("IKOVSKY_UNIQUE_TITLES", IKConstants.UNIQUE_TITLES_DEFAULT)
+            ? new RecentTitleFilter(Math.max(2, EnvironmentConfig.getInt("IKOVSKY_RECENT_TITLES", IKConstants.RECENT_TITLE_CAPACITY)))
+            : null;
+
     private boolean useDefaults;                //boolean field to denote debug mode
 
-    private Score songScore;                    //JMusic class for the score of the whole song (sum of all parts)
+    private static final String SONG_TITLE = "New Song";
+
+    private ComposedSong composedSong;          //The written song, encoded straight from its parts' events
+
+    private Score songScore;                    //JMusic class for the score of the whole song (sum of all parts), built when needed
+
+    private Path longFormFile;                  //The midi file of a long-form song, from compose() until encode() takes it
 
     private SongStructure songStructure;        //Class for storing all data to do with structure of song (key/tempo/verses etc)
 
@@ -37,29 +61,75 @@ public class SongGenerator implements JMC {
 
     private ArrayList<String> parameterErrors;    //ArrayList to contain all potential errors to display to the user
 
-    private Random rand;                        //Random Number Generator
+    private final RandomSource random;          //Seeded source of every random stream used for the song
+
+    private final boolean seeded;               //Whether the request supplied the seed
 
-    private final SongRepository songRepository;
+    private SplittableRandom rand;              //Random Number Generator
+
+    private final SongStore songStore;
 
     private final NameGenerator nameGenerator;
 
+    private final RequestMetrics metrics;      //Per-stage timings for this song
+
+    private final ResultCache resultCache;      //Previously generated songs, for requests with a seed
+
+    private String cacheKey;                    //Key of the song in the result cache, null if it is not cached
+
+    private String songId;                      //Id and name of the song, once nameSong() has run
+    private String songName;
+
+    private SongRecord record;                  //The encoded song, once encode() has run
+
+    private String midiString;                  //Base64 of the encoded song
+
+    private Executor partExecutor = ForkJoinPool.commonPool(); //Where the song's parts are written at the same time, see Composer
+
     public SongGenerator(boolean debug, String saveLocation, String key, String tempo, String timeSig, String octaveLow,
                          String octaveHigh, String dynamicsLow, String dynamicsHigh, String noteDensity, String instrument,
                          String weightA, String weightB, String weightC, String weightD, String weightE, String weightF, String weightG) {
+        this(debug, saveLocation, new GenerationRequest(key, tempo, timeSig, octaveLow, octaveHigh, dynamicsLow,
+                dynamicsHigh, noteDensity, instrument, weightA, weightB, weightC, weightD, weightE, weightF, weightG),
+                SongStores.getDefault());
+    }
+
+    public SongGenerator(boolean debug, String saveLocation, GenerationRequest request, SongStore songStore) {
+        this(debug, saveLocation, request, songStore, new RequestMetrics());
+    }
+
+    public SongGenerator(boolean debug, String saveLocation, GenerationRequest request, SongStore songStore, RequestMetrics metrics) {
+        this(debug, saveLocation, request, songStore, metrics, ResultCache.getDefault());
+    }
+
+    public SongGenerator(boolean debug, String saveLocation, GenerationRequest request, SongStore songStore, RequestMetrics metrics,
+                         ResultCache resultCache) {
         useDefaults = debug;
+        this.metrics = metrics;
+        this.resultCache = resultCache;
 
-        songScore = new Score("New Song"); //Song Title
-        SongStructure structure = new SongStructure(key, tempo, timeSig, octaveLow, octaveHigh, dynamicsLow, dynamicsHigh,
-                noteDensity, instrument, weightA, weightB, weightC, weightD, weightE, weightF, weightG);
+        seeded = request.getSeed() != null;
+        random = seeded ? new RandomSource(request.getSeed()) : RandomSource.withRandomSeed();
+        metrics.begin(RequestMetrics.Stage.VALIDATE);
+        SongStructure structure = new SongStructure(request.getKey(), request.getTempo(), request.getTimeSig(),
+                request.getOctaveLow(), request.getOctaveHigh(), request.getDynamicsLow(), request.getDynamicsHigh(),
+                request.getNoteDensity(), request.getInstrument(), request.getWeight(0), request.getWeight(1),
+                request.getWeight(2), request.getWeight(3), request.getWeight(4), request.getWeight(5), request.getWeight(6),
+                random);
+        structure.setChordTransitions(request.getChordTransitions());
+        structure.setLongFormMinutes(request.getDurationMinutes());
+        structure.canonical = CANONICAL_COMPOSITION;
+        metrics.end();
 
         this.saveDir = saveLocation;
         this.songStructure = structure;
 
         parameterErrors = new ArrayList<>();
 
-        rand = new Random();
-        songRepository = new SongRepository();
-        nameGenerator = new NameGenerator();
+        rand = random.stream("generator");
+        this.songStore = songStore;
+        //A seeded song keeps the title its seed gives, so the same request always names it the same
+        nameGenerator = new NameGenerator(seeded ? null : RECENT_TITLES);
     }
 
 //	/**
@@ -86,8 +156,182 @@ public class SongGenerator implements JMC {
 //		saveSong(); //Save the midi file
 //	}
 
+    /**
+     * Function to generate the song, running every stage in turn
+     * @return The song, from the result cache if the request's seed has been generated before
+     * @throws InvalidRequestException for a long-form song, which is only streamed, see streamSong()
+     */
     public SongResponse generateSongResponse() {
-        Composer newComp = new Composer(songStructure); //Create the composer
+        if (songStructure.isLongForm()) {
+            throw new InvalidRequestException("Long-form songs are only available from the streaming endpoint");
+        }
+        SongResponse cached = findCached();
+        if (cached != null) {
+            return cached;
+        }
+
+        compose();
+        encode();
+        persist();
+        return toResponse();
+    }
+
+    /**
+     * Function to look the song up in the result cache
+     * Unseeded songs are never requested again, so only seeded songs are looked up and cached. Long-form songs are
+     * not cached, as the cache would hold them in memory
+     * @return The cached song, or null if it has to be generated
+     */
+    public SongResponse findCached() {
+        if (seeded && resultCache != null && !songStructure.isLongForm()) {
+            metrics.begin(RequestMetrics.Stage.CACHE);
+            cacheKey = ResultCache.keyFor(songStructure, random.getSeed());
+            ResultCache.Entry cached = resultCache.get(cacheKey);
+            metrics.end();
+            if (cached != null) {
+                return cached.toResponse(random.getSeed());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function to compose the song
+     * A long-form song is written to a temporary midi file as it is composed, rather than held in memory
+     */
+    public void compose() {
+        metrics.begin(RequestMetrics.Stage.COMPOSE);
+        if (songStructure.isLongForm()) {
+            try {
+                composeLongForm(null);
+            } catch (IOException e) {
+                metrics.end();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                metrics.end();
+                throw e;
+            }
+        } else {
+            composedSong = newComposer().compose(); //Write the song
+            songScore = null;
+            IKLogger.debug(() -> getScore().toString());
+        }
+        metrics.end();
+    }
+
+    /**
+     * Function to compose a long-form song into a temporary midi file, which is stored once the song is complete
+     * The file is deleted if the song fails, however it fails
+     * @param out A stream to send the song to as it is written as well, or null
+     * @throws IOException if the file or the stream could not be written
+     */
+    private void composeLongForm(OutputStream out) throws IOException {
+        Path file = Files.createTempFile("ikovsky-song", ".mid");
+        try (OutputStream copy = new BufferedOutputStream(Files.newOutputStream(file))) {
+            writeLongForm(out != null ? new TeeOutputStream(out, copy) : copy);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(file);
+            throw e;
+        }
+        longFormFile = file;
+    }
+
+    /**
+     * Function to compose a long-form song straight into a midi stream
+     * Each group of sections is encoded and written as soon as it is composed, and only the verses being played and
+     * the group being encoded are held in memory, so the memory used is the same however long the song is
+     * @param out The stream to write the song to, flushed after each group of sections
+     * @throws IOException if the stream could not be written
+     */
+    public void writeLongForm(OutputStream out) throws IOException {
+        Composer newComp = newComposer();
+        MidiEncoder.LongFormWriter writer = MidiEncoder.longForm(out, songStructure.numParts,
+                songStructure.longFormMinutes * songStructure.tempo, songStructure.getRenderSettings());
+        newComp.composeLongForm(songStructure.longFormMinutes, writer);
+        writer.finish();
+    }
+
+    /**
+     * Function to generate the song straight into a stream
+     * The midi header and tempo track are written before the song is composed, then each part's track as soon as the
+     * part is written, so the first bytes go out straight away. A long-form song goes out a group of sections at a
+     * time instead. The song is stored and cached once it is complete.
+     * Call nameSong() first to get the song's id and name before anything is written.
+     * @param out The stream to write the midi file to, flushed after each track
+     * @throws IOException if the stream could not be written, the song is then not stored
+     */
+    public void streamSong(OutputStream out) throws IOException {
+        nameSong();
+
+        if (songStructure.isLongForm()) {
+            //Sent as it is written, with a copy on disk that is stored from the file
+            metrics.begin(RequestMetrics.Stage.COMPOSE);
+            try {
+                composeLongForm(out);
+            } finally {
+                metrics.end();
+            }
+            encode();
+            persist();
+            return;
+        }
+
+        metrics.begin(RequestMetrics.Stage.COMPOSE);
+        Composer newComp = newComposer();
+
+        //Keep a copy of the file to store once the stream is done
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        OutputStream tee = new TeeOutputStream(out, copy);
+
+        metrics.begin(RequestMetrics.Stage.ENCODE);
+        MidiEncoder.TrackStream tracks = MidiEncoder.stream(tee, songStructure.numParts, songStructure.getRenderSettings());
+        out.flush();
+
+        metrics.begin(RequestMetrics.Stage.COMPOSE);
+        try {
+            composedSong = newComp.compose(track -> {
+                try {
+                    metrics.begin(RequestMetrics.Stage.ENCODE);
+                    tracks.writeTrack(track);
+                    out.flush();
+                    metrics.begin(RequestMetrics.Stage.COMPOSE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            metrics.end();
+            throw e.getCause();
+        }
+        songScore = null;
+        IKLogger.debug(() -> getScore().toString());
+
+        byte[] midi = copy.toByteArray();
+        if (cacheKey != null) {
+            metrics.begin(RequestMetrics.Stage.BASE64);
+            midiString = Base64.getEncoder().encodeToString(midi); //Only needed for the result cache
+        }
+        metrics.end();
+
+        record = new SongRecord(songId, songName, midi);
+        persist();
+    }
+
+    /**
+     * Function to set where the song's parts are written at the same time, e.g. to keep a server's composing on its
+     * own threads
+     * @param partExecutor The executor, or null to write every part on the thread composing the song
+     */
+    public void setPartExecutor(Executor partExecutor) {
+        this.partExecutor = partExecutor;
+    }
+
+    /**
+     * Function to create the composer and all the parts of the song
+     */
+    private Composer newComposer() {
+        Composer newComp = new Composer(songStructure, random); //Create the composer
+        newComp.setPartExecutor(partExecutor);
 
         //Create all the required parts
         for (int i = 0; i < songStructure.numParts; i++) {
@@ -106,23 +350,130 @@ public class SongGenerator implements JMC {
 
             newComp.addPart(isRhythmPart, songStructure.instrument, partOctave, songStructure.minDynamic, songStructure.maxDynamic);
         }
+        return newComp;
+    }
 
-        newComp.writeSong(songScore); //Write the song to the score
-        System.out.println(songScore.toString());
+    /**
+     * Function to choose the song's name and id
+     * The name has its own random stream, so it is the same whether it is chosen before or after composing
+     */
+    public void nameSong() {
+        if (songName != null) {
+            return;
+        }
+        metrics.begin(RequestMetrics.Stage.NAME);
+        songName = nameGenerator.generateName(random.stream("name"));
+        songId = UUID.randomUUID().toString();
+        IKLogger.debug("Song Named: " + songName);
+        metrics.end();
+    }
+
+    /**
+     * Function to encode the composed song as midi and name it
+     * A long-form song is already encoded in its file, which the record takes over. It has no Base64 as it is never
+     * sent as JSON or cached
+     * @return The record to persist
+     */
+    public SongRecord encode() {
+        nameSong();
+
+        if (longFormFile != null) {
+            record = new SongRecord(songId, songName, longFormFile);
+            longFormFile = null;
+            return record;
+        }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        metrics.begin(RequestMetrics.Stage.ENCODE);
+        byte[] midi = MidiEncoder.encode(composedSong, songStructure.getRenderSettings());
 
-        Write.midi(songScore, byteArrayOutputStream);
+        metrics.begin(RequestMetrics.Stage.BASE64);
+        midiString = Base64.getEncoder().encodeToString(midi);
+        metrics.end();
 
-//        return Base64.getEncoder().encodeToString(saveSong().getBytes(StandardCharsets.UTF_8));
-        String midiString = Base64.getEncoder().encodeToString(byteArrayOutputStream.toByteArray());
-        String songName = nameGenerator.generateName();
-        String songId = UUID.randomUUID().toString();
+        record = new SongRecord(songId, songName, midi);
+        return record;
+    }
 
-        System.out.println("Song Named: " + songName);
-        songRepository.submitSongToDynamo(songId, songName, midiString);
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                IKLogger.warn("Could not delete " + file + ": " + e.getMessage());
+            }
+        }
+    }
 
-        return new SongResponse(songId, songName, midiString);
+    /**
+     * Function to store the encoded song and add it to the result cache
+     */
+    public void persist() {
+        metrics.begin(RequestMetrics.Stage.PERSIST);
+        if (record.getMidiFile() != null) {
+            songStore.putFile(record);
+        } else {
+            songStore.put(record);
+        }
+        metrics.end();
+        cacheResult();
+    }
+
+    /**
+     * Function to add the encoded song to the result cache, once it has been stored
+     */
+    public void cacheResult() {
+        if (cacheKey != null) {
+            metrics.begin(RequestMetrics.Stage.CACHE);
+            resultCache.put(cacheKey, record, midiString);
+            metrics.end();
+        }
+    }
+
+    public String getSongId() {
+        return songId;
+    }
+
+    public String getSongName() {
+        return songName;
+    }
+
+    public long getSeed() {
+        return random.getSeed();
+    }
+
+    /**
+     * Getter function for the encoded song
+     * @return The record, or null before encode() has run
+     */
+    public SongRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Function to build the response for the encoded song
+     * @return The song's id, name, Base64 midi and seed
+     */
+    public SongResponse toResponse() {
+        return new SongResponse(record.getId(), record.getSongName(), midiString, random.getSeed());
+    }
+
+    /**
+     * Getter function for the stage metrics of this song
+     * @return The RequestMetrics the stages are recorded in
+     */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Getter function for the jMusic Score of the song, built from the composed song the first time it is asked for
+     * @return The Score, empty if no song has been written
+     */
+    public Score getScore() {
+        if (songScore == null) {
+            songScore = composedSong != null ? composedSong.toScore(SONG_TITLE) : new Score(SONG_TITLE);
+        }
+        return songScore;
     }
 
     /**
@@ -135,9 +486,8 @@ public class SongGenerator implements JMC {
 //        fileLoc +=;
 
         //Write the file
-        Write.midi(songScore, fileLoc);
-        System.out.println(fileLoc);
-        System.out.println("MIDI file saved");
+        Write.midi(getScore(), fileLoc);
+        IKLogger.info("MIDI file saved: " + fileLoc);
 
         ClassLoader classLoader = getClass().getClassLoader();
         File file = new File(fileLoc);
@@ -151,8 +501,8 @@ public class SongGenerator implements JMC {
 
         //For debugging / development --> play the song locally
         if (useDefaults) {
-            new ShowScore(songScore);
-            Play.midi(songScore);
+            new ShowScore(getScore());
+            Play.midi(getScore());
         }
         return "500";
     }
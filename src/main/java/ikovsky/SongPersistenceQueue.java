@@ -0,0 +1,353 @@
+package ikovsky;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind pipeline for persisting songs off the request path.
+ * Songs are put on a bounded queue and a background thread groups them into batch writes,
+ * retrying unprocessed songs with exponential backoff. Songs that still cannot be written, or that
+ * arrive while the queue is full, are appended to a SongSpool and replayed once the store recovers.
+ * Songs that find the queue full wait in a second bounded buffer for a spooler thread, which appends them in batches
+ * with one fsync each, so callers don't wait on the disk unless that buffer is full as well.
+ * Reads go straight to the underlying store, so a song is not visible to get() until it has been written.
+ * A song held on disk is queued like any other, and the store writes it from its file.
+ */
+public class SongPersistenceQueue implements SongStore {
+    private final SongStore writer;
+    private final SongSpool spool;
+    private final BlockingQueue<SongRecord> queue;
+    private final BlockingQueue<SongRecord> overflow;   //Songs that found the queue full, waiting to be spooled
+    private final Thread worker;
+    private final Thread spooler;
+
+    private final Object pendingLock = new Object();
+    private int pending;                //Songs submitted but not yet written or spooled
+
+    private volatile boolean running;
+    private long lastReplayAttempt;
+
+    /**
+     * Constructor for SongPersistenceQueue, starts the background writer
+     * @param writer The store to write songs to
+     * @param spool The overflow spool
+     * @param capacity The maximum number of songs waiting in memory
+     */
+    public SongPersistenceQueue(SongStore writer, SongSpool spool, int capacity) {
+        this.writer = writer;
+        this.spool = spool;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflow = new ArrayBlockingQueue<>(IKConstants.PERSISTENCE_OVERFLOW_CAPACITY);
+
+        running = true;
+        worker = new Thread(this::run, "ikovsky-song-writer");
+        worker.setDaemon(true);
+        worker.start();
+        spooler = new Thread(this::runSpooler, "ikovsky-song-spooler");
+        spooler.setDaemon(true);
+        spooler.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Function to queue a song for persistence without waiting for the store
+     * @param song The song to persist
+     */
+    @Override
+    public void put(SongRecord song) {
+        synchronized (pendingLock) {
+            pending++;
+        }
+        if (running && (queue.offer(song) || offerOverflow(song))) {
+            return;
+        }
+        //Stopped, so there is no thread left to spool it
+        List<SongRecord> stopped = new ArrayList<>(1);
+        stopped.add(song);
+        spoolSongs(stopped);
+        completed(stopped);
+    }
+
+    /**
+     * Function to hand a song that found the queue full (store is slow or down) to the spooler
+     * @return True if the spooler took it, false if the queue stopped first
+     */
+    private boolean offerOverflow(SongRecord song) {
+        try {
+            while (running) {
+                if (overflow.offer(song, IKConstants.PERSISTENCE_LINGER_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Function to queue a song held on disk, its midi file is deleted once the song has been written or spooled
+     * @param song The song to persist
+     */
+    @Override
+    public void putFile(SongRecord song) {
+        put(song);
+    }
+
+    @Override
+    public List<SongRecord> writeBatch(List<SongRecord> songs) {
+        for (SongRecord song : songs) {
+            put(song);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public SongRecord get(String id) {
+        return writer.get(id);
+    }
+
+    @Override
+    public List<SongRecord> list(int limit) {
+        return writer.list(limit);
+    }
+
+    /**
+     * Function to get the store songs are written to
+     * @return The underlying SongStore
+     */
+    public SongStore getBackingStore() {
+        return writer;
+    }
+
+    /**
+     * Function to wait until every submitted song has been written or spooled
+     * @param timeoutMs The maximum time to wait in milliseconds
+     * @return True if everything was persisted within the timeout
+     */
+    public boolean flush(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (pendingLock) {
+            while (pending > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                pendingLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function to stop the background writer, anything still queued is spooled
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        worker.interrupt();
+        spooler.interrupt();
+        try {
+            worker.join(IKConstants.PERSISTENCE_BACKOFF_MAX_MS);
+            spooler.join(IKConstants.PERSISTENCE_BACKOFF_MAX_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<SongRecord> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        overflow.drainTo(remaining);
+        spoolSongs(remaining);
+        completed(remaining);
+    }
+
+    /**
+     * Background writer loop
+     */
+    private void run() {
+        int maxBatch = writer.maxBatchSize();
+        List<SongRecord> batch = new ArrayList<>(maxBatch);
+
+        while (running) {
+            try {
+                SongRecord first = queue.poll(IKConstants.PERSISTENCE_REPLAY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+
+                    //Linger briefly so a burst of songs goes out in one batch
+                    long lingerUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IKConstants.PERSISTENCE_LINGER_MS);
+                    while (batch.size() < maxBatch) {
+                        queue.drainTo(batch, maxBatch - batch.size());
+                        long wait = lingerUntil - System.nanoTime();
+                        if (batch.size() >= maxBatch || wait <= 0) {
+                            break;
+                        }
+                        SongRecord next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                        if (next != null) {
+                            batch.add(next);
+                        }
+                    }
+
+                    boolean written = writeWithRetry(batch);
+                    completed(batch);
+                    batch.clear();
+
+                    if (written) {
+                        replaySpool();
+                    }
+                } else {
+                    replaySpool();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                IKLogger.error("Song writer error: " + e);
+                spoolSongs(batch);
+                completed(batch);
+                batch.clear();
+            }
+        }
+
+        //Anything taken off the queue but not yet handled is spooled
+        if (!batch.isEmpty()) {
+            spoolSongs(batch);
+            completed(batch);
+        }
+    }
+
+    /**
+     * Background spooler loop, appending whatever overflow has built up in one write
+     */
+    private void runSpooler() {
+        List<SongRecord> batch = new ArrayList<>(IKConstants.PERSISTENCE_SPOOL_BATCH_SIZE);
+        while (running) {
+            try {
+                batch.add(overflow.take());
+                overflow.drainTo(batch, IKConstants.PERSISTENCE_SPOOL_BATCH_SIZE - 1);
+                spoolSongs(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                IKLogger.error("Song spooler error, " + batch.size() + " songs will be lost: " + e);
+            }
+            completed(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Function to write a batch, retrying unprocessed songs with exponential backoff
+     * Songs that still fail are spooled
+     * @return True if the whole batch was written
+     */
+    private boolean writeWithRetry(List<SongRecord> batch) throws InterruptedException {
+        List<SongRecord> remaining = new ArrayList<>(batch);
+        long backoff = IKConstants.PERSISTENCE_BACKOFF_BASE_MS;
+
+        for (int attempt = 1; attempt <= IKConstants.PERSISTENCE_MAX_ATTEMPTS && !remaining.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                //Full jitter backoff
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+                backoff = Math.min(backoff * 2, IKConstants.PERSISTENCE_BACKOFF_MAX_MS);
+            }
+            try {
+                remaining = new ArrayList<>(writer.writeBatch(remaining));
+            } catch (RuntimeException e) {
+                IKLogger.warn("Song batch write failed (attempt " + attempt + "): " + e.getMessage());
+            }
+        }
+
+        if (!remaining.isEmpty()) {
+            spoolSongs(remaining);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Function to write spooled songs back to the store, rate limited to one attempt per replay interval
+     */
+    private void replaySpool() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        if (now - lastReplayAttempt < IKConstants.PERSISTENCE_REPLAY_INTERVAL_MS || !spool.hasSpooledSongs()) {
+            return;
+        }
+        lastReplayAttempt = now;
+
+        List<SongRecord> spooled;
+        try {
+            spooled = spool.beginReplay();
+        } catch (IOException e) {
+            IKLogger.error("Unable to read song spool: " + e.getMessage());
+            return;
+        }
+
+        int maxBatch = writer.maxBatchSize();
+        int i = 0;
+        boolean respooled = true;
+        try {
+            for (; i < spooled.size(); i += maxBatch) {
+                List<SongRecord> batch = spooled.subList(i, Math.min(i + maxBatch, spooled.size()));
+                if (!writeWithRetry(batch)) {
+                    //Store is still unhealthy, put the rest back and try again later
+                    respooled = spoolSongs(spooled.subList(i + batch.size(), spooled.size()));
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            if (spoolSongs(spooled.subList(i, spooled.size()))) {
+                finishReplay();
+            }
+            throw e;
+        }
+        //If the rest couldn't be spooled again the replay file is kept, so they are replayed next time
+        if (respooled) {
+            finishReplay();
+        }
+    }
+
+    /**
+     * Function to discard the replay file once every replayed song has been written or spooled again
+     * If it can't be deleted the songs are replayed again later, which is safe as songs are written by id
+     */
+    private void finishReplay() {
+        try {
+            spool.finishReplay();
+        } catch (IOException e) {
+            IKLogger.error("Unable to remove replayed song spool: " + e.getMessage());
+        }
+    }
+
+    private boolean spoolSongs(List<SongRecord> songs) {
+        try {
+            spool.append(songs);
+            return true;
+        } catch (IOException e) {
+            IKLogger.error("Unable to spool " + songs.size() + " songs, they will be lost: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Function to finish with songs that have been written or spooled, deleting the midi files of songs held on disk
+     */
+    private void completed(List<SongRecord> songs) {
+        for (SongRecord song : songs) {
+            song.deleteMidiFile();
+        }
+        synchronized (pendingLock) {
+            pending -= songs.size();
+            if (pending <= 0) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+}
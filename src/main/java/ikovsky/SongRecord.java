@@ -0,0 +1,90 @@
+package ikovsky;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Immutable data structure holding a generated song as it is persisted
+ * Stores encode the midi file with MidiCodec, so the record itself always holds the plain midi bytes, or for a song
+ * too long to hold in memory (a long-form song) the plain midi file on disk, see SongStore.putFile()
+ */
+public final class SongRecord {
+    private final String id;
+    private final String songName;
+    private final byte[] midi;      //Standard midi file, or null if the song is held in midiFile
+    private final Path midiFile;    //Standard midi file on disk, or null
+
+    /**
+     * Constructor for SongRecord
+     * @param id The unique song id
+     * @param songName The generated song title
+     * @param midi The midi file, which must not be modified afterwards
+     */
+    public SongRecord(String id, String songName, byte[] midi) {
+        this.id = id;
+        this.songName = songName;
+        this.midi = midi;
+        this.midiFile = null;
+    }
+
+    /**
+     * Constructor for a SongRecord held on disk
+     * @param id The unique song id
+     * @param songName The generated song title
+     * @param midiFile The midi file, which must not be modified afterwards and is deleted once the song is stored
+     */
+    public SongRecord(String id, String songName, Path midiFile) {
+        this.id = id;
+        this.songName = songName;
+        this.midi = null;
+        this.midiFile = midiFile;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSongName() {
+        return songName;
+    }
+
+    /**
+     * Function to get the midi file
+     * The array is shared, callers must not modify it. A song held on disk is read into a new array on every call,
+     * stores that can write it in pieces should read getMidiFile() instead
+     * @return The midi file bytes
+     */
+    public byte[] getMidi() {
+        if (midi != null) {
+            return midi;
+        }
+        try {
+            return Files.readAllBytes(midiFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Getter function for the midi file of a song held on disk
+     * @return The file, or null if the song is held in memory
+     */
+    public Path getMidiFile() {
+        return midiFile;
+    }
+
+    /**
+     * Function to delete the midi file of a song held on disk, once it has been stored
+     */
+    void deleteMidiFile() {
+        if (midiFile != null) {
+            try {
+                Files.deleteIfExists(midiFile);
+            } catch (IOException e) {
+                IKLogger.warn("Could not delete " + midiFile + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,33 +1,279 @@
 package ikovsky;
 
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.PutItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 
-public class SongRepository {
-    // Removed AWS secret
-    AWSCredentials awsCredentials = new BasicAWSCredentials("", "");
-    AWSStaticCredentialsProvider awsCredentialsProvider = new AWSStaticCredentialsProvider(awsCredentials);
-    AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard().withRegion("eu-west-1").withCredentials(awsCredentialsProvider).build();
-    DynamoDB dynamoDB = new DynamoDB(client);
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-    Table table = dynamoDB.getTable("ikovsky-songs");
+/**
+ * SongStore backed by the ikovsky-songs DynamoDB table.
+ * Midi files are stored in the binary "midi-data" attribute, encoded with MidiCodec. Items written before this
+ * attribute existed hold a Base64 string in "midi-value" and are still readable.
+ * Songs too large to fit in one item are stored as content-addressed chunks: each chunk is its own item keyed
+ * "chunk:[sha256]" and the song item holds the ordered hashes in "midi-chunks". Identical chunks are stored once.
+ * A single instance is shared by the whole process so the pooled HTTP client, its keep-alive
+ * connections and the resolved credentials are reused across requests (and across warm Lambda invocations).
+ * Pool size and timeouts can be tuned with the IKOVSKY_DYNAMO_* environment variables.
+ */
+public class SongRepository implements SongStore {
+    private static final String CHUNK_KEY_PREFIX = "chunk:";
 
-    public void submitSongToDynamo(String id, String name, String midiString) {
-        Item item = new Item();
-        item.withPrimaryKey("song-id", id)
-                .withString("midi-value", midiString)
-                .withString("song-name", name)
+    private static volatile SongRepository instance;
+
+    private final AmazonDynamoDB client;
+    private final DynamoDB dynamoDB;
+    private final Table table;
+
+    private final ExecutorService chunkPool;                //Threads for reading and writing chunks in parallel
+    private final MidiChunks.KnownChunks writtenChunks;     //Chunks already in the table, which need not be rewritten
+
+    /**
+     * Function to get the process-wide repository, creating the client on first use
+     * @return The shared SongRepository
+     */
+    public static SongRepository getInstance() {
+        SongRepository repository = instance;
+        if (repository == null) {
+            synchronized (SongRepository.class) {
+                repository = instance;
+                if (repository == null) {
+                    repository = new SongRepository();
+                    instance = repository;
+                }
+            }
+        }
+        return repository;
+    }
+
+    private SongRepository() {
+        ClientConfiguration clientConfiguration = new ClientConfiguration()
+                .withMaxConnections(EnvironmentConfig.getInt("IKOVSKY_DYNAMO_MAX_CONNECTIONS", IKConstants.REPOSITORY_MAX_CONNECTIONS))
+                .withConnectionTimeout(EnvironmentConfig.getInt("IKOVSKY_DYNAMO_CONNECTION_TIMEOUT_MS", IKConstants.REPOSITORY_CONNECTION_TIMEOUT_MS))
+                .withSocketTimeout(EnvironmentConfig.getInt("IKOVSKY_DYNAMO_SOCKET_TIMEOUT_MS", IKConstants.REPOSITORY_SOCKET_TIMEOUT_MS))
+                .withRequestTimeout(EnvironmentConfig.getInt("IKOVSKY_DYNAMO_REQUEST_TIMEOUT_MS", IKConstants.REPOSITORY_REQUEST_TIMEOUT_MS))
+                .withConnectionTTL(IKConstants.REPOSITORY_CONNECTION_TTL_MS)
+                .withTcpKeepAlive(true)
+                .withReaper(true);
+
+        //Credentials come from the environment / Lambda execution role via the default chain, resolved once here
+        client = AmazonDynamoDBClientBuilder.standard()
+                .withRegion(EnvironmentConfig.getString("AWS_REGION", IKConstants.REPOSITORY_DEFAULT_REGION))
+                .withCredentials(DefaultAWSCredentialsProviderChain.getInstance())
+                .withClientConfiguration(clientConfiguration)
+                .build();
+        dynamoDB = new DynamoDB(client);
+
+        table = dynamoDB.getTable(EnvironmentConfig.getString("IKOVSKY_SONG_TABLE", IKConstants.REPOSITORY_TABLE_NAME));
+
+        chunkPool = Executors.newFixedThreadPool(IKConstants.REPOSITORY_CHUNK_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "ikovsky-chunk-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writtenChunks = new MidiChunks.KnownChunks(IKConstants.REPOSITORY_KNOWN_CHUNKS);
+    }
+
+    @Override
+    public void put(SongRecord song) {
+        table.putItem(toItem(song));
+    }
+
+    @Override
+    public SongRecord get(String id) {
+        Item item = table.getItem("song-id", id);
+        return item == null ? null : fromItem(item);
+    }
+
+    @Override
+    public List<SongRecord> list(int limit) {
+        //Chunks are filtered out by DynamoDB, so the limit counts songs and the scan pages on until it has enough
+        ScanSpec spec = new ScanSpec()
+                .withFilterExpression("NOT begins_with(#id, :chunk)")
+                .withNameMap(Map.of("#id", "song-id"))
+                .withValueMap(new ValueMap().withString(":chunk", CHUNK_KEY_PREFIX))
+                .withMaxResultSize(limit);
+        List<SongRecord> songs = new ArrayList<>();
+        for (Item item : table.scan(spec)) {
+            songs.add(fromItem(item));
+        }
+        return songs;
+    }
+
+    @Override
+    public int maxBatchSize() {
+        return IKConstants.REPOSITORY_MAX_BATCH_SIZE;
+    }
+
+    /**
+     * Function to write up to 25 songs with a single BatchWriteItem call
+     * @param songs The songs to write
+     * @return The songs DynamoDB left unprocessed (e.g. due to throttling)
+     */
+    @Override
+    public List<SongRecord> writeBatch(List<SongRecord> songs) {
+        Map<String, SongRecord> songsById = new HashMap<>();
+        List<Item> items = new ArrayList<>(songs.size());
+        for (SongRecord song : songs) {
+            songsById.put(song.getId(), song);
+            items.add(toItem(song));
+        }
+
+        BatchWriteItemOutcome outcome = dynamoDB.batchWriteItem(new TableWriteItems(table.getTableName()).withItemsToPut(items));
+
+        List<SongRecord> unprocessed = new ArrayList<>();
+        List<WriteRequest> requests = outcome.getUnprocessedItems().get(table.getTableName());
+        if (requests != null) {
+            for (WriteRequest request : requests) {
+                unprocessed.add(songsById.get(request.getPutRequest().getItem().get("song-id").getS()));
+            }
+        }
+        return unprocessed;
+    }
+
+    /**
+     * Function to build the item for a song, writing its chunks first if it is too large to store inline
+     * A song held on disk is read a chunk at a time, so it is never in memory as a whole
+     */
+    private Item toItem(SongRecord song) {
+        Item item = new Item()
+                .withPrimaryKey("song-id", song.getId())
+                .withString("song-name", song.getSongName())
                 .withBoolean("saved", false);
 
-        PutItemOutcome outcome = table.putItem(item);
+        try {
+            Path file = song.getMidiFile();
+            long fileLength = file != null ? Files.size(file) : 0;
+            if (fileLength > IKConstants.REPOSITORY_INLINE_MIDI_LIMIT) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    return item.withList("midi-chunks", writeChunks(in)).withNumber("midi-length", fileLength);
+                }
+            }
+
+            byte[] midi = song.getMidi();
+            byte[] encoded = MidiCodec.encode(midi);
+            if (encoded.length <= IKConstants.REPOSITORY_INLINE_MIDI_LIMIT) {
+                return item.withBinary("midi-data", encoded);
+            }
+            return item.withList("midi-chunks", writeChunks(new ByteArrayInputStream(midi)))
+                    .withNumber("midi-length", midi.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Function to store every chunk of a midi file that is not already stored, in parallel
+     * Only one chunk per chunk thread is being written at a time, so the chunks held in memory are bounded
+     * @return The ordered chunk hashes
+     */
+    private List<String> writeChunks(InputStream midi) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        Deque<Future<?>> writes = new ArrayDeque<>();
+
+        for (byte[] chunk = MidiChunks.read(midi, IKConstants.REPOSITORY_CHUNK_SIZE); chunk.length > 0;
+                chunk = MidiChunks.read(midi, IKConstants.REPOSITORY_CHUNK_SIZE)) {
+            String hash = MidiChunks.hash(chunk);
+            hashes.add(hash);
+            if (!writtenChunks.contains(hash)) {
+                if (writes.size() >= IKConstants.REPOSITORY_CHUNK_THREADS) {
+                    await(writes.poll());
+                }
+                byte[] data = chunk;
+                writes.add(chunkPool.submit(() -> {
+                    table.putItem(new Item()
+                            .withPrimaryKey("song-id", CHUNK_KEY_PREFIX + hash)
+                            .withBinary("chunk-data", MidiCodec.encode(data)));
+                    writtenChunks.add(hash);
+                }));
+            }
+        }
+
+        awaitAll(writes);
+        return hashes;
+    }
+
+    private SongRecord fromItem(Item item) {
+        byte[] midi;
+        if (item.hasAttribute("midi-chunks")) {
+            midi = readChunks(item.getList("midi-chunks"), item.getInt("midi-length"));
+        } else if (item.hasAttribute("midi-data")) {
+            midi = MidiCodec.decode(item.getBinary("midi-data"));
+        } else {
+            midi = Base64.getDecoder().decode(item.getString("midi-value"));
+        }
+        return new SongRecord(item.getString("song-id"), item.getString("song-name"), midi);
+    }
+
+    /**
+     * Function to fetch a song's chunks in parallel and reassemble the midi file
+     */
+    private byte[] readChunks(List<String> hashes, int length) {
+        List<Future<byte[]>> reads = new ArrayList<>(hashes.size());
+        for (String hash : hashes) {
+            reads.add(chunkPool.submit(() -> {
+                Item chunkItem = table.getItem("song-id", CHUNK_KEY_PREFIX + hash);
+                if (chunkItem == null) {
+                    throw new IllegalStateException("Missing midi chunk " + hash);
+                }
+                byte[] chunk = MidiCodec.decode(chunkItem.getBinary("chunk-data"));
+                if (!MidiChunks.hash(chunk).equals(hash)) {
+                    throw new IllegalStateException("Corrupt midi chunk " + hash);
+                }
+                return chunk;
+            }));
+        }
+
+        List<byte[]> chunks = new ArrayList<>(reads.size());
+        for (Future<byte[]> read : reads) {
+            chunks.add(await(read));
+        }
+        return MidiChunks.join(chunks, length);
+    }
+
+    private static void awaitAll(Collection<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            await(future);
+        }
+    }
 
-        System.out.println(outcome.getPutItemResult().toString());
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during chunk transfer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
     }
 }
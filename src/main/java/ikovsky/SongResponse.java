@@ -4,15 +4,18 @@ public class SongResponse {
     private String id;
     private String songName;
     private String midiString;
+    private long seed;
 
     public SongResponse(
             String id,
             String songName,
-            String midiString
+            String midiString,
+            long seed
     ) {
         this.id = id;
         this.songName = songName;
         this.midiString = midiString;
+        this.seed = seed;
     }
 
     public String getId() {
@@ -38,4 +41,12 @@ public class SongResponse {
     public void setMidiString(String midiString) {
         this.midiString = midiString;
     }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
 }
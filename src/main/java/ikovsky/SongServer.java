@@ -0,0 +1,376 @@
+package ikovsky;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Standalone HTTP server, for running iKovsky as a long-lived service instead of on Lambda, so the JIT, the caches
+ * and the client's connections stay warm between requests. It serves the Lambda handlers' endpoints on the JDK's
+ * built-in HTTP server:
+ * - POST / or /generate: one song, as Handler
+ * - POST /batch: several songs, as Handler
+ * - POST /stream: the midi file, sent as each track is written, as StreamingHandler
+ * - GET /health
+ *
+ * Each request is read and answered on its own virtual thread (on Java 21 and later, otherwise a bounded thread pool).
+ * Songs are composed on a fixed pool of one thread per core, so however many connections are open the CPU work never
+ * has more threads than cores. A batch, and the parts of each song, are written on the pool thread that took the
+ * request rather than on the shared pools the Lambda handlers use.
+ *
+ * Requests are admitted before their body is read: up to one per compose thread plus a bounded queue. Once that many
+ * are in progress more are turned away straight away with 503 and Retry-After, rather than waiting longer than a client
+ * would. Bodies over SERVER_MAX_BODY_BYTES are turned away with 413 and the connection closed without reading them to
+ * their end, and a client that takes more than SERVER_MAX_REQUEST_SECONDS to send its request has its connection closed.
+ * Connections are kept alive: every response has a length or is chunked. If a song fails once its response has started
+ * the connection is dropped, so the client sees the response was cut short rather than a complete, truncated song.
+ *
+ * Settings: IKOVSKY_SERVER_PORT, IKOVSKY_SERVER_COMPOSE_THREADS (cores) and IKOVSKY_SERVER_QUEUE_CAPACITY
+ * (compose threads * SERVER_QUEUE_PER_THREAD), along with those of the Lambda handlers (song store, caches, metrics).
+ */
+public final class SongServer {
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    static {
+        //Read by the JDK's server when the first one is created, unless they were set on the command line
+        setDefault("sun.net.httpserver.maxReqTime", Integer.toString(IKConstants.SERVER_MAX_REQUEST_SECONDS));
+        setDefault("jdk.httpserver.maxConnections", Integer.toString(IKConstants.SERVER_MAX_CONNECTIONS));
+    }
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor composePool;
+    private final Semaphore admitted;           //Requests composing or waiting for a compose thread
+    private final ExecutorService requestThreads;
+    private final Handler handler;
+
+    /**
+     * Constructor for SongServer, binds the port without serving requests until start()
+     * @param address The address to listen on
+     * @param composeThreads The number of requests composed at once
+     * @param queueCapacity The number of requests that can wait for a compose thread
+     * @throws IOException if the address could not be bound
+     */
+    public SongServer(InetSocketAddress address, int composeThreads, int queueCapacity) throws IOException {
+        composePool = new ThreadPoolExecutor(composeThreads, composeThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads("ikovsky-compose"), new ThreadPoolExecutor.AbortPolicy());
+        composePool.prestartAllCoreThreads();
+        admitted = new Semaphore(composeThreads + queueCapacity);
+        requestThreads = newRequestExecutor(composeThreads + queueCapacity + IKConstants.SERVER_SPARE_REQUEST_THREADS);
+
+        //Batches are composed and encoded on the compose thread that took the request, one song after another
+        handler = new Handler(new BatchGenerator(Runnable::run, Runnable::run, null, SongStores.getDefault(),
+                ResultCache.getDefault()), null);
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(requestThreads);
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int composeThreads = EnvironmentConfig.getInt("IKOVSKY_SERVER_COMPOSE_THREADS", cores);
+        SongServer server = new SongServer(
+                new InetSocketAddress(EnvironmentConfig.getInt("IKOVSKY_SERVER_PORT", IKConstants.SERVER_PORT)),
+                composeThreads,
+                EnvironmentConfig.getInt("IKOVSKY_SERVER_QUEUE_CAPACITY", composeThreads * IKConstants.SERVER_QUEUE_PER_THREAD));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(IKConstants.SERVER_STOP_DELAY_SECONDS)));
+        server.start();
+        IKLogger.info("iKovsky server listening on port " + server.getPort() + " with " + composeThreads + " compose threads");
+    }
+
+    /**
+     * Function to start serving requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Function to stop the server, letting requests in progress finish and writing out songs waiting to be stored
+     * @param delaySeconds The longest time to wait for requests in progress
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        composePool.shutdown();
+        requestThreads.shutdown();
+        try {
+            SongStores.getDefault().flush(TimeUnit.SECONDS.toMillis(delaySeconds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Function to answer a request
+     * The exchange is only closed once its response is complete. A request that fails part way through its response
+     * throws instead, and the server then drops the connection.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+
+        if (method.equals("OPTIONS")) {
+            send(exchange, 204, Handler.corsHeaders(), null);
+        } else if (method.equals("GET") && path.equals("/health")) {
+            send(exchange, 200, Handler.corsHeaders(), "{\"status\":\"ok\"}");
+        } else if (!method.equals("POST")) {
+            sendError(exchange, 405, "Method not allowed");
+        } else if (path.equals("/stream") || path.equals("/") || path.equals("/generate") || path.equals("/batch")) {
+            if (!admitted.tryAcquire()) {
+                sendBusy(exchange);
+            } else {
+                try {
+                    String body = readBody(exchange);
+                    if (body == null) {
+                        //The connection is closed after the response rather than the body being read to its end.
+                        //Up to another SERVER_MAX_BODY_BYTES are discarded first, so a client still sending a body not
+                        //far over the limit gets the response instead of a reset connection
+                        discard(exchange.getRequestBody(), IKConstants.SERVER_MAX_BODY_BYTES);
+                        Map<String, String> headers = Handler.corsHeaders();
+                        headers.put("Connection", "close");
+                        sendError(exchange, 413, headers, "Request body is larger than " + IKConstants.SERVER_MAX_BODY_BYTES + " bytes");
+                    } else if (path.equals("/stream")) {
+                        stream(exchange, body);
+                    } else {
+                        generate(exchange, path, body);
+                    }
+                } catch (InvalidRequestException e) {
+                    sendError(exchange, 400, e.getMessage());
+                } finally {
+                    admitted.release();
+                }
+            }
+        } else {
+            sendError(exchange, 404, "Not found");
+        }
+        exchange.close();
+    }
+
+    /**
+     * Function to read a request body of up to SERVER_MAX_BODY_BYTES
+     * @return The body, or null if it is too large
+     * @throws InvalidRequestException if the Content-Length is not a length
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            long declared;
+            try {
+                declared = Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidRequestException("Invalid Content-Length: " + length);
+            }
+            if (declared < 0) {
+                throw new InvalidRequestException("Invalid Content-Length: " + length);
+            }
+            if (declared > IKConstants.SERVER_MAX_BODY_BYTES) {
+                return null;
+            }
+        }
+        //Chunked bodies have no length, so one byte more than the limit is read to find those that are too large
+        byte[] body = exchange.getRequestBody().readNBytes(IKConstants.SERVER_MAX_BODY_BYTES + 1);
+        return body.length > IKConstants.SERVER_MAX_BODY_BYTES ? null : new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Function to read and drop up to the given number of bytes of a request body
+     */
+    private static void discard(InputStream in, long limit) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = limit;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Function to answer a request with the Lambda handler, run on the compose pool
+     */
+    private void generate(HttpExchange exchange, String path, String body) throws IOException {
+        Map<String, Object> event = Map.of("routeKey", "POST " + path, "rawPath", path, "body", body);
+        APIGatewayV2HTTPResponse response = compose(exchange, () -> handler.handleRequest(event, null));
+        if (response != null) {
+            send(exchange, response.getStatusCode(), response.getHeaders(), response.getBody());
+        }
+    }
+
+    /**
+     * Function to stream a song as it is written, with the headers StreamingHandler sends
+     * The whole song is written from the compose pool, the chunks going out as each track is finished
+     */
+    private void stream(HttpExchange exchange, String body) throws IOException {
+        RequestMetrics metrics = new RequestMetrics();
+        SongGenerator songGenerator;
+        try {
+            metrics.begin(RequestMetrics.Stage.DECODE);
+            GenerationRequest request = GenerationRequest.fromJson(body);
+            metrics.end();
+            songGenerator = new SongGenerator(false, null, request, SongStores.getDefault(), metrics);
+            songGenerator.setPartExecutor(null);
+        } catch (InvalidRequestException e) {
+            PipelineMetrics.record(metrics);
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        compose(exchange, () -> {
+            SongResponse cached = songGenerator.findCached();
+            if (cached != null) {
+                byte[] midi = Base64.getDecoder().decode(cached.getMidiString());
+                StreamingHandler.songHeaders(cached.getId(), cached.getSongName(), cached.getSeed())
+                        .forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+                exchange.sendResponseHeaders(200, midi.length);
+                exchange.getResponseBody().write(midi);
+            } else {
+                songGenerator.nameSong();
+                StreamingHandler.songHeaders(songGenerator.getSongId(), songGenerator.getSongName(), songGenerator.getSeed())
+                        .forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+                exchange.sendResponseHeaders(200, 0); //Chunked, the length is not known until the song is written
+                songGenerator.streamSong(exchange.getResponseBody());
+            }
+            PipelineMetrics.record(metrics);
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * Function to run a request's work on the compose pool and wait for it
+     * @return The result, or null if the request was turned away or failed and has been answered with an error
+     * @throws IOException if the work failed after its response had started, which can then only be cut short
+     */
+    private <T> T compose(HttpExchange exchange, Callable<T> work) throws IOException {
+        Future<T> result;
+        try {
+            result = composePool.submit(work);
+        } catch (RejectedExecutionException e) {
+            sendBusy(exchange);
+            return null;
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            failed(exchange, 503, "Server is stopping", e);
+        } catch (ExecutionException e) {
+            IKLogger.warn("Request failed: " + e.getCause());
+            failed(exchange, 500, "Unable to generate song", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Function to answer a request that failed with an error, or to abort it if its response has already started
+     */
+    private static void failed(HttpExchange exchange, int statusCode, String message, Throwable cause) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            throw new IOException("Response cut short: " + message, cause);
+        }
+        sendError(exchange, statusCode, message);
+    }
+
+    private static void sendBusy(HttpExchange exchange) throws IOException {
+        Map<String, String> headers = Handler.corsHeaders();
+        headers.put("Retry-After", RETRY_AFTER_SECONDS);
+        send(exchange, 503, headers, "{\"error\":\"Server is busy, try again shortly\"}");
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, Map<String, String> headers, String body) throws IOException {
+        byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        if (headers != null) {
+            headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+        }
+        if (bytes.length > 0 && !exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        }
+        exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+        sendError(exchange, statusCode, Handler.corsHeaders(), message);
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, Map<String, String> headers, String message) throws IOException {
+        String json = "{\"error\":" + quote(message == null ? "" : message) + "}";
+        send(exchange, statusCode, headers, json);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Function to create the executor requests are handled on: a virtual thread per request where the runtime has
+     * them (Java 21+), found by reflection so the server still builds and runs on Java 17
+     * Without them requests are handled on a bounded pool, with as many requests again waiting for a thread. When the
+     * pool and its queue are full the JDK's server closes the new connection.
+     * @param maxThreads The most request threads of the bounded pool
+     */
+    private static ExecutorService newRequestExecutor(int maxThreads) {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            IKLogger.info("Virtual threads are not available, handling requests on a pool of " + maxThreads + " threads");
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(maxThreads), daemonThreads("ikovsky-request"), new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
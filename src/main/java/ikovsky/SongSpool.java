@@ -0,0 +1,132 @@
+package ikovsky;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only file of songs that could not be written to the song store.
+ * Songs are spooled while the store is slow or down and replayed once it recovers.
+ * Each record is a sequence of length-prefixed fields (UTF-8 id and name, then the midi file encoded by MidiCodec),
+ * a record cut short by a crash is ignored on replay.
+ */
+public class SongSpool {
+    private static final int MAX_FIELD_BYTES = 64 * 1024 * 1024; //Anything larger is treated as a corrupt record
+
+    private final Path spoolFile;
+    private final Path replayFile;   //The spool is moved here while it is being replayed
+
+    /**
+     * Constructor for SongSpool
+     * @param location The path of the spool file
+     */
+    public SongSpool(String location) {
+        spoolFile = Paths.get(location);
+        replayFile = Paths.get(location + ".replay");
+    }
+
+    /**
+     * Function to durably append songs to the spool
+     * @param songs The songs to spool
+     * @throws IOException if the spool could not be written
+     */
+    public synchronized void append(List<SongRecord> songs) throws IOException {
+        if (songs.isEmpty()) {
+            return;
+        }
+
+        try (FileOutputStream file = new FileOutputStream(spoolFile.toFile(), true);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            for (SongRecord song : songs) {
+                writeField(out, song.getId().getBytes(StandardCharsets.UTF_8));
+                writeField(out, song.getSongName().getBytes(StandardCharsets.UTF_8));
+                writeField(out, MidiCodec.encode(song.getMidi()));
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+    }
+
+    /**
+     * Function to check whether any songs are waiting to be replayed
+     * @return True if the spool holds songs
+     */
+    public synchronized boolean hasSpooledSongs() {
+        try {
+            return (Files.exists(spoolFile) && Files.size(spoolFile) > 0) || Files.exists(replayFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Function to take the spooled songs out for replay
+     * The songs stay on disk in the replay file until finishReplay() is called, so a crash part way through a replay
+     * loses nothing. A replay file left behind by an interrupted replay is replayed first, on its own, and songs
+     * spooled since then wait for the next replay.
+     * @return The songs to replay, oldest first
+     * @throws IOException if the spool could not be read
+     */
+    public synchronized List<SongRecord> beginReplay() throws IOException {
+        List<SongRecord> songs = new ArrayList<>();
+        if (!Files.exists(replayFile)) {
+            if (!Files.exists(spoolFile)) {
+                return songs;
+            }
+            Files.move(spoolFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+        readAll(replayFile, songs);
+        return songs;
+    }
+
+    /**
+     * Function to discard the replay file, once every song taken by beginReplay() has been written or spooled again
+     * @throws IOException if the replay file could not be deleted
+     */
+    public synchronized void finishReplay() throws IOException {
+        Files.deleteIfExists(replayFile);
+    }
+
+    private static void readAll(Path path, List<SongRecord> songs) throws IOException {
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                try {
+                    String id = new String(readField(in), StandardCharsets.UTF_8);
+                    String name = new String(readField(in), StandardCharsets.UTF_8);
+                    byte[] midi = MidiCodec.decode(readField(in)); //Also reads Base64 midi spooled by older versions
+                    songs.add(new SongRecord(id, name, midi));
+                } catch (EOFException e) {
+                    return; //End of spool, or a partially written last record
+                }
+            }
+        }
+    }
+
+    private static void writeField(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readField(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FIELD_BYTES) {
+            throw new EOFException("Corrupt spool record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
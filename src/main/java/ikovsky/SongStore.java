@@ -0,0 +1,69 @@
+package ikovsky;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage backend for generated songs (e.g. DynamoDB, a local log file, or memory)
+ */
+public interface SongStore extends SongBatchWriter {
+
+    /**
+     * Function to store a song, replacing any song with the same id
+     * @param song The song to store
+     */
+    void put(SongRecord song);
+
+    /**
+     * Function to store a song held on disk (see SongRecord), deleting its midi file once it has been stored
+     * The default stores it with put() on the calling thread
+     * @param song The song to store
+     */
+    default void putFile(SongRecord song) {
+        try {
+            put(song);
+        } finally {
+            song.deleteMidiFile();
+        }
+    }
+
+    /**
+     * Function to look up a song by id
+     * @param id The song id
+     * @return The song, or null if there is no song with that id
+     */
+    SongRecord get(String id);
+
+    /**
+     * Function to list stored songs, in no particular order
+     * @param limit The maximum number of songs to return
+     * @return Up to limit songs
+     */
+    List<SongRecord> list(int limit);
+
+    @Override
+    default int maxBatchSize() {
+        return IKConstants.REPOSITORY_MAX_BATCH_SIZE;
+    }
+
+    /**
+     * Default batch write that puts each song in turn, a song whose put fails is returned as unprocessed
+     */
+    @Override
+    default List<SongRecord> writeBatch(List<SongRecord> songs) {
+        List<SongRecord> unprocessed = new ArrayList<>();
+        RuntimeException failure = null;
+        for (SongRecord song : songs) {
+            try {
+                put(song);
+            } catch (RuntimeException e) {
+                unprocessed.add(song);
+                failure = e;
+            }
+        }
+        if (failure != null && unprocessed.size() == songs.size()) {
+            throw failure;
+        }
+        return unprocessed;
+    }
+}
@@ -0,0 +1,52 @@
+package ikovsky;
+
+/**
+ * Factory for the process-wide song store.
+ * The backend is chosen with the IKOVSKY_SONG_STORE environment variable:
+ * "dynamo" (default) for the ikovsky-songs table, "local" for a LocalSongStore in IKOVSKY_LOCAL_STORE_DIR,
+ * or "memory" for an InMemorySongTable. Writes always go through a write-behind SongPersistenceQueue.
+ */
+public final class SongStores {
+    private static volatile SongPersistenceQueue defaultStore;
+
+    private SongStores() {
+    }
+
+    /**
+     * Function to get the shared write-behind store, creating it on first use
+     * @return The process-wide SongPersistenceQueue
+     */
+    public static SongPersistenceQueue getDefault() {
+        SongPersistenceQueue store = defaultStore;
+        if (store == null) {
+            synchronized (SongStores.class) {
+                store = defaultStore;
+                if (store == null) {
+                    store = new SongPersistenceQueue(createBackend(EnvironmentConfig.getString("IKOVSKY_SONG_STORE", "dynamo")),
+                            new SongSpool(EnvironmentConfig.getString("IKOVSKY_SPOOL_PATH", IKConstants.PERSISTENCE_SPOOL_PATH)),
+                            EnvironmentConfig.getInt("IKOVSKY_PERSISTENCE_QUEUE_CAPACITY", IKConstants.PERSISTENCE_QUEUE_CAPACITY));
+                    defaultStore = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Function to create a song store backend by name
+     * @param type "dynamo", "local" or "memory"
+     * @return The new backend
+     */
+    public static SongStore createBackend(String type) {
+        switch (type.toLowerCase()) {
+            case "memory":
+                return new InMemorySongTable();
+            case "local":
+                return new LocalSongStore(EnvironmentConfig.getString("IKOVSKY_LOCAL_STORE_DIR", IKConstants.LOCAL_STORE_DIR));
+            case "dynamo":
+                return SongRepository.getInstance();
+            default:
+                throw new IllegalArgumentException("Unknown song store: " + type);
+        }
+    }
+}
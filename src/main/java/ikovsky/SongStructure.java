@@ -2,7 +2,7 @@ package ikovsky;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * @author Paul Hudson
@@ -45,13 +45,30 @@ public class SongStructure {
 
     public int noteDensity; //Min and Max note densities
 
+    public ChordTransitions chordTransitions; //Optional chord transition model, null to pick chords independently from the weightings
+
+    public boolean canonical; //Compose in the canonical key with no tempo or instrument, applying them when encoding
+
+    public double longFormMinutes; //Length of a long-form song, 0 for a song of the verse/chorus structure
+
     /**
      * Constructor for SongStructure class
      */
     public SongStructure(String key, String tempo, String timeSig, String octaveLow,
                          String octaveHigh, String dynamicsLow, String dynamicsHigh, String noteDensity, String instrument,
                          String weightA, String weightB, String weightC, String weightD, String weightE, String weightF, String weightG) {
-        Random rand = new Random();                        //Random Number Generator
+        this(key, tempo, timeSig, octaveLow, octaveHigh, dynamicsLow, dynamicsHigh, noteDensity, instrument,
+                weightA, weightB, weightC, weightD, weightE, weightF, weightG, RandomSource.withRandomSeed());
+    }
+
+    /**
+     * Constructor for SongStructure class, drawing the random structure choices from the song's RandomSource
+     */
+    public SongStructure(String key, String tempo, String timeSig, String octaveLow,
+                         String octaveHigh, String dynamicsLow, String dynamicsHigh, String noteDensity, String instrument,
+                         String weightA, String weightB, String weightC, String weightD, String weightE, String weightF, String weightG,
+                         RandomSource random) {
+        SplittableRandom rand = random.stream("structure"); //Random Number Generator
 
         this.key = validateKey(key);
         this.isMinorKey = isMinorKey(key);
@@ -79,43 +96,116 @@ public class SongStructure {
         this.duration = rand.nextInt(IKConstants.SONG_DURATION_UPPER - IKConstants.SONG_DURATION_LOWER) + IKConstants.SONG_DURATION_LOWER;
         this.numVerses = rand.nextInt(IKConstants.SONG_VERSE_CHORUS_UPPER - IKConstants.SONG_VERSE_CHORUS_LOWER) + IKConstants.SONG_DURATION_UPPER;
 
-        this.verseStructure = generateVerseStructure();
+        this.verseStructure = generateVerseStructure(rand);
 
         this.rhythmChance = IKConstants.DEFAULT_RHYTHM_CHANCE; //set to default
 
         //Use roulette selection for deciding the number of different parts to the song, between a solo part, and a quartet
         this.numParts = generateNumParts(rand);
 
-        printStructureDetails(); //debug output
+        if (IKLogger.isDebugEnabled()) {
+            printStructureDetails(); //debug output
+        }
+    }
+
+    /**
+     * Function to set a first order chord transition matrix for the song
+     * @param matrix 7 rows of 7 weightings (row = current chord, column = next chord), or null to use the chord weightings
+     * @throws InvalidRequestException if the matrix is not 7 rows of 7 numbers
+     */
+    public void setChordTransitions(double[][] matrix) {
+        if (matrix == null) {
+            chordTransitions = null;
+            return;
+        }
+        try {
+            chordTransitions = ChordTransitions.fromMatrix(matrix);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("Error setting chord transitions: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Function to make the song a long-form song of a set length, rather than one of the verse/chorus structure
+     * @param minutes The length of the song in minutes, or null for a song of the verse/chorus structure
+     * @throws InvalidRequestException if the length is not a number of minutes up to the long-form limits, which
+     * also cap the number of beats (minutes * tempo) so the midi file stays a bounded size
+     */
+    public void setLongFormMinutes(String minutes) {
+        if (minutes == null) {
+            longFormMinutes = 0;
+            return;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(minutes.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Duration format invalid:" + minutes, e);
+        }
+        if (!(value > 0 && value <= IKConstants.LONG_FORM_MAX_MINUTES)) {
+            throw new InvalidRequestException("Duration must be more than 0 and at most " + IKConstants.LONG_FORM_MAX_MINUTES + " minutes");
+        }
+        if (value * tempo > IKConstants.LONG_FORM_MAX_BEATS) {
+            throw new InvalidRequestException("Duration at tempo " + tempo + " can be at most "
+                    + (IKConstants.LONG_FORM_MAX_BEATS / tempo) + " minutes (" + IKConstants.LONG_FORM_MAX_BEATS + " beats)");
+        }
+        longFormMinutes = value;
+    }
+
+    public boolean isLongForm() {
+        return longFormMinutes > 0;
+    }
+
+    /**
+     * Function to get the key the song is composed in
+     * @return The canonical key for canonical compositions, otherwise the song's key
+     */
+    public int getCompositionKey() {
+        return canonical ? IKConstants.CANONICAL_KEY : key;
+    }
+
+    /**
+     * Function to get the settings to encode the composition with
+     * Minor keys are composed in C minor rather than its relative A minor, so both modes transpose from the same key.
+     * The transposition is the nearest one, -6 to +5 semitones, so notes move at most half an octave from the
+     * requested octave range
+     * @return The transposition, tempo and instrument for a canonical composition, or null if they were composed in
+     */
+    public RenderSettings getRenderSettings() {
+        if (!canonical) {
+            return null;
+        }
+        int half = IKConstants.NUM_CHROMATIC_NOTES / 2;
+        int transpose = Math.floorMod(key - IKConstants.CANONICAL_KEY + half, IKConstants.NUM_CHROMATIC_NOTES) - half;
+        return new RenderSettings(transpose, tempo, instrument);
     }
 
     /**
      * Function to provide debug output, logging the musical properties of the song structure to the console=
      */
     public void printStructureDetails() {
-        System.out.println("---------- Song Structure ----------");
-        System.out.println("Key: " + key + " isMinor: " + isMinorKey);
-        System.out.println("Tempo: " + tempo);
-        System.out.println("Duration: " + duration);
-        System.out.println("Num Parts: " + numParts);
-        System.out.println("Time Sig: " + timeSigBeatsPerBar + "/" + timeSigNoteValue);
-        System.out.println("Octaves: " + minOctave + " - " + maxOctave);
-        System.out.println("Dynamics: " + minDynamic + " - " + maxDynamic);
-        System.out.println("Note Density: " + noteDensity);
-        System.out.println("Weights: " + Arrays.toString(chordWeightings));
-        System.out.println("------------------------------------");
+        IKLogger.debug("---------- Song Structure ----------");
+        IKLogger.debug("Key: " + key + " isMinor: " + isMinorKey);
+        IKLogger.debug("Tempo: " + tempo);
+        IKLogger.debug("Duration: " + duration);
+        IKLogger.debug("Num Parts: " + numParts);
+        IKLogger.debug("Time Sig: " + timeSigBeatsPerBar + "/" + timeSigNoteValue);
+        IKLogger.debug("Octaves: " + minOctave + " - " + maxOctave);
+        IKLogger.debug("Dynamics: " + minDynamic + " - " + maxDynamic);
+        IKLogger.debug("Note Density: " + noteDensity);
+        IKLogger.debug("Weights: " + Arrays.toString(chordWeightings));
+        IKLogger.debug("------------------------------------");
     }
 
-    private ArrayList<Integer> generateVerseStructure() {
+    private ArrayList<Integer> generateVerseStructure(SplittableRandom rand) {
         ArrayList<Integer> verseStructure = new ArrayList<>();
-        Random rand1 = new Random();
         for (int i = 0; i < duration; i++) {
-            verseStructure.add(rand1.nextInt(numVerses));
+            verseStructure.add(rand.nextInt(numVerses));
         }
         return verseStructure;
     }
 
-    private int generateNumParts(Random rand) {
+    private int generateNumParts(SplittableRandom rand) {
         double partsP = rand.nextDouble();
         if (partsP < IKConstants.DEFAULT_NUM_PARTS_1_PROBABILITY) {
             return 1;
@@ -149,9 +239,13 @@ public class SongStructure {
 
     private double parseChordWeighting(String chordWeightingArg) {
         if (!chordWeightingArg.isEmpty() && chordWeightingArg.length() <= 4 && chordWeightingArg.matches("^([+-]?\\d*\\.?\\d*)$")) {
-            return Double.parseDouble(chordWeightingArg);
+            try {
+                return Double.parseDouble(chordWeightingArg);
+            } catch (NumberFormatException e) {
+                throw new InvalidRequestException("Error setting chord weighting, input = " + chordWeightingArg, e);
+            }
         } else {
-            throw new RuntimeException("Error setting chord weighting, input = " + chordWeightingArg);
+            throw new InvalidRequestException("Error setting chord weighting, input = " + chordWeightingArg);
         }
     }
 
@@ -167,7 +261,7 @@ public class SongStructure {
             //If the parsed instrument value is greater than the maximum (126), set it to 0 (Grand Piano)
             return instrumentInt < 126 ? instrumentInt : 0;
         } else {
-            throw new RuntimeException("Error setting instrument, input = " + instrumentStr);
+            throw new InvalidRequestException("Error setting instrument, input = " + instrumentStr);
         }
     }
 
@@ -185,7 +279,7 @@ public class SongStructure {
             //Ensure parameter is within range (0 - 100)
             return Math.min(minDynamicInt, 100);
         } else {
-            throw new RuntimeException("Error setting dynamics lower, input = " + dynamicsLowArg);
+            throw new InvalidRequestException("Error setting dynamics lower, input = " + dynamicsLowArg);
         }
     }
 
@@ -201,7 +295,7 @@ public class SongStructure {
             //Adjust the value to sensible parameters if needed
             return Math.max(maxOctaveInt, IKConstants.SONG_OCTAVE_UPPER);
         } else {
-            throw new RuntimeException("Error setting octave higher, input = " + octaveUpperArg); //Add error message
+            throw new InvalidRequestException("Error setting octave higher, input = " + octaveUpperArg); //Add error message
         }
     }
 
@@ -218,7 +312,7 @@ public class SongStructure {
             //Adjust the value to sensible parameters if needed
             return Math.max(minOctaveInt, IKConstants.SONG_OCTAVE_LOWER);
         } else {
-            throw new RuntimeException("Error setting octave lower, input = " + octaveLowerArg); //Add error message
+            throw new InvalidRequestException("Error setting octave lower, input = " + octaveLowerArg); //Add error message
         }
     }
 
@@ -232,13 +326,16 @@ public class SongStructure {
         //Check the string isn't empty, is greater than the minimum length (X/X = 3 chars in length)
         //Also assert that the two integers are split with a "/" character and the numbers entered are not float values
         if (!timeSigArg.isEmpty() && timeSigArg.length() >= 3 &&
-                timeSigArg.matches("[0-9]+/[0-9]+") && timeSigArg.contains("/") &&
+                timeSigArg.matches("[0-9]{1,2}/[0-9]{1,2}") && timeSigArg.contains("/") &&
                 !timeSigArg.endsWith("/") && !timeSigArg.startsWith("/") &&
                 !timeSigArg.contains(".")) {
             String[] timeSigStr = timeSigArg.split("/"); //Get the two integers
 
             //Set the relative beat value for the time signature
             int timeSigNoteValueInt = Integer.parseInt(timeSigStr[1]);
+            if (timeSigNoteValueInt <= 0) {
+                throw new InvalidRequestException("Time signature note value must be more than 0: " + timeSigArg);
+            }
 
             switch (timeSigNoteValueInt) {
                 case 1:
@@ -256,7 +353,7 @@ public class SongStructure {
                     return jm.constants.Durations.QUARTER_NOTE;
             }
         } else {
-            throw new RuntimeException("Unable to parse time signature, ensure the value is a string of format [4/4] or [3/8] etc.: " + timeSigArg); //Add error message
+            throw new InvalidRequestException("Unable to parse time signature, ensure the value is a string of format [4/4] or [3/8] etc.: " + timeSigArg); //Add error message
         }
     }
 
@@ -264,14 +361,18 @@ public class SongStructure {
         //Check the string isn't empty, is greater than the minimum length (X/X = 3 chars in length)
         //Also assert that the two integers are split with a "/" character and the numbers entered are not float values
         if (!timeSigArg.isEmpty() && timeSigArg.length() >= 3 &&
-                timeSigArg.matches("[0-9]+/[0-9]+") && timeSigArg.contains("/") &&
+                timeSigArg.matches("[0-9]{1,2}/[0-9]{1,2}") && timeSigArg.contains("/") &&
                 !timeSigArg.endsWith("/") && !timeSigArg.startsWith("/") &&
                 !timeSigArg.contains(".")) {
             String[] timeSigStr = timeSigArg.split("/"); //Get the two integers
 
-            return Integer.parseInt(timeSigStr[0]);
+            int beatsPerBar = Integer.parseInt(timeSigStr[0]);
+            if (beatsPerBar <= 0) {
+                throw new InvalidRequestException("Time signature beats per bar must be more than 0: " + timeSigArg);
+            }
+            return beatsPerBar;
         } else {
-            throw new RuntimeException("Unable to parse time signature, ensure the value is a string of format [4/4] or [3/8] etc.: " + timeSigArg); //Add error message
+            throw new InvalidRequestException("Unable to parse time signature, ensure the value is a string of format [4/4] or [3/8] etc.: " + timeSigArg); //Add error message
         }
     }
 
@@ -357,7 +458,7 @@ public class SongStructure {
                 }
                 return keyToReturn;
             } else {
-                throw new RuntimeException("Key format invalid:" + keyArg);
+                throw new InvalidRequestException("Key format invalid:" + keyArg);
             }
         }
         return 0;
@@ -384,9 +485,13 @@ public class SongStructure {
     private int validateTempo(String tempoArg) {
         //Check the string isn't empty and contains only integers
         if (!tempoArg.isEmpty() && tempoArg.matches("[0-9]+") && !tempoArg.contains(".") && tempoArg.length() < 4) {
-            return Integer.parseInt(tempoArg);
+            int tempoInt = Integer.parseInt(tempoArg);
+            if (tempoInt <= 0) {
+                throw new InvalidRequestException("Tempo must be more than 0:" + tempoArg);
+            }
+            return tempoInt;
         } else {
-            throw new RuntimeException("Tempo format invalid:" + tempoArg);
+            throw new InvalidRequestException("Tempo format invalid:" + tempoArg);
         }
     }
 }
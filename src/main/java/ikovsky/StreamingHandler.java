@@ -0,0 +1,94 @@
+package ikovsky;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Lambda handler that streams the song to the client as it is generated, for a function URL with the
+ * RESPONSE_STREAM invoke mode.
+ * The response body is the midi file itself rather than JSON. The status and headers go first, as the JSON prelude of
+ * Lambda's HTTP streaming integration followed by eight zero bytes, then the file header and tempo track, then each
+ * track as soon as its part is written. The song's id, name and seed are sent as the X-Song-Id, X-Song-Name and
+ * X-Song-Seed headers, so the client has them before the song.
+ *
+ * Errors found before streaming starts (e.g. invalid parameters) are sent as a JSON error with status 400. Once the
+ * song has started the status cannot change, so a failure ends the stream early and the song is not stored.
+ *
+ * This needs a runtime that streams a handler's output as it is written. The managed java17 runtime buffers it until
+ * the handler returns, which gives no earlier first byte, so the deployed streaming endpoint is SongServer's /stream
+ * behind the Lambda Web Adapter instead (see Terraform/lambda.tf). It sends the same headers and body.
+ */
+public class StreamingHandler implements RequestStreamHandler {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final byte[] PRELUDE_DELIMITER = new byte[8];
+    private static final String MIDI_CONTENT_TYPE = "audio/midi";
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        RequestMetrics metrics = new RequestMetrics();
+        SongGenerator songGenerator;
+        SongResponse cached;
+        try {
+            metrics.begin(RequestMetrics.Stage.DECODE);
+            Map<?, ?> event = mapper.readValue(input, Map.class);
+            GenerationRequest request = GenerationRequest.fromJson(Handler.readBody(event));
+            metrics.end();
+
+            songGenerator = new SongGenerator(false, null, request, SongStores.getDefault(), metrics);
+            cached = songGenerator.findCached();
+        } catch (InvalidRequestException | IOException e) {
+            PipelineMetrics.record(metrics);
+            writeError(output, e.getMessage());
+            return;
+        }
+
+        if (cached != null) {
+            writePrelude(output, 200, songHeaders(cached.getId(), cached.getSongName(), cached.getSeed()));
+            output.write(Base64.getDecoder().decode(cached.getMidiString()));
+        } else {
+            songGenerator.nameSong();
+            writePrelude(output, 200, songHeaders(songGenerator.getSongId(), songGenerator.getSongName(), songGenerator.getSeed()));
+            songGenerator.streamSong(output);
+        }
+        output.flush();
+        PipelineMetrics.record(metrics);
+    }
+
+    /**
+     * Function to build the headers of a streamed song, which carry the song's id, name and seed
+     */
+    static Map<String, String> songHeaders(String id, String name, long seed) {
+        Map<String, String> headers = Handler.corsHeaders();
+        headers.put("Content-Type", MIDI_CONTENT_TYPE);
+        headers.put("Access-Control-Expose-Headers", "X-Song-Id, X-Song-Name, X-Song-Seed");
+        headers.put("X-Song-Id", id);
+        headers.put("X-Song-Name", name);
+        headers.put("X-Song-Seed", Long.toString(seed));
+        return headers;
+    }
+
+    /**
+     * Function to send the status and headers, which must come before any of the body
+     */
+    private static void writePrelude(OutputStream output, int statusCode, Map<String, String> headers) throws IOException {
+        output.write(mapper.writeValueAsBytes(Map.of("statusCode", statusCode, "headers", headers)));
+        output.write(PRELUDE_DELIMITER);
+        output.flush();
+    }
+
+    private static void writeError(OutputStream output, String message) throws IOException {
+        Map<String, String> headers = Handler.corsHeaders();
+        headers.put("Content-Type", "application/json");
+        writePrelude(output, 400, headers);
+        output.write(mapper.writeValueAsString(Map.of("error", message == null ? "" : message)).getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+}